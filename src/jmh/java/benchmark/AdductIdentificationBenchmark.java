@@ -0,0 +1,48 @@
+package benchmark;
+
+import lipid.Annotation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Annotation#identifyAdduct()} against the exhaustive search for growing peak groups.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdductIdentificationBenchmark {
+
+    @Param({"2", "8", "32", "128"})
+    private int peaks;
+
+    private Annotation annotation;
+
+    @Setup
+    public void setup() {
+        annotation = Fixtures.annotationWithGroup(peaks, 7);
+    }
+
+    @Benchmark
+    public String identifyAdduct() {
+        return annotation.identifyAdduct();
+    }
+
+    @Benchmark
+    public String identifyAdductExhaustive() {
+        return annotation.identifyAdductExhaustive();
+    }
+}
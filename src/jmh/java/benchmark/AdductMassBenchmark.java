@@ -0,0 +1,96 @@
+package benchmark;
+
+import adduct.Adduct;
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+import lipid.Ionization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mass conversions of {@link Adduct} over an mz column, with the string API, with parsed descriptors and with the
+ * batch overloads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdductMassBenchmark {
+
+    @Param({"1000", "100000"})
+    private int size;
+
+    @Param({"[M+H]+", "[M+2H]2+", "[2M+Na]+"})
+    private String adductName;
+
+    private double[] mzs;
+    private double[] masses;
+    private int[] ppms;
+    private AdductDescriptor adduct;
+
+    @Setup
+    public void setup() {
+        mzs = Fixtures.mzs(size, 11);
+        adduct = AdductRegistry.get(adductName);
+        masses = new double[size];
+        ppms = new int[size];
+    }
+
+    @Benchmark
+    public double monoisotopicMassFromNames() {
+        double sum = 0;
+        for (double mz : mzs) {
+            sum += Adduct.getMonoisotopicMassFromMZ(mz, adductName, Ionization.POSITIVE);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double monoisotopicMassFromDescriptor() {
+        double sum = 0;
+        for (double mz : mzs) {
+            sum += Adduct.getMonoisotopicMassFromMZ(mz, adduct);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double mzFromDescriptor() {
+        double sum = 0;
+        for (double mass : mzs) {
+            sum += Adduct.getMZFromMonoisotopicMass(mass, adduct);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double[] monoisotopicMassColumn() {
+        Adduct.getMonoisotopicMassesFromMZ(mzs, 0, size, adduct, masses, 0);
+        return masses;
+    }
+
+    @Benchmark
+    public double[] mzColumn() {
+        Adduct.getMZsFromMonoisotopicMass(mzs, 0, size, adduct, masses, 0);
+        return masses;
+    }
+
+    @Benchmark
+    public int[] ppmColumn() {
+        Adduct.calculatePPMIncrements(mzs, 0, size, 760.5851, ppms, 0);
+        return ppms;
+    }
+}
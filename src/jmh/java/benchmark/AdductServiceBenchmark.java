@@ -0,0 +1,92 @@
+package benchmark;
+
+import lipid.AdductService;
+import lipid.Annotation;
+import lipid.AnnotationUnit;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adduct identification of a whole sample: firing {@link AnnotationUnit} against {@link AdductService} on the common
+ * pool and on a single thread. Every run starts from annotations without adduct, so runs are measured one shot at a
+ * time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class AdductServiceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Sizes {
+
+        @Param({"10000", "1000000"})
+        int size;
+
+        List<Annotation> annotations;
+
+        @Setup(Level.Trial)
+        public void create() {
+            annotations = Fixtures.annotations(size, 3);
+        }
+
+        @Setup(Level.Invocation)
+        public void clear() {
+            annotations.forEach(annotation -> annotation.setAdduct(null));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AnnotationUnitFiring {
+
+        RuleUnitInstance<AnnotationUnit> instance;
+
+        @Setup(Level.Invocation)
+        public void insert(Sizes sizes) {
+            AnnotationUnit annotationUnit = new AnnotationUnit();
+            instance = RuleUnitProvider.get().createRuleUnitInstance(annotationUnit);
+            sizes.annotations.forEach(annotationUnit.getAnnotations()::add);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            instance.close();
+        }
+    }
+
+    private static final AdductService COMMON_POOL = new AdductService();
+    private static final AdductService SEQUENTIAL = new AdductService(new ForkJoinPool(1), null, Integer.MAX_VALUE);
+
+    @Benchmark
+    public int annotationUnitFire(AnnotationUnitFiring firing) {
+        return firing.instance.fire();
+    }
+
+    @Benchmark
+    public int adductService(Sizes sizes) {
+        return COMMON_POOL.annotate(sizes.annotations);
+    }
+
+    @Benchmark
+    public int adductServiceSequential(Sizes sizes) {
+        return SEQUENTIAL.annotate(sizes.annotations);
+    }
+}
@@ -0,0 +1,140 @@
+package benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result with a stored baseline and fails when a benchmark got slower than the tolerance.
+ * Run by the jmh-compare profile, see the pom.
+ *
+ * A benchmark of the result that is not in the baseline cannot be gated, so it fails the comparison too unless
+ * unmatched benchmarks are allowed. Benchmarks of the baseline missing from the result (a run of a subset) are only
+ * reported. The baseline is only meaningful on the machine and JVM it was recorded on: it is not versioned, and a
+ * baseline recorded by another JVM is reported.
+ *
+ * Arguments: result file, baseline file, tolerance in percent and, optionally, "true" to replace the baseline with
+ * the result instead of comparing and "true" to allow benchmarks missing from the baseline.
+ */
+public class BaselineComparison {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: BaselineComparison <result.json> <baseline.json> <tolerance %> [update]");
+            System.exit(2);
+        }
+        Path result = Path.of(args[0]);
+        Path baseline = Path.of(args[1]);
+        double tolerance = Double.parseDouble(args[2]) / 100;
+        boolean allowUnmatched = args.length > 4 && Boolean.parseBoolean(args[4]);
+
+        if (args.length > 3 && Boolean.parseBoolean(args[3])) {
+            Files.createDirectories(baseline.toAbsolutePath().getParent());
+            Files.copy(result, baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Baseline " + baseline + " updated from " + result);
+            return;
+        }
+        if (!Files.exists(baseline)) {
+            System.err.println("No baseline at " + baseline + ", run with -Djmh.baseline.update=true to store one");
+            System.exit(2);
+        }
+
+        Map<String, Score> current = read(result);
+        Map<String, Score> reference = read(baseline);
+        String currentJvm = jvm(result);
+        String baselineJvm = jvm(baseline);
+        if (!currentJvm.equals(baselineJvm)) {
+            System.out.println("Warning: the baseline was recorded by " + baselineJvm + ", the result by " + currentJvm);
+        }
+        int regressions = 0;
+        int unmatched = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "benchmark", "baseline", "current", "change");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score now = entry.getValue();
+            Score before = reference.get(entry.getKey());
+            if (before == null) {
+                unmatched++;
+                System.out.printf("%-90s %14s %14.3f %9s%n", entry.getKey(), "-", now.value, "NOT IN BASELINE");
+                continue;
+            }
+            // positive change is always worse: more time per operation or fewer operations per time
+            double change = now.higherIsBetter ? (before.value - now.value) / before.value : (now.value - before.value) / before.value;
+            boolean regression = change > tolerance;
+            if (regression) regressions++;
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), before.value, now.value, change * 100,
+                    regression ? "  REGRESSION" : "");
+        }
+        for (String benchmark : reference.keySet()) {
+            if (!current.containsKey(benchmark)) {
+                System.out.printf("%-90s %14.3f %14s %9s%n", benchmark, reference.get(benchmark).value, "-", "not run");
+            }
+        }
+        boolean failed = false;
+        if (regressions > 0) {
+            System.err.println(regressions + " benchmark(s) regressed more than " + args[2] + "% against " + baseline);
+            failed = true;
+        }
+        if (unmatched > 0 && !allowUnmatched) {
+            System.err.println(unmatched + " benchmark(s) are not in " + baseline + " and were not compared: store a new "
+                    + "baseline with -Djmh.baseline.update=true or allow them with -Djmh.allowUnmatched=true");
+            failed = true;
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return JVM and version of the first run of the file
+     */
+    private static String jvm(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            JsonArray runs = JsonParser.parseReader(reader).getAsJsonArray();
+            if (runs.size() == 0) return "-";
+            JsonObject run = runs.get(0).getAsJsonObject();
+            return run.has("vmName") && run.has("vmVersion")
+                    ? run.get("vmName").getAsString() + " " + run.get("vmVersion").getAsString() : "-";
+        }
+    }
+
+    private static Map<String, Score> read(Path file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            JsonArray runs = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                String mode = run.get("mode").getAsString();
+                StringBuilder key = new StringBuilder(run.get("benchmark").getAsString()).append(" [").append(mode);
+                if (run.has("params")) {
+                    Map<String, String> params = new TreeMap<>();
+                    run.getAsJsonObject("params").entrySet().forEach(e -> params.put(e.getKey(), e.getValue().getAsString()));
+                    params.forEach((name, value) -> key.append(", ").append(name).append('=').append(value));
+                }
+                key.append(']');
+                double value = run.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+                scores.put(key.toString(), new Score(value, mode.equals("thrpt")));
+            }
+        }
+        return scores;
+    }
+
+    private static final class Score {
+        private final double value;
+        private final boolean higherIsBetter;
+
+        private Score(double value, boolean higherIsBetter) {
+            this.value = value;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import adduct.Adduct;
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.Peak;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Random data shared by the benchmarks. Every generator takes its own seed so runs are comparable.
+ */
+final class Fixtures {
+
+    private static final LipidType[] TYPES = LipidType.values();
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return mz values between 150 and 1650
+     */
+    static double[] mzs(int size, long seed) {
+        Random random = new Random(seed);
+        double[] mzs = new double[size];
+        for (int i = 0; i < size; i++) {
+            mzs[i] = 150 + random.nextDouble() * 1500;
+        }
+        return mzs;
+    }
+
+    /**
+     * @return annotations of 8 classes, 22 carbon counts and 13 double bond counts, with RT between 0 and 20
+     */
+    static List<Annotation> annotations(int size, long seed) {
+        Random random = new Random(seed);
+        List<Annotation> annotations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            LipidType type = TYPES[random.nextInt(TYPES.length)];
+            int carbons = 28 + 2 * random.nextInt(22);
+            int doubleBonds = random.nextInt(13);
+            Lipid lipid = new Lipid(i, type + " " + carbons + ":" + doubleBonds, "", type, carbons, doubleBonds);
+            annotations.add(new Annotation(lipid, 500 + random.nextDouble() * 500, 1e5, random.nextDouble() * 20,
+                    Ionization.POSITIVE, group(random, 4)));
+        }
+        return annotations;
+    }
+
+    /**
+     * @return an annotation on the lowest peak of a group with two real adducts of the same molecule and noise, so
+     * most adduct pairs have to be tried
+     */
+    static Annotation annotationWithGroup(int peakCount, long seed) {
+        Random random = new Random(seed);
+        Set<Peak> peaks = group(random, peakCount);
+        double lowest = peaks.stream().mapToDouble(Peak::getMz).min().orElse(500);
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        return new Annotation(lipid, lowest, 1e5, 5d, Ionization.POSITIVE, peaks);
+    }
+
+    private static Set<Peak> group(Random random, int peakCount) {
+        List<AdductDescriptor> adducts = AdductRegistry.forIonization(Ionization.POSITIVE);
+        double neutralMass = 600 + random.nextDouble() * 400;
+        Set<Peak> peaks = new HashSet<>();
+        peaks.add(new Peak(Adduct.getMZFromMonoisotopicMass(neutralMass, adducts.get(adducts.size() - 1)), 1e5));
+        peaks.add(new Peak(Adduct.getMZFromMonoisotopicMass(neutralMass, adducts.get(adducts.size() - 2)), 1e5));
+        while (peaks.size() < peakCount) {
+            peaks.add(new Peak(200 + random.nextDouble() * 1500, random.nextDouble() * 1e5));
+        }
+        return peaks;
+    }
+}
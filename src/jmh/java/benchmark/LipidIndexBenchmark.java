@@ -0,0 +1,74 @@
+package benchmark;
+
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidIndex;
+import lipid.LipidType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * mz queries per second against a lipid database, one binary search per adduct against the merge join of a sorted
+ * column.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LipidIndexBenchmark {
+
+    private static final int QUERIES = 100_000;
+
+    @Param({"10000", "1000000"})
+    private int lipids;
+
+    private LipidIndex index;
+    private double[] sortedMzs;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(5);
+        List<Lipid> database = new ArrayList<>(lipids);
+        for (int i = 0; i < lipids; i++) {
+            Lipid lipid = new Lipid(i, "", "", LipidType.PC, 34, 1);
+            lipid.setMonoisotropic(300 + random.nextDouble() * 1200);
+            database.add(lipid);
+        }
+        index = LipidIndex.of(database);
+        sortedMzs = Fixtures.mzs(QUERIES, 9);
+        Arrays.sort(sortedMzs);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void lookup(Blackhole blackhole) {
+        for (int m = 0; m < sortedMzs.length; m++) {
+            index.lookup(sortedMzs[m], Ionization.POSITIVE, 10, (mzIndex, lipidIndex, adduct) -> blackhole.consume(lipidIndex));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void lookupSorted(Blackhole blackhole) {
+        index.lookupSorted(sortedMzs, Ionization.POSITIVE, 10, (mzIndex, lipidIndex, adduct) -> blackhole.consume(lipidIndex));
+    }
+}
@@ -0,0 +1,125 @@
+package benchmark;
+
+import lipid.Annotation;
+import lipid.AnnotationUnit;
+import lipid.ElutionOrderScorer;
+import lipid.LipidScoreUnit;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Firing of {@link AnnotationUnit} and {@link LipidScoreUnit} for growing numbers of annotations, and the cost of
+ * creating a rule unit instance. Every firing starts from fresh annotations, so they are measured one shot at a time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RuleUnitBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Sizes {
+
+        // 100000 annotations need a larger heap than the default of a fork: -p size=100000 -jvmArgs -Xmx4g
+        @Param({"100", "1000", "10000"})
+        int size;
+    }
+
+    @State(Scope.Thread)
+    public static class AnnotationUnitFiring {
+
+        RuleUnitInstance<AnnotationUnit> instance;
+
+        @Setup(Level.Invocation)
+        public void insert(Sizes sizes) {
+            AnnotationUnit annotationUnit = new AnnotationUnit();
+            instance = RuleUnitProvider.get().createRuleUnitInstance(annotationUnit);
+            Fixtures.annotations(sizes.size, 3).forEach(annotationUnit.getAnnotations()::add);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            instance.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LipidScoreUnitFiring {
+
+        RuleUnitInstance<LipidScoreUnit> instance;
+
+        @Setup(Level.Invocation)
+        public void insert(Sizes sizes) {
+            LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+            instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
+            Fixtures.annotations(sizes.size, 5).forEach(lipidScoreUnit::addAnnotation);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            instance.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NativeScoring {
+
+        List<Annotation> annotations;
+
+        @Setup(Level.Invocation)
+        public void create(Sizes sizes) {
+            annotations = Fixtures.annotations(sizes.size, 5);
+        }
+    }
+
+    @Benchmark
+    public int annotationUnitFire(AnnotationUnitFiring firing) {
+        return firing.instance.fire();
+    }
+
+    @Benchmark
+    public int lipidScoreUnitFire(LipidScoreUnitFiring firing) {
+        return firing.instance.fire();
+    }
+
+    @Benchmark
+    public List<Annotation> elutionOrderScorer(NativeScoring scoring) {
+        new ElutionOrderScorer().score(scoring.annotations);
+        return scoring.annotations;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public void lipidScoreUnitCreation() {
+        RuleUnitProvider.get().createRuleUnitInstance(new LipidScoreUnit()).close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public void annotationUnitCreation() {
+        RuleUnitProvider.get().createRuleUnitInstance(new AnnotationUnit()).close();
+    }
+}
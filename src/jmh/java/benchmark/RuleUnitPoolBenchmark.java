@@ -0,0 +1,76 @@
+package benchmark;
+
+import lipid.Annotation;
+import lipid.LipidScoreUnit;
+import lipid.RuleUnitPool;
+import metrics.RuleMetrics;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring of one small sample with a new {@link LipidScoreUnit} instance per sample and with an instance reused up to
+ * 64 times from a {@link RuleUnitPool}, which retracts the sample instead of closing the instance.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RuleUnitPoolBenchmark {
+
+    @Param({"1", "20", "200"})
+    int size;
+
+    List<Annotation> sample;
+    RuleMetrics metrics;
+    RuleUnitPool<LipidScoreUnit> pool;
+
+    @Setup
+    public void create() {
+        sample = Fixtures.annotations(size, 17);
+        metrics = new RuleMetrics("pool-benchmark");
+        pool = new RuleUnitPool<>(LipidScoreUnit::new, LipidScoreUnit::getAnnotations, metrics, 1, 64);
+        pool.prewarm(1);
+    }
+
+    @TearDown
+    public void close() {
+        pool.close();
+    }
+
+    @Benchmark
+    public int newInstancePerSample() {
+        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+        RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit, metrics.newRuleConfig());
+        try {
+            sample.forEach(lipidScoreUnit::addAnnotation);
+            return metrics.fire(instance);
+        } finally {
+            instance.close();
+        }
+    }
+
+    @Benchmark
+    public int pooledInstance() {
+        try (RuleUnitPool<LipidScoreUnit>.Lease lease = pool.borrow()) {
+            lease.addAll(sample);
+            return lease.fire();
+        }
+    }
+}
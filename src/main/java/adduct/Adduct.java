@@ -2,25 +2,25 @@ package adduct;
 
 import lipid.Ionization;
 
-import java.util.Map;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Adduct {
 
+    private static final Pattern ADDUCT_PATTERN = Pattern.compile("\\[([0-9]*)M[^\\]]*]([0-9]*)([+-−])?");
+
     public static int extractSign(String adduct) {
-        Pattern pattern = Pattern.compile("\\[([0-9]*)M[^\\]]*]([0-9]*)([+-−])?");
-        Matcher matcher = pattern.matcher(adduct);
+        Matcher matcher = ADDUCT_PATTERN.matcher(adduct);
         if (matcher.find()) {
-            String chargeStr = matcher.group(2);
-            return matcher.group(3).equals("-") ? -1 : 1;
+            String signStr = matcher.group(3);
+            return "-".equals(signStr) || "−".equals(signStr) ? -1 : 1;
         }
         return 0; // default
     }
 
     public static int extractCharge(String adduct) {
-        Pattern pattern = Pattern.compile("\\[([0-9]*)M[^\\]]*]([0-9]*)([+-−])?");
-        Matcher matcher = pattern.matcher(adduct);
+        Matcher matcher = ADDUCT_PATTERN.matcher(adduct);
         if (matcher.find()) {
             String chargeStr = matcher.group(2);
             return chargeStr.isEmpty() ? 1 : Integer.parseInt(chargeStr);
@@ -29,55 +29,125 @@ public class Adduct {
     }
 
     public static int extractMultimer(String adduct) {
-        Pattern pattern = Pattern.compile("\\[([0-9]*)M[^\\]]*]([0-9]*)([+-−])?");
-        Matcher matcher = pattern.matcher(adduct);
+        Matcher matcher = ADDUCT_PATTERN.matcher(adduct);
         if (matcher.find()) {
             String multimerStr = matcher.group(1);
             return multimerStr.isEmpty() ? 1 : Integer.parseInt(multimerStr);
         }
         return 1;
     }
+
     /**
      * Calculate the mass to search depending on the adduct hypothesis
      *
      * @param mz experimental mz
      * @param adduct adduct name ([M+H]+, [2M+H]+, [M+2H]2+, etc..)
      *
-     * @return the mass difference within the tolerance respecting to the
-     * massToSearch
+     * @return the monoisotopic mass, or null if the adduct is not registered for the ionization mode
      */
-
     public static Double getMonoisotopicMassFromMZ(Double mz, String adduct, Ionization ionization) {
-        if (mz != null || adduct != null) {
-            int charge = extractCharge(adduct);
-            int multimer = extractMultimer(adduct);
-            //int sign = extractSign(adduct);
-            Double adductMass = 0.0;
+        if (mz == null || adduct == null) {
+            return null;
+        }
+        AdductDescriptor descriptor = AdductRegistry.get(adduct, ionization);
+        if (descriptor == null) {
+            return null;
+        }
+        return getMonoisotopicMassFromMZ(mz.doubleValue(), descriptor);
+    }
 
-            Map<String, Double> adductMap = ionization == Ionization.POSITIVE ? AdductList.MAPMZPOSITIVEADDUCTS : AdductList.MAPMZNEGATIVEADDUCTS;
-            adductMass = adductMap.get(adduct);
+    /**
+     * Calculate the mass to search depending on the adduct hypothesis. No parsing nor lookups are done, so this
+     * is the method to use in loops.
+     *
+     * @param mz experimental mz
+     * @param adduct parsed adduct from {@link AdductRegistry}
+     *
+     * @return the monoisotopic mass
+     */
+    public static double getMonoisotopicMassFromMZ(double mz, AdductDescriptor adduct) {
+        return (mz * adduct.getCharge() + adduct.getMassDelta()) / adduct.getMultimer();
+    }
 
-            //System.out.println("adduct: " +adduct +", charge: " +charge+", multimer: " + multimer);
-            return (mz * charge + adductMass)  / multimer;
+    /**
+     * Converts a whole mz column under one adduct hypothesis. The loop is a plain array loop with the adduct
+     * constants in locals, which C2 compiles to SIMD code, and every mass is bit-identical to
+     * {@link #getMonoisotopicMassFromMZ(double, AdductDescriptor)}.
+     *
+     * @return the monoisotopic masses, in the order of the mzs
+     */
+    public static double[] getMonoisotopicMassesFromMZ(double[] mzs, AdductDescriptor adduct) {
+        double[] masses = new double[mzs.length];
+        getMonoisotopicMassesFromMZ(mzs, 0, mzs.length, adduct, masses, 0);
+        return masses;
+    }
 
+    /**
+     * Converts the mzs between from (inclusive) and to (exclusive) and writes the masses to masses, starting at
+     * offset
+     */
+    public static void getMonoisotopicMassesFromMZ(double[] mzs, int from, int to, AdductDescriptor adduct,
+                                                   double[] masses, int offset) {
+        Objects.checkFromToIndex(from, to, mzs.length);
+        Objects.checkFromIndexSize(offset, to - from, masses.length);
+        double charge = adduct.getCharge();
+        double massDelta = adduct.getMassDelta();
+        double multimer = adduct.getMultimer();
+        int shift = offset - from;
+        for (int i = from; i < to; i++) {
+            masses[i + shift] = (mzs[i] * charge + massDelta) / multimer;
         }
-        //System.out.println("No multimer charge detection workds" + adduct);
-        return null;
-
     }
 
     public static Double getMZFromMonoisotopicMass(Double mm, String adduct, Ionization ionization) {
-        if (mm != null || adduct != null) {
-            int charge = extractCharge(adduct);
-            int multimer = extractMultimer(adduct);
-            Double adductMass = 0.0;
+        if (mm == null || adduct == null) {
+            return null;
+        }
+        AdductDescriptor descriptor = AdductRegistry.get(adduct, ionization);
+        if (descriptor == null) {
+            return null;
+        }
+        return getMZFromMonoisotopicMass(mm.doubleValue(), descriptor);
+    }
 
-            Map<String, Double> adductMap = ionization == Ionization.POSITIVE ? AdductList.MAPMZPOSITIVEADDUCTS : AdductList.MAPMZNEGATIVEADDUCTS;
-            adductMass = adductMap.get(adduct);
+    /**
+     * Calculate the mz expected for a compound depending on the adduct hypothesis
+     *
+     * @param mm monoisotopic mass of the compound
+     * @param adduct parsed adduct from {@link AdductRegistry}
+     *
+     * @return the expected mz
+     */
+    public static double getMZFromMonoisotopicMass(double mm, AdductDescriptor adduct) {
+        return ((mm * adduct.getMultimer()) - adduct.getMassDelta()) / adduct.getCharge();
+    }
+
+    /**
+     * Computes the mz of a whole column of monoisotopic masses under one adduct hypothesis, bit-identical to
+     * {@link #getMZFromMonoisotopicMass(double, AdductDescriptor)}
+     *
+     * @return the expected mzs, in the order of the masses
+     */
+    public static double[] getMZsFromMonoisotopicMass(double[] masses, AdductDescriptor adduct) {
+        double[] mzs = new double[masses.length];
+        getMZsFromMonoisotopicMass(masses, 0, masses.length, adduct, mzs, 0);
+        return mzs;
+    }
 
-            return ((mm * multimer) - adductMass) / charge;
+    /**
+     * Converts the masses between from (inclusive) and to (exclusive) and writes the mzs to mzs, starting at offset
+     */
+    public static void getMZsFromMonoisotopicMass(double[] masses, int from, int to, AdductDescriptor adduct,
+                                                  double[] mzs, int offset) {
+        Objects.checkFromToIndex(from, to, masses.length);
+        Objects.checkFromIndexSize(offset, to - from, mzs.length);
+        double charge = adduct.getCharge();
+        double massDelta = adduct.getMassDelta();
+        double multimer = adduct.getMultimer();
+        int shift = offset - from;
+        for (int i = from; i < to; i++) {
+            mzs[i + shift] = ((masses[i] * multimer) - massDelta) / charge;
         }
-        return null;
     }
 
     /**
@@ -86,20 +156,52 @@ public class Adduct {
      * @param experimentalMass Mass measured by MS
      * @param theoreticalMass Theoretical mass of the compound
      */
-    public static int calculatePPMIncrement(Double experimentalMass, Double theoreticalMass) {
+    public static int calculatePPMIncrement(double experimentalMass, double theoreticalMass) {
         int ppmIncrement;
         ppmIncrement = (int) Math.round(Math.abs((experimentalMass - theoreticalMass) * 1000000
                 / theoreticalMass));
         return ppmIncrement;
     }
 
+    /**
+     * Ppm differences of a column of measured masses against one theoretical mass, e.g. the candidate of a database
+     * search. Every value is the one of {@link #calculatePPMIncrement(double, double)}.
+     */
+    public static void calculatePPMIncrements(double[] experimentalMasses, int from, int to, double theoreticalMass,
+                                              int[] ppms, int offset) {
+        Objects.checkFromToIndex(from, to, experimentalMasses.length);
+        Objects.checkFromIndexSize(offset, to - from, ppms.length);
+        int shift = offset - from;
+        for (int i = from; i < to; i++) {
+            ppms[i + shift] = (int) Math.round(Math.abs((experimentalMasses[i] - theoreticalMass) * 1000000
+                    / theoreticalMass));
+        }
+    }
+
+    /**
+     * Ppm differences of two aligned columns of measured and theoretical masses, as
+     * {@link #calculatePPMIncrement(double, double)} of every pair
+     */
+    public static int[] calculatePPMIncrements(double[] experimentalMasses, double[] theoreticalMasses) {
+        if (experimentalMasses.length != theoreticalMasses.length) {
+            throw new IllegalArgumentException("Columns of different length: " + experimentalMasses.length + " and "
+                    + theoreticalMasses.length);
+        }
+        int[] ppms = new int[experimentalMasses.length];
+        for (int i = 0; i < ppms.length; i++) {
+            ppms[i] = (int) Math.round(Math.abs((experimentalMasses[i] - theoreticalMasses[i]) * 1000000
+                    / theoreticalMasses[i]));
+        }
+        return ppms;
+    }
+
     /**
      * Returns the ppm difference between measured mass and theoretical mass
      *
      * @param experimentalMass    Mass measured by MS
      * @param ppm ppm of tolerance
      */
-    public static double calculateDeltaPPM(Double experimentalMass, int ppm) {
+    public static double calculateDeltaPPM(double experimentalMass, int ppm) {
         double deltaPPM;
         deltaPPM =  Math.round(Math.abs((experimentalMass * ppm) / 1000000));
         return deltaPPM;
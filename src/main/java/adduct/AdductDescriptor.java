@@ -0,0 +1,70 @@
+package adduct;
+
+import lipid.Ionization;
+
+/**
+ * Parsed, immutable view of an adduct name such as [M+H]+ or [2M-H]−. Descriptors are created once by
+ * {@link AdductRegistry} so the mass conversions never have to parse the adduct string again.
+ */
+public final class AdductDescriptor {
+
+    private final int id;
+    private final String name;
+    private final int charge;
+    private final int multimer;
+    private final int sign;
+    private final double massDelta;
+    private final Ionization ionization;
+
+    AdductDescriptor(int id, String name, int charge, int multimer, int sign, double massDelta, Ionization ionization) {
+        this.id = id;
+        this.name = name;
+        this.charge = charge;
+        this.multimer = multimer;
+        this.sign = sign;
+        this.massDelta = massDelta;
+        this.ionization = ionization;
+    }
+
+    /**
+     * @return dense id of the adduct inside the {@link AdductRegistry}, between 0 and {@link AdductRegistry#size()}
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCharge() {
+        return charge;
+    }
+
+    public int getMultimer() {
+        return multimer;
+    }
+
+    /**
+     * @return 1 for positive adducts and -1 for negative ones
+     */
+    public int getSign() {
+        return sign;
+    }
+
+    /**
+     * @return mass added to mz * charge to obtain the multimer mass, as stored in {@link AdductList}
+     */
+    public double getMassDelta() {
+        return massDelta;
+    }
+
+    public Ionization getIonization() {
+        return ionization;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
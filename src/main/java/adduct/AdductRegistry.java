@@ -0,0 +1,90 @@
+package adduct;
+
+import lipid.Ionization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable registry of the adducts in {@link AdductList}, parsed once at class load. Every adduct gets a dense
+ * int id (positive adducts first, in the order of {@link AdductList#MAPMZPOSITIVEADDUCTS}, then the negative ones).
+ */
+public final class AdductRegistry {
+
+    private static final AdductDescriptor[] BY_ID;
+    private static final Map<String, AdductDescriptor> BY_NAME;
+    private static final List<AdductDescriptor> POSITIVE;
+    private static final List<AdductDescriptor> NEGATIVE;
+
+    static {
+        List<AdductDescriptor> all = new ArrayList<>();
+        POSITIVE = register(AdductList.MAPMZPOSITIVEADDUCTS, Ionization.POSITIVE, all);
+        NEGATIVE = register(AdductList.MAPMZNEGATIVEADDUCTS, Ionization.NEGATIVE, all);
+        BY_ID = all.toArray(new AdductDescriptor[0]);
+
+        Map<String, AdductDescriptor> byName = new HashMap<>();
+        for (AdductDescriptor descriptor : BY_ID) {
+            byName.put(descriptor.getName(), descriptor);
+        }
+        BY_NAME = Collections.unmodifiableMap(byName);
+    }
+
+    private AdductRegistry() {
+    }
+
+    private static List<AdductDescriptor> register(Map<String, Double> adductMap, Ionization ionization, List<AdductDescriptor> all) {
+        List<AdductDescriptor> descriptors = new ArrayList<>(adductMap.size());
+        for (Map.Entry<String, Double> entry : adductMap.entrySet()) {
+            String name = entry.getKey();
+            AdductDescriptor descriptor = new AdductDescriptor(all.size(), name,
+                    Adduct.extractCharge(name), Adduct.extractMultimer(name), Adduct.extractSign(name),
+                    entry.getValue(), ionization);
+            all.add(descriptor);
+            descriptors.add(descriptor);
+        }
+        return List.copyOf(descriptors);
+    }
+
+    /**
+     * @param name adduct name ([M+H]+, [2M+H]+, [M+2H]2+, etc..)
+     * @return the descriptor of the adduct or null if the adduct is not registered
+     */
+    public static AdductDescriptor get(String name) {
+        return BY_NAME.get(name);
+    }
+
+    /**
+     * @param name adduct name
+     * @param ionization ionization mode the adduct must belong to
+     * @return the descriptor of the adduct or null if it is not registered for that ionization
+     */
+    public static AdductDescriptor get(String name, Ionization ionization) {
+        AdductDescriptor descriptor = BY_NAME.get(name);
+        return descriptor != null && descriptor.getIonization() == ionization ? descriptor : null;
+    }
+
+    /**
+     * @param id dense id returned by {@link AdductDescriptor#getId()}
+     */
+    public static AdductDescriptor get(int id) {
+        return BY_ID[id];
+    }
+
+    /**
+     * @return the adducts of the ionization mode, in the same order as in {@link AdductList}. The list is immutable
+     * and random access, so it can be iterated by index without allocating.
+     */
+    public static List<AdductDescriptor> forIonization(Ionization ionization) {
+        return ionization == Ionization.POSITIVE ? POSITIVE : NEGATIVE;
+    }
+
+    /**
+     * @return number of registered adducts, which is also the upper bound (exclusive) of the adduct ids
+     */
+    public static int size() {
+        return BY_ID.length;
+    }
+}
@@ -0,0 +1,114 @@
+package ingest;
+
+import lipid.Annotation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a feature table with a {@link FeatureTableReader} on a background thread while the caller consumes the
+ * previous batches. At most queueCapacity batches are held in memory: when the consumer is slower than the file, the
+ * reader blocks until a batch is taken (backpressure).
+ *
+ * Errors of the reader are thrown by {@link #hasNext()} or {@link #next()}. Closing the stream stops the reader.
+ */
+public class AnnotationBatchStream implements Iterator<List<Annotation>>, AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    // marks the end of the file in the queue
+    private static final List<Annotation> END = Collections.emptyList();
+
+    private final BlockingQueue<List<Annotation>> queue;
+    private final Thread producer;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private List<Annotation> nextBatch;
+    private boolean finished;
+
+    public AnnotationBatchStream(Path file, int batchSize) throws IOException {
+        this(new FeatureTableReader(file, batchSize), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param reader reader of the table, closed by this stream
+     * @param queueCapacity maximum number of batches read ahead
+     */
+    public AnnotationBatchStream(FeatureTableReader reader, int queueCapacity) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.producer = new Thread(() -> read(reader), "feature-table-reader " + reader.getFile().getFileName());
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    private void read(FeatureTableReader reader) {
+        try (reader) {
+            List<Annotation> batch;
+            do {
+                batch = reader.nextBatch();
+                if (!batch.isEmpty()) queue.put(batch);
+            } while (!batch.isEmpty() && !closed);
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            if (!closed) {
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    // closed by the consumer
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (finished) return false;
+        if (nextBatch == null) {
+            try {
+                nextBatch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the next batch", e);
+            }
+        }
+        if (nextBatch == END) {
+            finished = true;
+            Throwable error = failure;
+            if (error instanceof IOException) {
+                throw new UncheckedIOException((IOException) error);
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error != null) {
+                throw new IllegalStateException("Reading of the feature table failed", error);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public List<Annotation> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        List<Annotation> batch = nextBatch;
+        nextBatch = null;
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        finished = true;
+        producer.interrupt();
+        queue.clear();
+    }
+}
@@ -0,0 +1,459 @@
+package ingest;
+
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.PeakArray;
+import lipid.ScoreRule;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of scored annotations, so the results of the rules can be kept and reloaded without firing them
+ * again. The file is columnar: mz, RT, intensity, scores and the index of the lipid, adduct and ionization of each
+ * annotation are primitive columns, lipids and adducts are stored once in a dictionary at the end of the file and the
+ * grouped peaks of all the annotations are two columns with the offset of each annotation in a third one.
+ *
+ * {@link #write(Path, List)} writes through a file channel. {@link #open(Path)} maps the columns and only decodes the
+ * dictionary, so opening does not depend on the number of annotations: values are read from the mapped file by index
+ * and {@link #getAnnotation(int)} builds an annotation only when it is asked for.
+ *
+ * Layout, little endian, every column starting at a multiple of 8 bytes:
+ * <pre>
+ * header      magic, version, annotations (n), rules (r): int; peaks (p), dictionary offset: long
+ * columns     mz, rt, intensity, RT z-score (NaN if none): double[n]; peak offsets: long[n + 1];
+ *             score, scores applied: int[n];
+ *             scores applied of each rule: int[r][n]; lipid, adduct (-1 if none): int[n];
+ *             ionization (-1 if none): byte[n]
+ * peaks       mz, intensity: double[p]
+ * dictionary  rule names, ionization names, lipid type names, lipids (lipid type -1 if none), adducts
+ * </pre>
+ * Rules, ionizations and lipid types are stored by name, so a snapshot can be read after the enums change. A column
+ * cannot be larger than 2 GB.
+ */
+public final class AnnotationSnapshot {
+
+    public static final int MAGIC = 0x4C534E50; // "LSNP"
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final Path file;
+    private final int size;
+    private final DoubleBuffer mzs;
+    private final DoubleBuffer rts;
+    private final DoubleBuffer intensities;
+    private final DoubleBuffer rtZScores;
+    private final LongBuffer peakOffsets;
+    private final IntBuffer scores;
+    private final IntBuffer scoresApplied;
+    private final IntBuffer[] ruleScoresApplied;
+    private final IntBuffer lipidIds;
+    private final IntBuffer adductIds;
+    private final ByteBuffer ionizationIds;
+    private final DoubleBuffer peakMzs;
+    private final DoubleBuffer peakIntensities;
+    // rules of this enum in the order of the snapshot, null for the rules that no longer exist
+    private final ScoreRule[] rules;
+    private final Ionization[] ionizations;
+    private final Lipid[] lipids;
+    private final String[] adducts;
+
+    private AnnotationSnapshot(Path file, FileChannel channel) throws IOException {
+        this.file = file;
+        ByteBuffer header = map(channel, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException(file + " is not an annotation snapshot");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + " in " + file + ", expected " + VERSION);
+        }
+        this.size = header.getInt();
+        int ruleCount = header.getInt();
+        long peakCount = header.getLong();
+        long dictionaryOffset = header.getLong();
+
+        long offset = HEADER_SIZE;
+        mzs = map(channel, offset, 8L * size).asDoubleBuffer();
+        offset += 8L * size;
+        rts = map(channel, offset, 8L * size).asDoubleBuffer();
+        offset += 8L * size;
+        intensities = map(channel, offset, 8L * size).asDoubleBuffer();
+        offset += 8L * size;
+        rtZScores = map(channel, offset, 8L * size).asDoubleBuffer();
+        offset += 8L * size;
+        peakOffsets = map(channel, offset, 8L * (size + 1)).asLongBuffer();
+        offset += 8L * (size + 1);
+        scores = map(channel, offset, 4L * size).asIntBuffer();
+        offset += 4L * size;
+        scoresApplied = map(channel, offset, 4L * size).asIntBuffer();
+        offset += 4L * size;
+        ruleScoresApplied = new IntBuffer[ruleCount];
+        for (int r = 0; r < ruleCount; r++) {
+            ruleScoresApplied[r] = map(channel, offset, 4L * size).asIntBuffer();
+            offset += 4L * size;
+        }
+        lipidIds = map(channel, offset, 4L * size).asIntBuffer();
+        offset += 4L * size;
+        adductIds = map(channel, offset, 4L * size).asIntBuffer();
+        offset += 4L * size;
+        ionizationIds = map(channel, offset, size);
+        offset = align(offset + size);
+        peakMzs = map(channel, offset, 8L * peakCount).asDoubleBuffer();
+        offset += 8L * peakCount;
+        peakIntensities = map(channel, offset, 8L * peakCount).asDoubleBuffer();
+        offset += 8L * peakCount;
+        if (offset != dictionaryOffset) {
+            throw new IOException("Corrupted snapshot " + file + ": columns end at " + offset
+                    + " but the dictionary starts at " + dictionaryOffset);
+        }
+
+        ByteBuffer dictionary = map(channel, dictionaryOffset, channel.size() - dictionaryOffset);
+        rules = new ScoreRule[ruleCount];
+        for (int r = 0; r < ruleCount; r++) {
+            rules[r] = valueOf(ScoreRule.class, readString(dictionary));
+        }
+        ionizations = new Ionization[dictionary.getInt()];
+        for (int i = 0; i < ionizations.length; i++) {
+            ionizations[i] = Ionization.valueOf(readString(dictionary));
+        }
+        LipidType[] lipidTypes = new LipidType[dictionary.getInt()];
+        for (int t = 0; t < lipidTypes.length; t++) {
+            lipidTypes[t] = LipidType.valueOf(readString(dictionary));
+        }
+        lipids = new Lipid[dictionary.getInt()];
+        for (int l = 0; l < lipids.length; l++) {
+            int compoundId = dictionary.getInt();
+            int lipidTypeId = dictionary.getInt();
+            LipidType lipidType = lipidTypeId < 0 ? null : lipidTypes[lipidTypeId];
+            int carbonCount = dictionary.getInt();
+            int doubleBondsCount = dictionary.getInt();
+            double monoisotropic = dictionary.getDouble();
+            String name = readString(dictionary);
+            String formula = readString(dictionary);
+            lipids[l] = new Lipid(compoundId, name, formula, lipidType, carbonCount, doubleBondsCount);
+            lipids[l].setMonoisotropic(monoisotropic);
+        }
+        adducts = new String[dictionary.getInt()];
+        for (int a = 0; a < adducts.length; a++) {
+            adducts[a] = readString(dictionary);
+        }
+    }
+
+    /**
+     * Maps the snapshot. The file can be closed right after, the mapping stays valid until the snapshot is garbage
+     * collected.
+     */
+    public static AnnotationSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(file + " is not an annotation snapshot");
+            }
+            return new AnnotationSnapshot(file, channel);
+        }
+    }
+
+    /**
+     * Writes the annotations, their scores and their grouped peaks, replacing the file if it exists
+     */
+    public static void write(Path file, List<Annotation> annotations) throws IOException {
+        int n = annotations.size();
+        ScoreRule[] rules = ScoreRule.values();
+        Map<Lipid, Integer> lipidIds = new HashMap<>();
+        List<Lipid> lipids = new ArrayList<>();
+        Map<String, Integer> adductIds = new HashMap<>();
+        List<String> adducts = new ArrayList<>();
+        long peakCount = 0;
+        for (Annotation annotation : annotations) {
+            if (annotation.getLipid() != null && lipidIds.putIfAbsent(annotation.getLipid(), lipids.size()) == null) {
+                lipids.add(annotation.getLipid());
+            }
+            String adduct = annotation.getAdduct();
+            if (adduct != null && adductIds.putIfAbsent(adduct, adducts.size()) == null) {
+                adducts.add(adduct);
+            }
+            peakCount += annotation.getGroupedPeaks().size();
+        }
+        long columnsEnd = align(HEADER_SIZE + (8L * 5 + 4L * (4 + rules.length) + 1) * n + 8) + 16L * peakCount;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             ChannelWriter out = new ChannelWriter(channel)) {
+            out.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(rules.length).putLong(peakCount).putLong(columnsEnd);
+            for (Annotation annotation : annotations) out.putDouble(annotation.getMz());
+            for (Annotation annotation : annotations) out.putDouble(annotation.getRtMin());
+            for (Annotation annotation : annotations) out.putDouble(annotation.getIntensity());
+            for (Annotation annotation : annotations) out.putDouble(annotation.getRtZScore());
+            long peakOffset = 0;
+            out.putLong(peakOffset);
+            for (Annotation annotation : annotations) {
+                peakOffset += annotation.getGroupedPeaks().size();
+                out.putLong(peakOffset);
+            }
+            for (Annotation annotation : annotations) out.putInt(annotation.getScore());
+            for (Annotation annotation : annotations) out.putInt(annotation.getTotalScoresApplied());
+            for (ScoreRule rule : rules) {
+                for (Annotation annotation : annotations) out.putInt(annotation.getScoresApplied(rule));
+            }
+            for (Annotation annotation : annotations) {
+                out.putInt(annotation.getLipid() == null ? -1 : lipidIds.get(annotation.getLipid()));
+            }
+            for (Annotation annotation : annotations) {
+                out.putInt(annotation.getAdduct() == null ? -1 : adductIds.get(annotation.getAdduct()));
+            }
+            for (Annotation annotation : annotations) {
+                out.putByte((byte) (annotation.getIonization() == null ? -1 : annotation.getIonization().ordinal()));
+            }
+            out.align();
+            for (Annotation annotation : annotations) {
+                PeakArray peaks = annotation.getGroupedPeaks();
+                for (int k = 0; k < peaks.size(); k++) out.putDouble(peaks.getMz(k));
+            }
+            for (Annotation annotation : annotations) {
+                PeakArray peaks = annotation.getGroupedPeaks();
+                for (int k = 0; k < peaks.size(); k++) out.putDouble(peaks.getIntensity(k));
+            }
+            if (out.position() != columnsEnd) {
+                throw new IllegalStateException("Annotations changed while the snapshot was written");
+            }
+
+            for (ScoreRule rule : rules) out.putString(rule.name());
+            out.putInt(Ionization.values().length);
+            for (Ionization ionization : Ionization.values()) out.putString(ionization.name());
+            out.putInt(LipidType.values().length);
+            for (LipidType lipidType : LipidType.values()) out.putString(lipidType.name());
+            out.putInt(lipids.size());
+            for (Lipid lipid : lipids) {
+                out.putInt(lipid.getCompoundId())
+                        .putInt(lipid.getLipidType() == null ? -1 : lipid.getLipidType().ordinal())
+                        .putInt(lipid.getCarbonCount()).putInt(lipid.getDoubleBondsCount())
+                        .putDouble(lipid.getMonoisotropic());
+                out.putString(lipid.getName());
+                out.putString(lipid.getFormula());
+            }
+            out.putInt(adducts.size());
+            for (String adduct : adducts) out.putString(adduct);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getMz(int index) {
+        return mzs.get(index);
+    }
+
+    public double getRtMin(int index) {
+        return rts.get(index);
+    }
+
+    public double getIntensity(int index) {
+        return intensities.get(index);
+    }
+
+    /**
+     * @return the z-score of the RT regression, NaN if the annotation was not scored by it
+     */
+    public double getRtZScore(int index) {
+        return rtZScores.get(index);
+    }
+
+    public int getScore(int index) {
+        return scores.get(index);
+    }
+
+    public int getTotalScoresApplied(int index) {
+        return scoresApplied.get(index);
+    }
+
+    /**
+     * @return number of times the rule scored the annotation, 0 if the rule did not exist when the snapshot was written
+     */
+    public int getScoresApplied(int index, ScoreRule rule) {
+        for (int r = 0; r < rules.length; r++) {
+            if (rules[r] == rule) return ruleScoresApplied[r].get(index);
+        }
+        return 0;
+    }
+
+    /**
+     * @return the lipid of the annotation, shared by all the annotations of the same lipid, or null if it had none
+     */
+    public Lipid getLipid(int index) {
+        int lipid = lipidIds.get(index);
+        return lipid < 0 ? null : lipids[lipid];
+    }
+
+    /**
+     * @return the adduct of the annotation or null if it was not identified
+     */
+    public String getAdduct(int index) {
+        int adduct = adductIds.get(index);
+        return adduct < 0 ? null : adducts[adduct];
+    }
+
+    public Ionization getIonization(int index) {
+        int ionization = ionizationIds.get(index);
+        return ionization < 0 ? null : ionizations[ionization];
+    }
+
+    public PeakArray getGroupedPeaks(int index) {
+        int from = (int) peakOffsets.get(index);
+        int length = (int) (peakOffsets.get(index + 1) - peakOffsets.get(index));
+        double[] mzs = new double[length];
+        double[] intensities = new double[length];
+        peakMzs.get(from, mzs);
+        peakIntensities.get(from, intensities);
+        return PeakArray.of(mzs, intensities);
+    }
+
+    /**
+     * @return a new annotation with the values, peaks and scores of the annotation written at the index
+     */
+    public Annotation getAnnotation(int index) {
+        Annotation annotation = new Annotation(getLipid(index), getMz(index), getIntensity(index), getRtMin(index),
+                getIonization(index), getGroupedPeaks(index));
+        annotation.setAdduct(getAdduct(index));
+        for (int r = 0; r < rules.length; r++) {
+            int applied = ruleScoresApplied[r].get(index);
+            if (rules[r] != null && applied != 0) {
+                annotation.addScore(rules[r], applied);
+            }
+        }
+        annotation.setRtZScore(getRtZScore(index));
+        // the scores added without a rule, and those of the rules that no longer exist
+        annotation.setTotalScoresApplied(getTotalScoresApplied(index));
+        annotation.setScore(getScore(index));
+        return annotation;
+    }
+
+    /**
+     * @return every annotation of the snapshot, see {@link #getAnnotation(int)}
+     */
+    public List<Annotation> getAnnotations() {
+        List<Annotation> annotations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            annotations.add(getAnnotation(i));
+        }
+        return annotations;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot column of " + length + " bytes is larger than 2 GB");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static <E extends Enum<E>> E valueOf(Class<E> type, String name) {
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equals(name)) return constant;
+        }
+        return null;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffered little endian writes to a file channel
+     */
+    private static final class ChannelWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        private ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private ChannelWriter putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+            return this;
+        }
+
+        private ChannelWriter putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            return this;
+        }
+
+        private ChannelWriter putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        private ChannelWriter putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+            return this;
+        }
+
+        private void putString(String value) throws IOException {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (byte b : bytes) putByte(b);
+        }
+
+        private void align() throws IOException {
+            while ((position() & 7) != 0) putByte((byte) 0);
+        }
+
+        private long position() {
+            return written + buffer.position();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parsing of ASCII numbers straight from a byte buffer, without building Strings. Decimal numbers with up to 15
+ * significant digits and a small exponent (all the values of a feature table) are converted exactly with one
+ * multiplication or division, which gives the same double as {@link Double#parseDouble(String)}. Anything else falls
+ * back to it.
+ */
+final class ByteNumbers {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private ByteNumbers() {
+    }
+
+    /**
+     * @param buffer buffer holding the number
+     * @param from absolute index of the first byte
+     * @param to absolute index after the last byte
+     */
+    static double parseDouble(ByteBuffer buffer, int from, int to) {
+        int start = trimStart(buffer, from, to);
+        int end = trimEnd(buffer, start, to);
+        if (start == end) {
+            throw new NumberFormatException("Empty number");
+        }
+        int i = start;
+        boolean negative = false;
+        byte b = buffer.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        for (; i < end && isDigit(b = buffer.get(i)); i++) {
+            anyDigit = true;
+            if (digits > 0 || b != '0') {
+                if (digits < 18) mantissa = mantissa * 10 + (b - '0');
+                else exponent++;
+                digits++;
+            }
+        }
+        if (i < end && buffer.get(i) == '.') {
+            for (i++; i < end && isDigit(b = buffer.get(i)); i++) {
+                anyDigit = true;
+                if (digits > 0 || b != '0') {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        exponent--;
+                    }
+                    digits++;
+                } else {
+                    exponent--;
+                }
+            }
+        }
+        if (i < end && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            int exponentStart = i;
+            for (; i < end && isDigit(b = buffer.get(i)); i++) {
+                if (explicitExponent < 100_000) explicitExponent = explicitExponent * 10 + (b - '0');
+            }
+            if (i == exponentStart) return slowPath(buffer, start, end);
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (!anyDigit || i != end) {
+            return slowPath(buffer, start, end);
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0d;
+        } else if (digits <= MAX_EXACT_DIGITS && exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (digits <= MAX_EXACT_DIGITS && exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return slowPath(buffer, start, end);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @param buffer buffer holding the number
+     * @param from absolute index of the first byte
+     * @param to absolute index after the last byte
+     */
+    static int parseInt(ByteBuffer buffer, int from, int to) {
+        int start = trimStart(buffer, from, to);
+        int end = trimEnd(buffer, start, to);
+        if (start == end) {
+            throw new NumberFormatException("Empty number");
+        }
+        int i = start;
+        boolean negative = buffer.get(i) == '-';
+        if (negative || buffer.get(i) == '+') i++;
+        if (i == end) {
+            throw new NumberFormatException("Not a number: " + text(buffer, start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (!isDigit(b)) {
+                throw new NumberFormatException("Not a number: " + text(buffer, start, end));
+            }
+            value = value * 10 + (b - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("Out of int range: " + text(buffer, start, end));
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Out of int range: " + text(buffer, start, end));
+        }
+        return (int) value;
+    }
+
+    static String text(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int trimStart(ByteBuffer buffer, int from, int to) {
+        while (from < to && isBlank(buffer.get(from))) from++;
+        return from;
+    }
+
+    static int trimEnd(ByteBuffer buffer, int from, int to) {
+        while (to > from && isBlank(buffer.get(to - 1))) to--;
+        return to;
+    }
+
+    private static double slowPath(ByteBuffer buffer, int from, int to) {
+        return Double.parseDouble(text(buffer, from, to));
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '"' || b == '\r';
+    }
+}
@@ -0,0 +1,378 @@
+package ingest;
+
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidCatalog;
+import lipid.LipidType;
+import lipid.PeakArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads a CSV or TSV feature table through a memory-mapped window that slides over the file, so files larger than
+ * the heap can be read. Numbers are parsed from the bytes (see {@link ByteNumbers}) and the annotations are handed
+ * out in batches of bounded size with {@link #nextBatch()}: nothing is read until the caller asks for the next
+ * batch. {@link AnnotationBatchStream} reads ahead on another thread with a bounded queue.
+ *
+ * The first line is the header, the delimiter is a tab if the header has one and a comma otherwise. Column names
+ * are case-insensitive and the order is free:
+ * <ul>
+ *     <li>mz, rt, intensity: required</li>
+ *     <li>lipid_id: required, the candidate lipid of the feature</li>
+ *     <li>lipid_type, carbons, double_bonds: required unless the lipids come from a {@link LipidCatalog} or the
+ *     lipid_name column is there, whose shorthand name is parsed instead (see {@link LipidCatalog#parseName})</li>
+ *     <li>lipid_name, formula: optional</li>
+ *     <li>ionization: optional, POSITIVE / NEGATIVE (or +, -), POSITIVE by default</li>
+ *     <li>peaks: optional, grouped peaks as mz:intensity pairs separated by ';'</li>
+ * </ul>
+ * Quoted fields with delimiters inside are not supported. Every lipid is built once, the first time its id is read,
+ * and shared by all its annotations. With a catalog the lipids of the catalog are used, and shared by the readers of
+ * every file; only the ids missing from the catalog are built from the columns.
+ */
+public class FeatureTableReader implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private static final String[] COLUMNS = {"mz", "rt", "intensity", "lipid_id", "lipid_type", "carbons",
+            "double_bonds", "lipid_name", "formula", "ionization", "peaks"};
+    private static final int MZ = 0, RT = 1, INTENSITY = 2, LIPID_ID = 3, LIPID_TYPE = 4, CARBONS = 5,
+            DOUBLE_BONDS = 6, LIPID_NAME = 7, FORMULA = 8, IONIZATION = 9, PEAKS = 10;
+    private static final int REQUIRED_COLUMNS = 4;
+    private static final LipidType[] LIPID_TYPES = LipidType.values();
+
+    private final Path file;
+    private final LipidCatalog catalog;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int batchSize;
+    private int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+    private long lineNumber;
+
+    private byte delimiter;
+    private final int[] columnIndex = new int[COLUMNS.length];
+    private int fieldCount;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private double[] peakMzs = new double[16];
+    private double[] peakIntensities = new double[16];
+
+    private final Map<Integer, Lipid> lipids = new HashMap<>();
+    private long annotationsRead;
+
+    /**
+     * @param file feature table
+     * @param batchSize maximum number of annotations returned by {@link #nextBatch()}
+     */
+    public FeatureTableReader(Path file, int batchSize) throws IOException {
+        this(file, batchSize, null, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param file feature table
+     * @param batchSize maximum number of annotations returned by {@link #nextBatch()}
+     * @param catalog lipids of the features, looked up by lipid_id
+     */
+    public FeatureTableReader(Path file, int batchSize, LipidCatalog catalog) throws IOException {
+        this(file, batchSize, catalog, DEFAULT_WINDOW_SIZE);
+    }
+
+    FeatureTableReader(Path file, int batchSize, int windowSize) throws IOException {
+        this(file, batchSize, null, windowSize);
+    }
+
+    private FeatureTableReader(Path file, int batchSize, LipidCatalog catalog, int windowSize) throws IOException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        this.file = file;
+        this.catalog = catalog;
+        this.batchSize = batchSize;
+        this.windowSize = windowSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.fileSize = channel.size();
+            map(0);
+            readHeader();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the next annotations of the table, at most batchSize of them. An empty list means the end of the file.
+     */
+    public List<Annotation> nextBatch() throws IOException {
+        if (!hasMoreBytes()) {
+            return Collections.emptyList();
+        }
+        List<Annotation> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize) {
+            int lineEnd = nextLine();
+            if (lineEnd < 0) break;
+            if (splitFields(lineEnd)) {
+                batch.add(parseAnnotation());
+            }
+            position = lineEnd + 1;
+        }
+        annotationsRead += batch.size();
+        return batch;
+    }
+
+    public long getAnnotationsRead() {
+        return annotationsRead;
+    }
+
+    /**
+     * @return number of different lipids read so far
+     */
+    public int getLipidsRead() {
+        return lipids.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private boolean hasMoreBytes() {
+        return windowStart + position < fileSize;
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        long length = Math.min(windowSize, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        position = 0;
+    }
+
+    /**
+     * Makes sure a whole line starting at {@link #position} is in the window, sliding or growing the window if
+     * needed.
+     *
+     * @return the index in the window of the end of the line ('\n' or the end of the file), -1 at the end of file
+     */
+    private int nextLine() throws IOException {
+        while (true) {
+            if (!hasMoreBytes()) return -1;
+            int limit = window.limit();
+            for (int i = position; i < limit; i++) {
+                if (window.get(i) == '\n') {
+                    lineNumber++;
+                    return i;
+                }
+            }
+            if (windowStart + limit >= fileSize) {
+                lineNumber++;
+                return limit;
+            }
+            if (position == 0) {
+                // a single line longer than the window
+                windowSize = (int) Math.min(Integer.MAX_VALUE - 8, 2L * windowSize);
+            }
+            map(windowStart + position);
+        }
+    }
+
+    private void readHeader() throws IOException {
+        int lineEnd = nextLine();
+        if (lineEnd < 0) {
+            throw new IOException("Empty feature table " + file);
+        }
+        delimiter = ',';
+        for (int i = position; i < lineEnd; i++) {
+            if (window.get(i) == '\t') {
+                delimiter = '\t';
+                break;
+            }
+        }
+        splitFields(lineEnd);
+        Arrays.fill(columnIndex, -1);
+        for (int field = 0; field < fieldCount; field++) {
+            String name = ByteNumbers.text(window, fieldStart[field], fieldEnd[field]).trim().toLowerCase(Locale.ROOT);
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (COLUMNS[column].equals(name)) columnIndex[column] = field;
+            }
+        }
+        for (int column = 0; column < REQUIRED_COLUMNS; column++) {
+            if (columnIndex[column] < 0) {
+                throw new IOException("Missing column " + COLUMNS[column] + " in " + file);
+            }
+        }
+        if (catalog == null && columnIndex[LIPID_NAME] < 0) {
+            for (int column : new int[]{LIPID_TYPE, CARBONS, DOUBLE_BONDS}) {
+                if (columnIndex[column] < 0) {
+                    throw new IOException("Missing column " + COLUMNS[column] + " (or " + COLUMNS[LIPID_NAME]
+                            + ") in " + file);
+                }
+            }
+        }
+        position = lineEnd + 1;
+    }
+
+    /**
+     * @return false for blank lines
+     */
+    private boolean splitFields(int lineEnd) {
+        fieldCount = 0;
+        int start = position;
+        if (lineEnd > start && window.get(lineEnd - 1) == '\r') lineEnd--;
+        if (start == lineEnd) return false;
+        for (int i = start; i <= lineEnd; i++) {
+            if (i == lineEnd || window.get(i) == delimiter) {
+                if (fieldCount == fieldStart.length) {
+                    fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+                    fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+                }
+                fieldStart[fieldCount] = start;
+                fieldEnd[fieldCount] = i;
+                fieldCount++;
+                start = i + 1;
+            }
+        }
+        return true;
+    }
+
+    private Annotation parseAnnotation() {
+        try {
+            double mz = parseDouble(MZ);
+            double rt = parseDouble(RT);
+            double intensity = parseDouble(INTENSITY);
+            Lipid lipid = lipid(parseInt(LIPID_ID));
+            Ionization ionization = hasValue(IONIZATION) ? parseIonization() : Ionization.POSITIVE;
+            PeakArray peaks = hasValue(PEAKS) ? parsePeaks() : PeakArray.EMPTY;
+            return new Annotation(lipid, mz, intensity, rt, ionization, peaks);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Wrong feature at line " + lineNumber + " of " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Lipid lipid(int compoundId) {
+        Lipid lipid = lipids.get(compoundId);
+        if (lipid == null) {
+            lipid = catalog == null ? null : catalog.getByCompoundId(compoundId);
+            if (lipid == null) {
+                String name = hasValue(LIPID_NAME) ? text(LIPID_NAME) : "";
+                String formula = hasValue(FORMULA) ? text(FORMULA) : "";
+                lipid = hasValue(LIPID_TYPE) || !hasValue(LIPID_NAME)
+                        ? new Lipid(compoundId, name, formula, parseLipidType(), parseInt(CARBONS), parseInt(DOUBLE_BONDS))
+                        : LipidCatalog.newLipid(compoundId, name, formula);
+            }
+            lipids.put(compoundId, lipid);
+        }
+        return lipid;
+    }
+
+    private boolean hasValue(int column) {
+        int field = columnIndex[column];
+        return field >= 0 && field < fieldCount
+                && ByteNumbers.trimStart(window, fieldStart[field], fieldEnd[field]) < fieldEnd[field];
+    }
+
+    private int field(int column) {
+        int field = columnIndex[column];
+        if (field < 0 || field >= fieldCount) {
+            throw new IllegalArgumentException("missing value of " + COLUMNS[column]);
+        }
+        return field;
+    }
+
+    private double parseDouble(int column) {
+        int field = field(column);
+        return ByteNumbers.parseDouble(window, fieldStart[field], fieldEnd[field]);
+    }
+
+    private int parseInt(int column) {
+        int field = field(column);
+        return ByteNumbers.parseInt(window, fieldStart[field], fieldEnd[field]);
+    }
+
+    private String text(int column) {
+        int field = field(column);
+        return ByteNumbers.text(window, fieldStart[field], fieldEnd[field]).trim();
+    }
+
+    private LipidType parseLipidType() {
+        int field = field(LIPID_TYPE);
+        int start = ByteNumbers.trimStart(window, fieldStart[field], fieldEnd[field]);
+        int end = ByteNumbers.trimEnd(window, start, fieldEnd[field]);
+        for (LipidType type : LIPID_TYPES) {
+            if (equalsIgnoreCase(window, start, end, type.name())) return type;
+        }
+        throw new IllegalArgumentException("unknown lipid type " + ByteNumbers.text(window, start, end));
+    }
+
+    private Ionization parseIonization() {
+        int field = field(IONIZATION);
+        int start = ByteNumbers.trimStart(window, fieldStart[field], fieldEnd[field]);
+        byte first = window.get(start);
+        if (first == '+' || first == 'P' || first == 'p') return Ionization.POSITIVE;
+        if (first == '-' || first == 'N' || first == 'n') return Ionization.NEGATIVE;
+        throw new IllegalArgumentException("unknown ionization " + ByteNumbers.text(window, start, fieldEnd[field]));
+    }
+
+    private PeakArray parsePeaks() {
+        int field = field(PEAKS);
+        int end = fieldEnd[field];
+        int count = 0;
+        int start = fieldStart[field];
+        for (int i = start; i <= end; i++) {
+            if (i == end || window.get(i) == ';') {
+                if (ByteNumbers.trimStart(window, start, i) < i) {
+                    int colon = start;
+                    while (colon < i && window.get(colon) != ':') colon++;
+                    if (colon == i) {
+                        throw new IllegalArgumentException("peak without intensity " + ByteNumbers.text(window, start, i));
+                    }
+                    if (count == peakMzs.length) {
+                        peakMzs = Arrays.copyOf(peakMzs, count * 2);
+                        peakIntensities = Arrays.copyOf(peakIntensities, count * 2);
+                    }
+                    peakMzs[count] = ByteNumbers.parseDouble(window, start, colon);
+                    peakIntensities[count] = ByteNumbers.parseDouble(window, colon + 1, i);
+                    count++;
+                }
+                start = i + 1;
+            }
+        }
+        return PeakArray.of(peakMzs, peakIntensities, count);
+    }
+
+    private static boolean equalsIgnoreCase(ByteBuffer buffer, int from, int to, String ascii) {
+        if (to - from != ascii.length()) return false;
+        for (int i = 0; i < ascii.length(); i++) {
+            if (Character.toUpperCase((char) buffer.get(from + i)) != ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "FeatureTableReader(" + file + ", delimiter=" + new String(new byte[]{delimiter}, StandardCharsets.US_ASCII).replace("\t", "\\t") + ")";
+    }
+}
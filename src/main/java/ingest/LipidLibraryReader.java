@@ -0,0 +1,111 @@
+package ingest;
+
+import lipid.Lipid;
+import lipid.LipidCatalog;
+import lipid.LipidType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads a lipid library (CSV or TSV) into a {@link LipidCatalog}. As in {@link FeatureTableReader}, the first line is
+ * the header, the delimiter is a tab if the header has one and a comma otherwise, and column names are
+ * case-insensitive:
+ * <ul>
+ *     <li>lipid_id, lipid_name: required</li>
+ *     <li>formula: optional</li>
+ *     <li>mass: optional, monoisotopic mass, computed from the formula if missing</li>
+ *     <li>lipid_type, carbons, double_bonds: optional, parsed from the shorthand name if missing</li>
+ * </ul>
+ * Libraries have a few thousand lipids, so the file is read line by line without memory mapping.
+ */
+public final class LipidLibraryReader {
+
+    private static final String[] COLUMNS = {"lipid_id", "lipid_name", "formula", "mass", "lipid_type", "carbons",
+            "double_bonds"};
+    private static final int LIPID_ID = 0, LIPID_NAME = 1, FORMULA = 2, MASS = 3, LIPID_TYPE = 4, CARBONS = 5,
+            DOUBLE_BONDS = 6;
+    private static final int REQUIRED_COLUMNS = 2;
+
+    private LipidLibraryReader() {
+    }
+
+    public static LipidCatalog read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IOException("Empty lipid library " + file);
+            }
+            String delimiter = header.indexOf('\t') >= 0 ? "\t" : ",";
+            String[] names = header.split(delimiter, -1);
+            int[] columnIndex = new int[COLUMNS.length];
+            Arrays.fill(columnIndex, -1);
+            for (int field = 0; field < names.length; field++) {
+                String name = names[field].trim().toLowerCase(Locale.ROOT);
+                for (int column = 0; column < COLUMNS.length; column++) {
+                    if (COLUMNS[column].equals(name)) columnIndex[column] = field;
+                }
+            }
+            for (int column = 0; column < REQUIRED_COLUMNS; column++) {
+                if (columnIndex[column] < 0) {
+                    throw new IOException("Missing column " + COLUMNS[column] + " in " + file);
+                }
+            }
+
+            List<Lipid> lipids = new ArrayList<>();
+            String line;
+            long lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) continue;
+                String[] fields = line.split(delimiter, -1);
+                try {
+                    lipids.add(parseLipid(fields, columnIndex));
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Wrong lipid at line " + lineNumber + " of " + file + ": "
+                            + e.getMessage(), e);
+                }
+            }
+            return LipidCatalog.of(lipids);
+        }
+    }
+
+    private static Lipid parseLipid(String[] fields, int[] columnIndex) {
+        int compoundId = Integer.parseInt(value(fields, columnIndex, LIPID_ID));
+        String name = value(fields, columnIndex, LIPID_NAME);
+        String formula = hasValue(fields, columnIndex, FORMULA) ? value(fields, columnIndex, FORMULA) : "";
+        Lipid lipid;
+        if (hasValue(fields, columnIndex, LIPID_TYPE) && hasValue(fields, columnIndex, CARBONS)
+                && hasValue(fields, columnIndex, DOUBLE_BONDS)) {
+            lipid = new Lipid(compoundId, name, formula,
+                    LipidType.valueOf(value(fields, columnIndex, LIPID_TYPE).toUpperCase(Locale.ROOT)),
+                    Integer.parseInt(value(fields, columnIndex, CARBONS)),
+                    Integer.parseInt(value(fields, columnIndex, DOUBLE_BONDS)));
+        } else {
+            lipid = LipidCatalog.newLipid(compoundId, name, formula);
+        }
+        if (hasValue(fields, columnIndex, MASS)) {
+            lipid.setMonoisotropic(Double.parseDouble(value(fields, columnIndex, MASS)));
+        }
+        return lipid;
+    }
+
+    private static boolean hasValue(String[] fields, int[] columnIndex, int column) {
+        int field = columnIndex[column];
+        return field >= 0 && field < fields.length && !fields[field].isBlank();
+    }
+
+    private static String value(String[] fields, int[] columnIndex, int column) {
+        if (!hasValue(fields, columnIndex, column)) {
+            throw new IllegalArgumentException("missing value of " + COLUMNS[column]);
+        }
+        return fields[columnIndex[column]].trim();
+    }
+}
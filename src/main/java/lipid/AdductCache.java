@@ -0,0 +1,236 @@
+package lipid;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of {@link Annotation#identifyAdduct()} results, so a feature that recurs across replicate injections
+ * (same m/z, same grouped peaks, same ionization) is searched once per batch instead of once per sample.
+ *
+ * Features are keyed by a quantized signature: the ionization, the m/z of the annotation, the mass of the lipid (0.0
+ * if unknown) and the m/z of every grouped peak, each rounded to a bucket of the ppm tolerance of the search (buckets
+ * are taken over log(mz), as in {@link NeutralMassJoin}), plus the order of the peaks by intensity, which decides the
+ * monoisotopic peak of each isotope envelope. A miss runs the search of the annotation itself, so it returns exactly
+ * what the uncached path returns; a hit returns the answer of an earlier feature with the same signature, that is
+ * whose masses differ by less than the tolerance. Two replicates that fall on both sides of a bucket boundary just
+ * miss.
+ *
+ * Entries are evicted when the cache is full, least recently used first, and when they are older than maxAge. The
+ * cache is split into segments with their own lock, so parallel adduct workers rarely wait for each other, and the
+ * search of a miss runs outside the lock: two workers missing the same signature at the same time both search it.
+ */
+public class AdductCache {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final long NO_MASS = Long.MIN_VALUE;
+
+    private final Segment[] segments;
+    private final long maxAgeNanos;
+    private final LongSupplier clock;
+    private final double logBucket;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize maximum number of signatures kept
+     * @param maxAge time after which an entry is evicted, 0 or less to keep entries until they are the least recently
+     *               used
+     */
+    public AdductCache(int maxSize, long maxAge, TimeUnit unit) {
+        this(maxSize, unit.toNanos(maxAge), System::nanoTime);
+    }
+
+    AdductCache(int maxSize, long maxAgeNanos, LongSupplier clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1: " + maxSize);
+        }
+        int count = Integer.highestOneBit(Math.min(MAX_SEGMENTS, maxSize));
+        this.segments = new Segment[count];
+        // the first maxSize % count segments hold one more entry, so the capacities add up to maxSize
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+        this.maxAgeNanos = maxAgeNanos > 0 ? maxAgeNanos : Long.MAX_VALUE;
+        this.clock = clock;
+        this.logBucket = Math.log1p(Annotation.TOLERANCE_PMM * 1e-6);
+    }
+
+    /**
+     * @return the adduct of the annotation, from the cache if a feature with the same signature was identified before
+     */
+    public String identify(Annotation annotation) {
+        Signature signature = signature(annotation);
+        Segment segment = segments[signature.hash & (segments.length - 1)];
+        long now = clock.getAsLong();
+        String adduct = segment.get(signature, now);
+        if (adduct != null) {
+            hits.increment();
+            return adduct;
+        }
+        misses.increment();
+        adduct = annotation.identifyAdduct();
+        segment.put(signature, adduct, now);
+        return adduct;
+    }
+
+    Signature signature(Annotation annotation) {
+        PeakArray peaks = annotation.getGroupedPeaks();
+        int n = peaks.size();
+        // ionization, annotation mz, lipid mass, then the bucket and the intensity rank of each peak
+        long[] values = new long[3 + 2 * n];
+        Ionization ionization = annotation.getIonization();
+        values[0] = ionization == null ? -1 : ionization.ordinal();
+        values[1] = bucket(annotation.getMz());
+        double lipidMass = annotation.lipidMass();
+        values[2] = lipidMass == 0.0 ? NO_MASS : bucket(lipidMass);
+        for (int i = 0; i < n; i++) {
+            values[3 + i] = bucket(peaks.getMz(i));
+        }
+        if (n > 1) {
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            IndexSort.sort(order, (a, b) -> Double.compare(peaks.getIntensity(b), peaks.getIntensity(a)));
+            // dense ranks, so equal intensities keep the same rank
+            int rank = 0;
+            for (int i = 0; i < n; i++) {
+                if (i > 0 && Double.compare(peaks.getIntensity(order[i]), peaks.getIntensity(order[i - 1])) != 0) {
+                    rank++;
+                }
+                values[3 + n + order[i]] = rank;
+            }
+        }
+        return new Signature(values);
+    }
+
+    private long bucket(double mz) {
+        if (mz > 0 && Double.isFinite(mz)) {
+            return Math.round(Math.log(mz) / logBucket);
+        }
+        // not a mass: only equal values share the bucket
+        return NO_MASS + 1 + (Double.doubleToLongBits(mz) & Long.MAX_VALUE);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries evicted because the cache was full or because they were older than maxAge
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return hits over lookups, NaN before the first lookup
+     */
+    public double getHitRate() {
+        long hit = getHits();
+        long lookups = hit + getMisses();
+        return lookups == 0 ? Double.NaN : (double) hit / lookups;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) size += segment.size();
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) segment.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdductCache(size=%d, hits=%d, misses=%d, evictions=%d, hit rate=%.1f%%)",
+                size(), getHits(), getMisses(), getEvictions(), 100 * getHitRate());
+    }
+
+    static final class Signature {
+        private final long[] values;
+        private final int hash;
+
+        Signature(long[] values) {
+            this.values = values;
+            int h = Arrays.hashCode(values);
+            // spread the high bits, the segment is taken from the low ones
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Signature)) return false;
+            Signature that = (Signature) o;
+            return hash == that.hash && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final String adduct;
+        private final long created;
+
+        Entry(String adduct, long created) {
+            this.adduct = adduct;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Least recently used map of a part of the signatures, guarded by its own monitor
+     */
+    private final class Segment extends LinkedHashMap<Signature, Entry> {
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        synchronized String get(Signature signature, long now) {
+            Entry entry = super.get(signature);
+            if (entry == null) return null;
+            if (now - entry.created >= maxAgeNanos) {
+                remove(signature);
+                evictions.increment();
+                return null;
+            }
+            return entry.adduct;
+        }
+
+        synchronized void put(Signature signature, String adduct, long now) {
+            super.put(signature, new Entry(adduct, now));
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Signature, Entry> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package lipid;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Identifies the adduct of a whole collection of annotations without the rule engine. The adduct of an annotation
+ * only depends on the annotation itself, so there is nothing to match: the annotations are split in halves on a
+ * {@link ForkJoinPool} down to ranges of grain annotations, and each range is searched by one thread. Every
+ * annotation is searched once, the ones that already have an adduct are skipped.
+ *
+ * The same answers as firing {@link AnnotationUnit}, at the cost of the searches alone, spread over the pool.
+ */
+public class AdductService {
+
+    public static final int DEFAULT_GRAIN = 256;
+
+    private final ForkJoinPool pool;
+    private final AdductCache cache;
+    private final int grain;
+
+    /**
+     * Runs on the common pool, without cache
+     */
+    public AdductService() {
+        this(ForkJoinPool.commonPool(), null, DEFAULT_GRAIN);
+    }
+
+    /**
+     * @param cache results shared with other services or samples, null to search every annotation
+     * @param grain number of annotations under which a range is searched by one thread
+     */
+    public AdductService(ForkJoinPool pool, AdductCache cache, int grain) {
+        if (grain < 1) {
+            throw new IllegalArgumentException("grain must be at least 1: " + grain);
+        }
+        this.pool = pool;
+        this.cache = cache;
+        this.grain = grain;
+    }
+
+    /**
+     * Sets the adduct of every annotation without one. An annotation must not be twice in the collection.
+     *
+     * @return number of annotations whose adduct was set
+     */
+    public int annotate(Collection<Annotation> annotations) {
+        Annotation[] array = annotations.toArray(new Annotation[0]);
+        if (array.length <= grain) {
+            return annotate(array, 0, array.length);
+        }
+        return pool.invoke(new Range(array, 0, array.length));
+    }
+
+    private int annotate(Annotation[] annotations, int from, int to) {
+        int annotated = 0;
+        for (int i = from; i < to; i++) {
+            Annotation annotation = annotations[i];
+            if (annotation.getAdduct() != null) continue;
+            annotation.setAdduct(cache == null ? annotation.identifyAdduct() : cache.identify(annotation));
+            annotated++;
+        }
+        return annotated;
+    }
+
+    private final class Range extends RecursiveTask<Integer> {
+        private final Annotation[] annotations;
+        private final int from;
+        private final int to;
+
+        Range(Annotation[] annotations, int from, int to) {
+            this.annotations = annotations;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= grain) {
+                return annotate(annotations, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Range left = new Range(annotations, from, middle);
+            left.fork();
+            int right = new Range(annotations, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+}
@@ -1,11 +1,15 @@
 package lipid;
-import adduct.Adduct;
-import adduct.AdductList;
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
 import java.util.*;
 import static adduct.Adduct.*;
 
 /**
  * Class to represent the annotation over a lipid
+ *
+ * The rules of {@link LipidScoreUnit} only join on the feature: lipid, mz, RT and the join keys, which are final. The
+ * adduct and the scores (kept in a {@link ScoreLedger}) are written by the consequences without modifying the fact,
+ * so setting them never runs the joins again.
  */
 public class Annotation {
 
@@ -14,11 +18,15 @@ public class Annotation {
     private final double intensity; // intensity of the most abundant peak in the groupedPeaks
     private final double rtMin;
     private String adduct;
-    private final Set<Peak> groupedSignals;
-    private int score;
-    private int totalScoresApplied;
+    private final PeakArray groupedSignals;
+    private final ScoreLedger scores = new ScoreLedger();
     private Ionization ionization;
-    private final int TOLERANCE_PMM = 10;
+    // ppm tolerance of the adduct search, also the width of the mz buckets of AdductCache
+    static final int TOLERANCE_PMM = 10;
+    // join keys of the elution order rules, so the engine can hash annotations into buckets instead of comparing all
+    private final int typeDoubleBondsKey;
+    private final int typeCarbonKey;
+    private final int carbonDoubleBondsKey;
 
     /**
      * @param lipid
@@ -27,7 +35,7 @@ public class Annotation {
      * @param retentionTime
      */
     public Annotation(Lipid lipid, double mz, double intensity, double retentionTime, Ionization ionization) {
-        this(lipid, mz, intensity, retentionTime, ionization, Collections.emptySet());
+        this(lipid, mz, intensity, retentionTime, ionization, PeakArray.EMPTY);
     }
 
     /**
@@ -38,57 +46,111 @@ public class Annotation {
      * @param groupedSignals
      */
     public Annotation(Lipid lipid, double mz, double intensity, double retentionTime, Ionization ionization, Set<Peak> groupedSignals) {
+        this(lipid, mz, intensity, retentionTime, ionization, PeakArray.of(groupedSignals));
+    }
+
+    /**
+     * @param lipid
+     * @param mz
+     * @param intensity
+     * @param retentionTime
+     * @param groupedSignals peaks already sorted by mz
+     */
+    public Annotation(Lipid lipid, double mz, double intensity, double retentionTime, Ionization ionization, PeakArray groupedSignals) {
         this.lipid = lipid;
         this.mz = mz;
         this.rtMin = retentionTime;
         this.intensity = intensity;
-        this.groupedSignals = orderSignals(groupedSignals);
-        this.score = 0;
-        this.totalScoresApplied = 0;
+        this.groupedSignals = groupedSignals;
+        // without a lipid or a lipid type the keys use type -1 and 0 chains, so they are never shared with typed lipids
+        int type = lipid == null || lipid.getLipidType() == null ? -1 : lipid.getLipidType().ordinal();
+        int carbons = lipid == null ? 0 : lipid.getCarbonCount();
+        int doubleBonds = lipid == null ? 0 : lipid.getDoubleBondsCount();
+        this.typeDoubleBondsKey = joinKey(type, doubleBonds);
+        this.typeCarbonKey = joinKey(type, carbons);
+        this.carbonDoubleBondsKey = lipid == null ? joinKey(-1, 0) : joinKey(carbons, doubleBonds);
         this.ionization = ionization;
         //this.adduct = identifyAdduct(this.groupedSignals);
     }
 
+    private static int joinKey(int high, int low) {
+        return (high << 16) | (low & 0xFFFF);
+    }
+
     public Set<Peak> orderSignals(Set<Peak> signals) {
-        Set<Peak> orderedSet = new TreeSet<>(Comparator.comparingDouble(Peak::getMz));
-        orderedSet.addAll(signals);
-        return orderedSet;
+        return PeakArray.of(signals).asSet();
     }
 
+    /**
+     * Identifies the adduct of the annotation by looking for two grouped peaks whose neutral masses agree under two
+     * different adducts. Isotope peaks are folded into their monoisotopic peak first, and a peak with an isotope
+     * envelope is only tried with the adducts of its charge. See {@link IsotopeClusters} and {@link NeutralMassJoin}.
+     *
+     * @return the adduct name or "unknown"
+     */
     public String identifyAdduct() {
-        Map<String, Double> adductMap = ionization == Ionization.POSITIVE ? AdductList.MAPMZPOSITIVEADDUCTS : AdductList.MAPMZNEGATIVEADDUCTS;
+        List<AdductDescriptor> adducts = AdductRegistry.forIonization(ionization);
+        IsotopeClusters clusters = IsotopeClusters.detect(groupedSignals, ionization, TOLERANCE_PMM, this.mz);
+        return NeutralMassJoin.identify(clusters.monoisotopicMzArray(), clusters.getCharges(), this.mz,
+                lipidMass(), adducts, TOLERANCE_PMM);
+    }
+
+    /**
+     * @return the mass the adduct search checks the m/z against: {@link Lipid#getMonoisotopicMass()}, so the mass set
+     * or that of the formula. 0.0 leaves the check out, for annotations without lipid or whose formula is empty or
+     * cannot be parsed.
+     */
+    double lipidMass() {
+        if (lipid == null) return 0.0;
+        try {
+            return lipid.getMonoisotopicMass();
+        } catch (IllegalArgumentException e) {
+            return 0.0;
+        }
+    }
 
-        for (String adduct1 : adductMap.keySet()) {
-            for (String adduct2 : adductMap.keySet()) {
-                if (adduct1.equals(adduct2)) continue;
+    /**
+     * Reference implementation of {@link #identifyAdduct()} that compares every pair of adducts over every pair of
+     * peaks, without folding isotopes. Kept to check the join against it: both give the same answer on groups without
+     * isotope envelopes.
+     */
+    public String identifyAdductExhaustive() {
+        List<AdductDescriptor> adducts = AdductRegistry.forIonization(ionization);
+        double[] peakMzs = groupedSignals.mzArray();
+        double lipidMass = lipidMass();
 
-                for (Peak peak1 : groupedSignals) {
-                    for (Peak peak2 : groupedSignals) {
-                        if (peak1.equals(peak2)) continue;
+        for (int a1 = 0; a1 < adducts.size(); a1++) {
+            AdductDescriptor adduct1 = adducts.get(a1);
+            for (int a2 = 0; a2 < adducts.size(); a2++) {
+                if (a1 == a2) continue;
+                AdductDescriptor adduct2 = adducts.get(a2);
 
-                        Double monoisotopicMass1 = Adduct.getMonoisotopicMassFromMZ(peak1.getMz(), adduct1, this.ionization);
-                        Double monoisotopicMass2 = Adduct.getMonoisotopicMassFromMZ(peak2.getMz(), adduct2, this.ionization);
-                        if (monoisotopicMass1 == null || monoisotopicMass2 == null) continue;
+                for (int p1 = 0; p1 < peakMzs.length; p1++) {
+                    double monoisotopicMass1 = getMonoisotopicMassFromMZ(peakMzs[p1], adduct1);
+                    for (int p2 = 0; p2 < peakMzs.length; p2++) {
+                        if (p1 == p2) continue;
+
+                        double monoisotopicMass2 = getMonoisotopicMassFromMZ(peakMzs[p2], adduct2);
 
                         int ppmDifference = calculatePPMIncrement(monoisotopicMass1, monoisotopicMass2);
                         if (ppmDifference < TOLERANCE_PMM) {
-                            int toleranceDa1 = calculatePPMIncrement(peak1.getMz(), this.mz);
-                            int toleranceDa2 = calculatePPMIncrement(peak2.getMz(), this.mz);
-
-                            if(this.lipid.getMonoisotropic() != 0.0){
-                                double inferredMass1 = getMonoisotopicMassFromMZ(this.mz, adduct1, this.ionization);
-                                double inferredMass2 = getMonoisotopicMassFromMZ(this.mz, adduct2, this.ionization);
-                                if (toleranceDa1 < TOLERANCE_PMM && calculatePPMIncrement(lipid.getMonoisotropic(), inferredMass1) < TOLERANCE_PMM) {
-                                    return adduct1;
-                                } else if (toleranceDa2 < TOLERANCE_PMM && calculatePPMIncrement(lipid.getMonoisotropic(), inferredMass2) < TOLERANCE_PMM) {
-                                    return adduct2;
+                            int toleranceDa1 = calculatePPMIncrement(peakMzs[p1], this.mz);
+                            int toleranceDa2 = calculatePPMIncrement(peakMzs[p2], this.mz);
+
+                            if(lipidMass != 0.0){
+                                double inferredMass1 = getMonoisotopicMassFromMZ(this.mz, adduct1);
+                                double inferredMass2 = getMonoisotopicMassFromMZ(this.mz, adduct2);
+                                if (toleranceDa1 < TOLERANCE_PMM && calculatePPMIncrement(lipidMass, inferredMass1) < TOLERANCE_PMM) {
+                                    return adduct1.getName();
+                                } else if (toleranceDa2 < TOLERANCE_PMM && calculatePPMIncrement(lipidMass, inferredMass2) < TOLERANCE_PMM) {
+                                    return adduct2.getName();
                                 }
 
                             } else{
                                 if (toleranceDa1 < TOLERANCE_PMM) {
-                                    return adduct1;
+                                    return adduct1.getName();
                                 } else if (toleranceDa2 < TOLERANCE_PMM) {
-                                    return adduct2;
+                                    return adduct2.getName();
                                 }
                             }
                         }
@@ -108,11 +170,19 @@ public class Annotation {
     }
 
     public int getTotalScoresApplied() {
-        return totalScoresApplied;
+        return scores.totalApplied();
     }
 
+    /**
+     * Sets the total by adding the difference to the scores applied without a rule, which cannot become negative.
+     */
     public void setTotalScoresApplied(int totalScoresApplied) {
-        this.totalScoresApplied = totalScoresApplied;
+        int difference = totalScoresApplied - getTotalScoresApplied();
+        if (scores.applied(ScoreLedger.UNATTRIBUTED) + difference < 0) {
+            throw new IllegalArgumentException("Cannot set " + totalScoresApplied + " scores applied, the rules applied "
+                    + (getTotalScoresApplied() - scores.applied(ScoreLedger.UNATTRIBUTED)));
+        }
+        scores.add(ScoreLedger.UNATTRIBUTED, 0, difference);
     }
 
     public Lipid getLipid() {
@@ -139,26 +209,119 @@ public class Annotation {
         return intensity;
     }
 
+    /**
+     * @return key shared only by the annotations with the same lipid type and number of double bonds
+     */
+    public int getTypeDoubleBondsKey() {
+        return typeDoubleBondsKey;
+    }
+
+    /**
+     * @return key shared only by the annotations with the same lipid type and number of carbons
+     */
+    public int getTypeCarbonKey() {
+        return typeCarbonKey;
+    }
+
+    /**
+     * @return key shared only by the annotations with the same number of carbons and double bonds
+     */
+    public int getCarbonDoubleBondsKey() {
+        return carbonDoubleBondsKey;
+    }
+
     public Set<Peak> getGroupedSignals() {
-        return Collections.unmodifiableSet(groupedSignals);
+        return groupedSignals.asSet();
+    }
+
+    public PeakArray getGroupedPeaks() {
+        return groupedSignals;
     }
 
+    /**
+     * @return the sum of the scores of every rule, of the scores added without a rule and of the rounded
+     * {@link #getRtScore()}
+     */
     public int getScore() {
-        return score;
+        return scores.totalScore();
+    }
+
+    /**
+     * @return the part of the score added by the rule
+     */
+    public int getScore(ScoreRule rule) {
+        return scores.score(rule.ordinal());
+    }
+
+    /**
+     * @return number of times the rule scored this annotation
+     */
+    public int getScoresApplied(ScoreRule rule) {
+        return scores.applied(rule.ordinal());
     }
 
+    /**
+     * Sets the total score by adding the difference without a rule. The number of scores applied does not change.
+     */
     public void setScore(int score) {
-        this.score = score;
+        scores.add(ScoreLedger.UNATTRIBUTED, score - getScore(), 0);
     }
 
     // !TODO Take into account that the score should be normalized between 0 and 1
     public void addScore(int delta) {
-        this.score += delta;
-        this.totalScoresApplied++;
+        scores.add(ScoreLedger.UNATTRIBUTED, delta, 1);
+    }
+
+    /**
+     * Same as calling {@link #addScore(int)} the given number of times
+     */
+    public void addScore(int delta, int times) {
+        scores.add(ScoreLedger.UNATTRIBUTED, delta * times, times);
+    }
+
+    /**
+     * Adds the score of the rule. Safe to call from several threads at the same time.
+     */
+    public void addScore(ScoreRule rule) {
+        scores.add(rule.ordinal(), rule.getDelta(), 1);
+    }
+
+    /**
+     * Same as calling {@link #addScore(ScoreRule)} the given number of times
+     */
+    public void addScore(ScoreRule rule, int times) {
+        scores.add(rule.ordinal(), rule.getDelta() * times, times);
     }
 
+    /**
+     * @return the score divided by the scores applied, with the exact {@link #getRtScore()} instead of its rounding
+     */
     public double getNormalizedScore() {
-        return (double) this.score / this.totalScoresApplied;
+        return scores.normalizedScore();
+    }
+
+    /**
+     * @return distance of the RT to the regression of its class in standard deviations, signed (later than predicted
+     * is positive), NaN if not scored by {@link RtRegressionScorer}
+     */
+    public double getRtZScore() {
+        return scores.rtZScore();
+    }
+
+    /**
+     * Replaces the z-score of the RT regression, NaN to clear it. While set it counts as one score applied worth
+     * {@link #getRtScore()}, rounded to an integer in {@link #getScore()}.
+     */
+    public void setRtZScore(double rtZScore) {
+        scores.setRtZScore(rtZScore);
+    }
+
+    /**
+     * @return 2 exp(-z^2 / 2) - 1 of {@link #getRtZScore()}: 1 on the regression line, about 0.2 at one standard
+     * deviation and -1 far from it, NaN if not scored
+     */
+    public double getRtScore() {
+        return ScoreLedger.rtScore(getRtZScore());
     }
 
     @Override
@@ -179,7 +342,7 @@ public class Annotation {
     @Override
     public String toString() {
         return String.format("Annotation(%s, mz=%.4f, RT=%.2f, adduct=%s, intensity=%.1f, score=%d)",
-                lipid.getName(), mz, rtMin, adduct, intensity, score);
+                lipid.getName(), mz, rtMin, adduct, intensity, getScore());
     }
 
 }
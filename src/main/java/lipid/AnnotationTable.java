@@ -0,0 +1,717 @@
+package lipid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotations stored as primitive columns (struct of arrays) instead of one object per annotation, for samples of
+ * millions of features. Lipids and adducts are stored once in a dictionary and referenced by an int and a short id,
+ * the ionization is a byte, and the scores are one counter column per {@link ScoreRule} (the score of a rule is always
+ * its delta times the number of times it was applied). Counters start as 16 bit columns and are widened to int the
+ * first time a value does not fit. The scores added without a rule, rarely used, get their columns on the first such
+ * score. The grouped peaks are stored once per distinct set and rows reference their set: the features of a
+ * co-elution group are annotated with the same peaks, so they share them.
+ *
+ * A row takes about 47 bytes, plus 16 per grouped peak and 12 per set for the sets of peaks it does not share, against
+ * about 188 bytes plus 56 for the peaks and 16 per peak for an {@link Annotation}. Rows that share their peaks with
+ * three others take a quarter of the peaks (4.7 times less than annotations with 4 peaks each); rows with peaks of
+ * their own take about 2.5 times less, since the values of the peaks are the same 16 bytes either way.
+ *
+ * Rows are read and scored by index or through a {@link Cursor}, a reusable view with the getters of
+ * {@link Annotation}. The rule engine works on objects: {@link #score(LipidScorer, int, int)} materializes a range of
+ * rows, scores it and writes the adducts and scores back.
+ *
+ * The table is not thread safe. Several threads can read it while nobody writes.
+ */
+public final class AnnotationTable {
+
+    private static final ScoreRule[] RULES = ScoreRule.values();
+    private static final Ionization[] IONIZATIONS = Ionization.values();
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int size;
+    private double[] mzs;
+    private double[] rts;
+    private double[] intensities;
+    private int[] lipidIds;
+    private short[] adductIds;
+    private byte[] ionizationIds;
+    // grouped peaks of each row, rows with the same peaks share their set
+    private int[] peakSetIds;
+    private final PeakSets peakSets;
+    private final Counters[] applied = new Counters[RULES.length];
+    // scores and scores applied added without a rule, null until the first one
+    private int[] unattributedScores;
+    private int[] unattributedApplied;
+    // allocated when a row is first given an RT z-score
+    private double[] rtZScores;
+
+    private final List<Lipid> lipids = new ArrayList<>();
+    private final Map<Lipid, Integer> lipidIndex = new HashMap<>();
+    private final List<String> adducts = new ArrayList<>();
+    private final Map<String, Short> adductIndex = new HashMap<>();
+
+    public AnnotationTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of rows allocated up front, e.g. the number of features of the sample
+     */
+    public AnnotationTable(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * @param capacity number of rows allocated up front, e.g. the number of features of the sample
+     * @param peakCapacity number of grouped peaks of all the rows allocated up front
+     */
+    public AnnotationTable(int capacity, int peakCapacity) {
+        if (capacity < 0 || peakCapacity < 0) {
+            throw new IllegalArgumentException("capacities must be positive: " + capacity + ", " + peakCapacity);
+        }
+        peakSets = new PeakSets(peakCapacity);
+        mzs = new double[capacity];
+        rts = new double[capacity];
+        intensities = new double[capacity];
+        lipidIds = new int[capacity];
+        adductIds = new short[capacity];
+        ionizationIds = new byte[capacity];
+        peakSetIds = new int[capacity];
+        for (int r = 0; r < RULES.length; r++) {
+            applied[r] = new Counters(capacity);
+        }
+    }
+
+    /**
+     * @return a table with a copy of the annotations, their adducts and their scores, in the same order
+     */
+    public static AnnotationTable of(Collection<Annotation> annotations) {
+        int peaks = 0;
+        for (Annotation annotation : annotations) {
+            peaks = Math.addExact(peaks, annotation.getGroupedPeaks().size());
+        }
+        AnnotationTable table = new AnnotationTable(annotations.size(), peaks);
+        annotations.forEach(table::add);
+        return table;
+    }
+
+    /**
+     * Adds a row without adduct nor scores
+     *
+     * @return index of the row
+     */
+    public int add(Lipid lipid, double mz, double intensity, double retentionTime, Ionization ionization,
+                   PeakArray groupedSignals) {
+        ensureCapacity(size + 1);
+        int row = size;
+        mzs[row] = mz;
+        rts[row] = retentionTime;
+        intensities[row] = intensity;
+        lipidIds[row] = lipidId(lipid);
+        adductIds[row] = -1;
+        ionizationIds[row] = (byte) (ionization == null ? -1 : ionization.ordinal());
+        peakSetIds[row] = peakSets.idOf(groupedSignals);
+        size++;
+        return row;
+    }
+
+    public int add(Lipid lipid, double mz, double intensity, double retentionTime, Ionization ionization) {
+        return add(lipid, mz, intensity, retentionTime, ionization, PeakArray.EMPTY);
+    }
+
+    /**
+     * Adds a copy of the annotation with its adduct and its scores
+     *
+     * @return index of the row
+     */
+    public int add(Annotation annotation) {
+        int row = add(annotation.getLipid(), annotation.getMz(), annotation.getIntensity(), annotation.getRtMin(),
+                annotation.getIonization(), annotation.getGroupedPeaks());
+        update(row, annotation);
+        return row;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mzs.length) return;
+        int newCapacity = Math.max(capacity, mzs.length + (mzs.length >> 1));
+        mzs = Arrays.copyOf(mzs, newCapacity);
+        rts = Arrays.copyOf(rts, newCapacity);
+        intensities = Arrays.copyOf(intensities, newCapacity);
+        lipidIds = Arrays.copyOf(lipidIds, newCapacity);
+        adductIds = Arrays.copyOf(adductIds, newCapacity);
+        ionizationIds = Arrays.copyOf(ionizationIds, newCapacity);
+        peakSetIds = Arrays.copyOf(peakSetIds, newCapacity);
+        for (Counters counters : applied) counters.grow(newCapacity);
+        if (unattributedScores != null) {
+            unattributedScores = Arrays.copyOf(unattributedScores, newCapacity);
+            unattributedApplied = Arrays.copyOf(unattributedApplied, newCapacity);
+        }
+        if (rtZScores != null) {
+            int oldCapacity = rtZScores.length;
+            rtZScores = Arrays.copyOf(rtZScores, newCapacity);
+            Arrays.fill(rtZScores, oldCapacity, newCapacity, Double.NaN);
+        }
+    }
+
+    private int lipidId(Lipid lipid) {
+        Integer id = lipidIndex.get(lipid);
+        if (id == null) {
+            id = lipids.size();
+            lipids.add(lipid);
+            lipidIndex.put(lipid, id);
+        }
+        return id;
+    }
+
+    private short adductId(String adduct) {
+        if (adduct == null) return -1;
+        Short id = adductIndex.get(adduct);
+        if (id == null) {
+            if (adducts.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("More than " + (Short.MAX_VALUE + 1) + " different adducts");
+            }
+            id = (short) adducts.size();
+            adducts.add(adduct);
+            adductIndex.put(adduct, id);
+        }
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + size + " rows");
+        }
+    }
+
+    public double getMz(int row) {
+        checkRow(row);
+        return mzs[row];
+    }
+
+    public double getRtMin(int row) {
+        checkRow(row);
+        return rts[row];
+    }
+
+    public double getIntensity(int row) {
+        checkRow(row);
+        return intensities[row];
+    }
+
+    public Lipid getLipid(int row) {
+        checkRow(row);
+        return lipids.get(lipidIds[row]);
+    }
+
+    /**
+     * @return index of the lipid of the row in the dictionary of the table, the same for every row of the lipid
+     */
+    public int getLipidId(int row) {
+        checkRow(row);
+        return lipidIds[row];
+    }
+
+    public String getAdduct(int row) {
+        checkRow(row);
+        short id = adductIds[row];
+        return id < 0 ? null : adducts.get(id);
+    }
+
+    public void setAdduct(int row, String adduct) {
+        checkRow(row);
+        adductIds[row] = adductId(adduct);
+    }
+
+    public Ionization getIonization(int row) {
+        checkRow(row);
+        byte id = ionizationIds[row];
+        return id < 0 ? null : IONIZATIONS[id];
+    }
+
+    /**
+     * @return a new {@link PeakArray} with a copy of the peaks of the row
+     */
+    public PeakArray getGroupedPeaks(int row) {
+        checkRow(row);
+        return peakSets.get(peakSetIds[row]);
+    }
+
+    /**
+     * @return id of the grouped peaks of the row, the same for every row with the same peaks (e.g. the features of
+     * one co-elution group)
+     */
+    public int getPeakSetId(int row) {
+        checkRow(row);
+        return peakSetIds[row];
+    }
+
+    /**
+     * @return number of different sets of grouped peaks stored
+     */
+    public int getPeakSetCount() {
+        return peakSets.size();
+    }
+
+    /**
+     * @return number of grouped peaks of the row
+     */
+    public int getGroupedPeaksCount(int row) {
+        checkRow(row);
+        return peakSets.size(peakSetIds[row]);
+    }
+
+    public int getScore(int row) {
+        checkRow(row);
+        int score = unattributedScores == null ? 0 : unattributedScores[row];
+        score += ScoreLedger.roundedRtScore(getRtZScore(row));
+        for (int r = 0; r < RULES.length; r++) {
+            score += RULES[r].getDelta() * applied[r].get(row);
+        }
+        return score;
+    }
+
+    public int getScore(int row, ScoreRule rule) {
+        return rule.getDelta() * getScoresApplied(row, rule);
+    }
+
+    public int getScoresApplied(int row, ScoreRule rule) {
+        checkRow(row);
+        return applied[rule.ordinal()].get(row);
+    }
+
+    public int getTotalScoresApplied(int row) {
+        checkRow(row);
+        int total = unattributedApplied == null ? 0 : unattributedApplied[row];
+        total += ScoreLedger.rtApplied(getRtZScore(row));
+        for (Counters counters : applied) {
+            total += counters.get(row);
+        }
+        return total;
+    }
+
+    /**
+     * Same as {@link Annotation#getNormalizedScore()}
+     */
+    public double getNormalizedScore(int row) {
+        double rtZScore = getRtZScore(row);
+        double rtScore = Double.isNaN(rtZScore) ? 0 : ScoreLedger.rtScore(rtZScore);
+        return (getScore(row) - ScoreLedger.roundedRtScore(rtZScore) + rtScore) / getTotalScoresApplied(row);
+    }
+
+    /**
+     * Same as {@link Annotation#getRtZScore()}
+     */
+    public double getRtZScore(int row) {
+        checkRow(row);
+        return rtZScores == null ? Double.NaN : rtZScores[row];
+    }
+
+    /**
+     * Same as {@link Annotation#setRtZScore(double)}
+     */
+    public void setRtZScore(int row, double rtZScore) {
+        checkRow(row);
+        if (rtZScores == null) {
+            if (Double.isNaN(rtZScore)) return;
+            rtZScores = new double[mzs.length];
+            Arrays.fill(rtZScores, Double.NaN);
+        }
+        rtZScores[row] = rtZScore;
+    }
+
+    /**
+     * Same as {@link Annotation#addScore(ScoreRule, int)}
+     */
+    public void addScore(int row, ScoreRule rule, int times) {
+        checkRow(row);
+        applied[rule.ordinal()].add(row, times);
+    }
+
+    /**
+     * Same as {@link Annotation#addScore(int, int)}
+     */
+    public void addScore(int row, int delta, int times) {
+        checkRow(row);
+        addUnattributed(row, delta * times, times);
+    }
+
+    private void addUnattributed(int row, int score, int times) {
+        if (score == 0 && times == 0) return;
+        if (unattributedScores == null) {
+            unattributedScores = new int[mzs.length];
+            unattributedApplied = new int[mzs.length];
+        }
+        unattributedScores[row] += score;
+        unattributedApplied[row] += times;
+    }
+
+    /**
+     * @return a new annotation with the values, the adduct and the scores of the row
+     */
+    public Annotation toAnnotation(int row) {
+        Annotation annotation = new Annotation(getLipid(row), mzs[row], intensities[row], rts[row],
+                getIonization(row), getGroupedPeaks(row));
+        annotation.setAdduct(getAdduct(row));
+        for (int r = 0; r < RULES.length; r++) {
+            int times = applied[r].get(row);
+            if (times != 0) annotation.addScore(RULES[r], times);
+        }
+        if (unattributedScores != null) {
+            annotation.addScore(0, unattributedApplied[row]);
+            annotation.setScore(annotation.getScore() + unattributedScores[row]);
+        }
+        if (rtZScores != null) annotation.setRtZScore(rtZScores[row]);
+        return annotation;
+    }
+
+    /**
+     * @return new annotations with the rows from (inclusive) to (exclusive)
+     */
+    public List<Annotation> toAnnotations(int from, int to) {
+        checkRange(from, to);
+        List<Annotation> annotations = new ArrayList<>(to - from);
+        for (int row = from; row < to; row++) {
+            annotations.add(toAnnotation(row));
+        }
+        return annotations;
+    }
+
+    /**
+     * Replaces the adduct and the scores of the row with those of the annotation, e.g. after the annotation from
+     * {@link #toAnnotation(int)} was scored
+     */
+    public void update(int row, Annotation annotation) {
+        checkRow(row);
+        adductIds[row] = adductId(annotation.getAdduct());
+        int ruleScore = 0;
+        int ruleApplied = 0;
+        for (int r = 0; r < RULES.length; r++) {
+            int times = annotation.getScoresApplied(RULES[r]);
+            applied[r].set(row, times);
+            ruleScore += RULES[r].getDelta() * times;
+            ruleApplied += times;
+        }
+        double rtZScore = annotation.getRtZScore();
+        ruleScore += ScoreLedger.roundedRtScore(rtZScore);
+        ruleApplied += ScoreLedger.rtApplied(rtZScore);
+        if (unattributedScores != null) {
+            unattributedScores[row] = 0;
+            unattributedApplied[row] = 0;
+        }
+        addUnattributed(row, annotation.getScore() - ruleScore, annotation.getTotalScoresApplied() - ruleApplied);
+        setRtZScore(row, rtZScore);
+    }
+
+    /**
+     * Scores the rows from (inclusive) to (exclusive) together, as one sample: they are materialized as annotations,
+     * given to the scorer, and their adducts and scores are written back
+     */
+    public void score(LipidScorer scorer, int from, int to) {
+        List<Annotation> annotations = toAnnotations(from, to);
+        scorer.score(annotations);
+        for (int row = from; row < to; row++) {
+            update(row, annotations.get(row - from));
+        }
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of bounds for " + size + " rows");
+        }
+    }
+
+    /**
+     * @return a cursor before the first row: {@link Cursor#next()} moves it to the first row, {@link Cursor#moveTo(int)}
+     * to any row. Its getters throw {@link IndexOutOfBoundsException} until it is on a row.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reusable view of one row of the table with the getters of {@link Annotation}. Moving the cursor does not
+     * create any object; the getters of the peaks do.
+     */
+    public final class Cursor {
+
+        private int row = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next row
+         *
+         * @return false, and the cursor does not move, if there is none
+         */
+        public boolean next() {
+            if (row + 1 >= size) return false;
+            row++;
+            return true;
+        }
+
+        public Cursor moveTo(int row) {
+            checkRow(row);
+            this.row = row;
+            return this;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public Lipid getLipid() {
+            return AnnotationTable.this.getLipid(row);
+        }
+
+        public double getMz() {
+            return AnnotationTable.this.getMz(row);
+        }
+
+        public double getRtMin() {
+            return AnnotationTable.this.getRtMin(row);
+        }
+
+        public double getIntensity() {
+            return AnnotationTable.this.getIntensity(row);
+        }
+
+        public String getAdduct() {
+            return AnnotationTable.this.getAdduct(row);
+        }
+
+        public void setAdduct(String adduct) {
+            AnnotationTable.this.setAdduct(row, adduct);
+        }
+
+        public Ionization getIonization() {
+            return AnnotationTable.this.getIonization(row);
+        }
+
+        public PeakArray getGroupedPeaks() {
+            return AnnotationTable.this.getGroupedPeaks(row);
+        }
+
+        public Set<Peak> getGroupedSignals() {
+            return getGroupedPeaks().asSet();
+        }
+
+        public int getScore() {
+            return AnnotationTable.this.getScore(row);
+        }
+
+        public int getScore(ScoreRule rule) {
+            return AnnotationTable.this.getScore(row, rule);
+        }
+
+        public int getScoresApplied(ScoreRule rule) {
+            return AnnotationTable.this.getScoresApplied(row, rule);
+        }
+
+        public int getTotalScoresApplied() {
+            return AnnotationTable.this.getTotalScoresApplied(row);
+        }
+
+        public double getNormalizedScore() {
+            return AnnotationTable.this.getNormalizedScore(row);
+        }
+
+        public double getRtZScore() {
+            return AnnotationTable.this.getRtZScore(row);
+        }
+
+        public void addScore(ScoreRule rule) {
+            AnnotationTable.this.addScore(row, rule, 1);
+        }
+
+        public void addScore(ScoreRule rule, int times) {
+            AnnotationTable.this.addScore(row, rule, times);
+        }
+
+        public void addScore(int delta) {
+            AnnotationTable.this.addScore(row, delta, 1);
+        }
+
+        public void addScore(int delta, int times) {
+            AnnotationTable.this.addScore(row, delta, times);
+        }
+
+        public Annotation toAnnotation() {
+            return AnnotationTable.this.toAnnotation(row);
+        }
+
+        @Override
+        public String toString() {
+            checkRow(row);
+            return String.format("Annotation(%s, mz=%.4f, RT=%.2f, adduct=%s, intensity=%.1f, score=%d)",
+                    getLipid().getName(), getMz(), getRtMin(), getAdduct(), getIntensity(), getScore());
+        }
+    }
+
+    /**
+     * Counter column stored as unsigned 16 bit values until one does not fit, then as ints
+     */
+    private static final class Counters {
+        private static final int SMALL_MAX = Character.MAX_VALUE;
+
+        private char[] small;
+        private int[] wide;
+
+        Counters(int capacity) {
+            small = new char[capacity];
+        }
+
+        int get(int row) {
+            return small != null ? small[row] : wide[row];
+        }
+
+        void add(int row, int delta) {
+            set(row, get(row) + delta);
+        }
+
+        void set(int row, int value) {
+            if (small != null) {
+                if (value >= 0 && value <= SMALL_MAX) {
+                    small[row] = (char) value;
+                    return;
+                }
+                wide = new int[small.length];
+                for (int i = 0; i < small.length; i++) wide[i] = small[i];
+                small = null;
+            }
+            wide[row] = value;
+        }
+
+        void grow(int capacity) {
+            if (small != null) small = Arrays.copyOf(small, capacity);
+            else wide = Arrays.copyOf(wide, capacity);
+        }
+    }
+
+    /**
+     * Grouped peaks stored once per distinct set: the peaks of all the sets in two shared columns, the end of each
+     * set in a third one, and a hash table of the set ids by their values to find the set of a row being added.
+     */
+    private static final class PeakSets {
+        private double[] mzs;
+        private double[] intensities;
+        private int[] ends = new int[16];
+        private int size;
+        // open addressing, set id + 1 per slot, 0 for the empty slots
+        private int[] table = new int[32];
+
+        PeakSets(int peakCapacity) {
+            mzs = new double[peakCapacity];
+            intensities = new double[peakCapacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int size(int id) {
+            return ends[id] - start(id);
+        }
+
+        private int start(int id) {
+            return id == 0 ? 0 : ends[id - 1];
+        }
+
+        PeakArray get(int id) {
+            return PeakArray.ofSorted(Arrays.copyOfRange(mzs, start(id), ends[id]),
+                    Arrays.copyOfRange(intensities, start(id), ends[id]));
+        }
+
+        /**
+         * @return id of the set with the same peaks, added first if there is none
+         */
+        int idOf(PeakArray peaks) {
+            int hash = hash(peaks);
+            int mask = table.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (id < 0) {
+                    id = add(peaks);
+                    table[slot] = id + 1;
+                    if (2 * size > table.length) rehash();
+                    return id;
+                }
+                if (sameSet(id, peaks)) return id;
+            }
+        }
+
+        private int add(PeakArray peaks) {
+            int start = start(size);
+            int end = Math.addExact(start, peaks.size());
+            if (end > mzs.length) {
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(end, mzs.length + (mzs.length >> 1)));
+                mzs = Arrays.copyOf(mzs, capacity);
+                intensities = Arrays.copyOf(intensities, capacity);
+            }
+            for (int k = 0; k < peaks.size(); k++) {
+                mzs[start + k] = peaks.getMz(k);
+                intensities[start + k] = peaks.getIntensity(k);
+            }
+            if (size == ends.length) ends = Arrays.copyOf(ends, 2 * size);
+            ends[size] = end;
+            return size++;
+        }
+
+        private boolean sameSet(int id, PeakArray peaks) {
+            int start = start(id);
+            if (ends[id] - start != peaks.size()) return false;
+            for (int k = 0; k < peaks.size(); k++) {
+                if (Double.doubleToLongBits(mzs[start + k]) != Double.doubleToLongBits(peaks.getMz(k))
+                        || Double.doubleToLongBits(intensities[start + k]) != Double.doubleToLongBits(peaks.getIntensity(k))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash() {
+            int[] newTable = new int[2 * table.length];
+            int mask = newTable.length - 1;
+            for (int id = 0; id < size; id++) {
+                int slot = hashOfSet(id) & mask;
+                while (newTable[slot] != 0) slot = (slot + 1) & mask;
+                newTable[slot] = id + 1;
+            }
+            table = newTable;
+        }
+
+        private int hashOfSet(int id) {
+            int hash = 1;
+            for (int k = start(id); k < ends[id]; k++) {
+                hash = mix(hash, mzs[k], intensities[k]);
+            }
+            return spread(hash);
+        }
+
+        private static int hash(PeakArray peaks) {
+            int hash = 1;
+            for (int k = 0; k < peaks.size(); k++) {
+                hash = mix(hash, peaks.getMz(k), peaks.getIntensity(k));
+            }
+            return spread(hash);
+        }
+
+        private static int mix(int hash, double mz, double intensity) {
+            return 31 * (31 * hash + Double.hashCode(mz)) + Double.hashCode(intensity);
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
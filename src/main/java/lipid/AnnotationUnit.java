@@ -3,20 +3,39 @@ import org.drools.ruleunits.api.DataSource;
 import org.drools.ruleunits.api.DataStore;
 import org.drools.ruleunits.api.RuleUnitData;
 
+import java.util.function.Function;
+
 public class AnnotationUnit implements RuleUnitData {
 
     private final DataStore<Annotation> annotations;
+    // a JDK type: the engine loads the types of the unit variables with its own class loader, which cannot see
+    // the classes of the project
+    private final Function<Annotation, String> adductSearch;
 
     public AnnotationUnit() {
         this(DataSource.createStore());
     }
 
     public AnnotationUnit(DataStore<Annotation> annotations) {
-        this.annotations = annotations;
+        this(annotations, null);
+    }
 
+    /**
+     * @param adductCache results shared with the other units, null to search the adduct of every annotation
+     */
+    public AnnotationUnit(DataStore<Annotation> annotations, AdductCache adductCache) {
+        this.annotations = annotations;
+        this.adductSearch = adductCache == null ? Annotation::identifyAdduct : adductCache::identify;
     }
 
     public DataStore<Annotation> getAnnotations() {
         return annotations;
     }
+
+    /**
+     * @return the adduct search of the rules, through the cache of the unit if it has one
+     */
+    public Function<Annotation, String> getAdductSearch() {
+        return adductSearch;
+    }
 }
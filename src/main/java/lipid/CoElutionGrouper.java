@@ -0,0 +1,325 @@
+package lipid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Groups co-eluting features (adducts, isotopes and fragments of the same compound) so each feature can be annotated
+ * with the peaks of its group. Features are sorted by RT and cut into slices of a fixed RT width. Inside each slice,
+ * the most intense feature not yet grouped is the seed of a new group and takes every free feature within
+ * rtTolerance of its RT whose intensity profile correlates with its own; only the features inside that RT window are
+ * visited. Slices are grouped in parallel. Then, at every slice boundary, two groups whose seeds are within
+ * rtTolerance and correlate are merged, into the group of the most intense seed. Merges can chain, so a group only
+ * joins that seed if all its features are within rtTolerance of it and correlate with it; otherwise it stays as it
+ * was in its slice. Every feature is thus within rtTolerance of the seed of its group, but where the slice
+ * boundaries fall can still change which seed a feature near one of them gets.
+ *
+ * The slices depend only on the RTs and the slice width, not on the number of threads, so the groups are the same
+ * with any number of threads. Group ids follow the RT order of the first feature of each group.
+ */
+public class CoElutionGrouper {
+
+    public static final double DEFAULT_MIN_CORRELATION = 0.8;
+
+    private final double rtTolerance;
+    private final double minCorrelation;
+    private final double sliceWidth;
+    private final int threads;
+
+    /**
+     * Uses the default correlation, slices of 100 RT tolerances and one thread per available processor
+     *
+     * @param rtTolerance maximum RT difference between a feature and the seed of its group
+     */
+    public CoElutionGrouper(double rtTolerance) {
+        this(rtTolerance, DEFAULT_MIN_CORRELATION, 100 * rtTolerance, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param rtTolerance maximum RT difference between a feature and the seed of its group
+     * @param minCorrelation minimum Pearson correlation between the intensity profiles of a feature and its seed
+     * @param sliceWidth RT width of the slices grouped in parallel, at least rtTolerance
+     * @param threads number of threads
+     */
+    public CoElutionGrouper(double rtTolerance, double minCorrelation, double sliceWidth, int threads) {
+        if (!(rtTolerance >= 0)) {
+            throw new IllegalArgumentException("rtTolerance must be positive: " + rtTolerance);
+        }
+        if (!(sliceWidth >= rtTolerance) || sliceWidth <= 0) {
+            throw new IllegalArgumentException("sliceWidth must be positive and at least rtTolerance: " + sliceWidth);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.rtTolerance = rtTolerance;
+        this.minCorrelation = minCorrelation;
+        this.sliceWidth = sliceWidth;
+        this.threads = threads;
+    }
+
+    /**
+     * Groups the features by RT only
+     */
+    public PeakGroups group(double[] mzs, double[] rts, double[] intensities) {
+        return group(mzs, rts, intensities, null);
+    }
+
+    /**
+     * @param mzs mz of each feature
+     * @param rts RT of each feature. Features without RT (NaN) are alone in their group.
+     * @param intensities intensity of each feature
+     * @param profiles intensity profile of each feature sampled on the same scans (e.g. the scans around the apex),
+     *                 or null. Features without a profile, or with profiles of different lengths, are not compared by
+     *                 profile.
+     */
+    public PeakGroups group(double[] mzs, double[] rts, double[] intensities, double[][] profiles) {
+        int n = mzs.length;
+        if (rts.length != n || intensities.length != n || (profiles != null && profiles.length != n)) {
+            throw new IllegalArgumentException("All the feature columns must have " + n + " values");
+        }
+        int[] byRt = new int[n];
+        for (int i = 0; i < n; i++) byRt[i] = i;
+        // NaN RTs go last
+        IndexSort.sort(byRt, (a, b) -> Double.compare(rts[a], rts[b]));
+        double[] sortedRts = new double[n];
+        for (int p = 0; p < n; p++) sortedRts[p] = rts[byRt[p]];
+
+        List<int[]> slices = slices(sortedRts);
+        // seed position of the group of each position, filled slice by slice
+        int[] seedOf = new int[n];
+        Context context = new Context(byRt, sortedRts, intensities, profiles, seedOf);
+        groupSlices(context, slices);
+        mergeBoundaries(context, slices);
+        return PeakGroups.of(mzs, intensities, byRt, seedOf);
+    }
+
+    /**
+     * @return [from, to) position ranges of the slices, NaN RTs in a slice of their own
+     */
+    private List<int[]> slices(double[] sortedRts) {
+        List<int[]> slices = new ArrayList<>();
+        int n = sortedRts.length;
+        int from = 0;
+        while (from < n) {
+            int to = from + 1;
+            if (Double.isNaN(sortedRts[from])) {
+                to = n;
+            } else {
+                double slice = Math.floor(sortedRts[from] / sliceWidth);
+                while (to < n && !Double.isNaN(sortedRts[to]) && Math.floor(sortedRts[to] / sliceWidth) == slice) to++;
+            }
+            slices.add(new int[]{from, to});
+            from = to;
+        }
+        return slices;
+    }
+
+    private void groupSlices(Context context, List<int[]> slices) {
+        if (threads == 1 || slices.size() == 1) {
+            slices.forEach(slice -> groupSlice(context, slice[0], slice[1]));
+            return;
+        }
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, slices.size()))) {
+            List<Future<?>> groupings = new ArrayList<>(slices.size());
+            for (int[] slice : slices) {
+                groupings.add(executor.submit(() -> groupSlice(context, slice[0], slice[1])));
+            }
+            try {
+                for (Future<?> grouping : groupings) {
+                    grouping.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                groupings.forEach(grouping -> grouping.cancel(true));
+                throw new IllegalStateException("Interrupted while grouping the features", e);
+            } catch (ExecutionException e) {
+                groupings.forEach(grouping -> grouping.cancel(true));
+                throw new IllegalStateException("Grouping of a slice failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Greedy grouping of the positions [from, to), which only writes seedOf inside the range
+     */
+    private void groupSlice(Context context, int from, int to) {
+        int size = to - from;
+        int[] seeds = new int[size];
+        for (int k = 0; k < size; k++) seeds[k] = from + k;
+        double[] intensities = context.intensities;
+        int[] byRt = context.byRt;
+        // most intense first, RT order between equal intensities
+        IndexSort.sort(seeds, (a, b) -> {
+            int byIntensity = Double.compare(intensities[byRt[b]], intensities[byRt[a]]);
+            return byIntensity != 0 ? byIntensity : Integer.compare(a, b);
+        });
+
+        // next free position at or after each position (relative to from), with path compression
+        int[] nextFree = new int[size + 1];
+        for (int k = 0; k <= size; k++) nextFree[k] = k;
+        double[] rts = context.sortedRts;
+        for (int seed : seeds) {
+            if (findFree(nextFree, seed - from) != seed - from) continue;
+            context.seedOf[seed] = seed;
+            nextFree[seed - from] = seed - from + 1;
+            if (Double.isNaN(rts[seed])) continue;
+            int end = upperBound(rts, from, to, rts[seed] + rtTolerance);
+            for (int k = findFree(nextFree, lowerBound(rts, from, to, rts[seed] - rtTolerance) - from);
+                 k + from < end; k = findFree(nextFree, k + 1)) {
+                if (context.correlated(seed, k + from)) {
+                    context.seedOf[k + from] = seed;
+                    nextFree[k] = k + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the groups of two neighbouring slices when their seeds are within rtTolerance of each other and
+     * correlate. Boundaries are visited in RT order on one thread. A group with a feature too far from, or not
+     * correlated with, the seed it was merged into keeps its own seed.
+     */
+    private void mergeBoundaries(Context context, List<int[]> slices) {
+        int[] seedOf = context.seedOf;
+        double[] rts = context.sortedRts;
+        int n = seedOf.length;
+        // union-find over seed positions, the root is the most intense seed
+        int[] parent = new int[n];
+        for (int p = 0; p < n; p++) parent[p] = p;
+        for (int s = 0; s + 1 < slices.size(); s++) {
+            int[] left = slices.get(s);
+            int[] right = slices.get(s + 1);
+            if (Double.isNaN(rts[right[0]])) break;
+            int leftFrom = lowerBound(rts, left[0], left[1], rts[left[1] - 1] - 2 * rtTolerance);
+            int rightTo = upperBound(rts, right[0], right[1], rts[right[0]] + 2 * rtTolerance);
+            for (int a = leftFrom; a < left[1]; a++) {
+                if (seedOf[a] != a) continue;
+                for (int b = right[0]; b < rightTo && rts[b] - rts[a] <= rtTolerance; b++) {
+                    if (seedOf[b] == b && context.correlated(a, b)) {
+                        union(parent, a, b, context);
+                    }
+                }
+            }
+        }
+        boolean[] kept = new boolean[n];
+        for (int p = 0; p < n; p++) {
+            int seed = seedOf[p];
+            int root = find(parent, seed);
+            if (root != seed && (Math.abs(rts[p] - rts[root]) > rtTolerance || !context.correlated(root, p))) {
+                kept[seed] = true;
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            int seed = seedOf[p];
+            if (!kept[seed]) seedOf[p] = find(parent, seed);
+        }
+    }
+
+    private static int findFree(int[] nextFree, int k) {
+        int root = k;
+        while (nextFree[root] != root) root = nextFree[root];
+        while (nextFree[k] != root) {
+            int next = nextFree[k];
+            nextFree[k] = root;
+            k = next;
+        }
+        return root;
+    }
+
+    private static int find(int[] parent, int p) {
+        while (parent[p] != p) {
+            parent[p] = parent[parent[p]];
+            p = parent[p];
+        }
+        return p;
+    }
+
+    private static void union(int[] parent, int a, int b, Context context) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA == rootB) return;
+        double intensityA = context.intensities[context.byRt[rootA]];
+        double intensityB = context.intensities[context.byRt[rootB]];
+        if (intensityA > intensityB || (intensityA == intensityB && rootA < rootB)) {
+            parent[rootB] = rootA;
+        } else {
+            parent[rootA] = rootB;
+        }
+    }
+
+    private static int lowerBound(double[] values, int from, int to, double value) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (values[middle] < value) from = middle + 1;
+            else to = middle;
+        }
+        return from;
+    }
+
+    private static int upperBound(double[] values, int from, int to, double value) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (values[middle] <= value) from = middle + 1;
+            else to = middle;
+        }
+        return from;
+    }
+
+    /**
+     * Columns shared by the slices. Positions are indexes in RT order, byRt maps them to the features.
+     */
+    private final class Context {
+        private final int[] byRt;
+        private final double[] sortedRts;
+        private final double[] intensities;
+        private final double[][] profiles;
+        private final int[] seedOf;
+
+        private Context(int[] byRt, double[] sortedRts, double[] intensities, double[][] profiles, int[] seedOf) {
+            this.byRt = byRt;
+            this.sortedRts = sortedRts;
+            this.intensities = intensities;
+            this.profiles = profiles;
+            this.seedOf = seedOf;
+        }
+
+        private boolean correlated(int seed, int position) {
+            if (profiles == null) return true;
+            double[] a = profiles[byRt[seed]];
+            double[] b = profiles[byRt[position]];
+            if (a == null || b == null || a.length != b.length) return true;
+            return correlation(a, b) >= minCorrelation;
+        }
+    }
+
+    /**
+     * @return Pearson correlation of the two profiles, 0 if one of them is flat
+     */
+    static double correlation(double[] a, double[] b) {
+        int n = a.length;
+        double meanA = 0;
+        double meanB = 0;
+        for (int i = 0; i < n; i++) {
+            meanA += a[i];
+            meanB += b[i];
+        }
+        meanA /= n;
+        meanB /= n;
+        double covariance = 0;
+        double varianceA = 0;
+        double varianceB = 0;
+        for (int i = 0; i < n; i++) {
+            double da = a[i] - meanA;
+            double db = b[i] - meanB;
+            covariance += da * db;
+            varianceA += da * da;
+            varianceB += db * db;
+        }
+        if (varianceA == 0 || varianceB == 0) return 0;
+        return covariance / Math.sqrt(varianceA * varianceB);
+    }
+}
@@ -0,0 +1,159 @@
+package lipid;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Scores the annotations with the same result as the six elution order rules of lipids.drl, without comparing
+ * every pair. Each rule only relates annotations of the same group (same type and double bonds, same type and
+ * carbons, or same carbons and double bonds) and checks whether the RT order agrees with the order of one attribute.
+ * For each annotation that is the number of partners with RT and attribute both lower or both higher (concordant),
+ * or one lower and the other higher (discordant). Sorting each group by RT and sweeping it with a Fenwick tree over
+ * the attribute gives those counts in O(N log N).
+ *
+ * <ul>
+ *     <li>Rules 1 / 4: carbons in the (type, double bonds) group, concordant +1 / discordant -1</li>
+ *     <li>Rules 2 / 5: double bonds in the (type, carbons) group, discordant +1 / concordant -1</li>
+ *     <li>Rules 3 / 6: {@link LipidPriority} in the (carbons, double bonds) group, concordant +1 / discordant -1</li>
+ * </ul>
+ *
+ * As in the rules, every matching pair adds the score to both annotations.
+ */
+public class ElutionOrderScorer implements LipidScorer {
+
+    @Override
+    public void score(Collection<Annotation> annotations) {
+        Annotation[] all = annotations.toArray(new Annotation[0]);
+        // the rules compare RTs with < and >, which are always false for NaN
+        Annotation[] scored = Arrays.stream(all).filter(a -> !Double.isNaN(a.getRtMin())).toArray(Annotation[]::new);
+        int n = scored.length;
+
+        double[] rts = new double[n];
+        int[] typeDoubleBonds = new int[n];
+        int[] typeCarbons = new int[n];
+        int[] carbonDoubleBonds = new int[n];
+        int[] carbons = new int[n];
+        int[] doubleBonds = new int[n];
+        int[] priorities = new int[n];
+        for (int i = 0; i < n; i++) {
+            Annotation annotation = scored[i];
+            Lipid lipid = annotation.getLipid();
+            rts[i] = annotation.getRtMin();
+            typeDoubleBonds[i] = annotation.getTypeDoubleBondsKey();
+            typeCarbons[i] = annotation.getTypeCarbonKey();
+            carbonDoubleBonds[i] = annotation.getCarbonDoubleBondsKey();
+            // without a lipid the annotation is alone in its groups, so these values are never compared
+            carbons[i] = lipid == null ? 0 : lipid.getCarbonCount();
+            doubleBonds[i] = lipid == null ? 0 : lipid.getDoubleBondsCount();
+            priorities[i] = LipidPriority.priorityOf(lipid == null ? null : lipid.getLipidType());
+        }
+
+        int[] concordant = new int[n];
+        int[] discordant = new int[n];
+
+        countPairs(rts, typeDoubleBonds, carbons, concordant, discordant);
+        apply(scored, ScoreRule.CARBON_COUNT_ORDER, concordant, ScoreRule.CARBON_COUNT_MISMATCH, discordant);
+
+        countPairs(rts, typeCarbons, doubleBonds, concordant, discordant);
+        apply(scored, ScoreRule.DOUBLE_BOND_ORDER, discordant, ScoreRule.DOUBLE_BOND_MISMATCH, concordant);
+
+        countPairs(rts, carbonDoubleBonds, priorities, concordant, discordant);
+        apply(scored, ScoreRule.LIPID_TYPE_ORDER, concordant, ScoreRule.LIPID_TYPE_MISMATCH, discordant);
+    }
+
+    private static void apply(Annotation[] scored, ScoreRule positive, int[] positiveCounts,
+                              ScoreRule negative, int[] negativeCounts) {
+        for (int i = 0; i < scored.length; i++) {
+            if (positiveCounts[i] > 0) scored[i].addScore(positive, positiveCounts[i]);
+            if (negativeCounts[i] > 0) scored[i].addScore(negative, negativeCounts[i]);
+        }
+    }
+
+    /**
+     * For every element i, counts the elements j of its group with (rt_j, key_j) strictly on the same side of
+     * (rt_i, key_i) in both coordinates (concordant) or on opposite sides (discordant).
+     */
+    static void countPairs(double[] rts, int[] groups, int[] keys, int[] concordant, int[] discordant) {
+        int n = rts.length;
+        Arrays.fill(concordant, 0);
+        Arrays.fill(discordant, 0);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        IndexSort.sort(order, (a, b) -> {
+            int byGroup = Integer.compare(groups[a], groups[b]);
+            return byGroup != 0 ? byGroup : Double.compare(rts[a], rts[b]);
+        });
+
+        int[] ranks = new int[n];
+        int[] groupKeys = new int[n];
+        int[] tree = new int[n + 1];
+        for (int from = 0; from < n; ) {
+            int to = from + 1;
+            while (to < n && groups[order[to]] == groups[order[from]]) to++;
+
+            // rank the keys of the group so the Fenwick tree only needs as many slots as distinct keys
+            int size = to - from;
+            for (int i = 0; i < size; i++) groupKeys[i] = keys[order[from + i]];
+            Arrays.sort(groupKeys, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || groupKeys[distinct - 1] != groupKeys[i]) groupKeys[distinct++] = groupKeys[i];
+            }
+            for (int i = from; i < to; i++) {
+                ranks[order[i]] = Arrays.binarySearch(groupKeys, 0, distinct, keys[order[i]]) + 1;
+            }
+
+            sweep(order, from, to, rts, ranks, tree, distinct, true, concordant, discordant);
+            sweep(order, from, to, rts, ranks, tree, distinct, false, concordant, discordant);
+            from = to;
+        }
+    }
+
+    /**
+     * Goes through the group in ascending (or descending) RT order, each block of equal RTs is queried against the
+     * elements already inserted, which all have a strictly lower (or higher) RT.
+     */
+    private static void sweep(int[] order, int from, int to, double[] rts, int[] ranks, int[] tree, int distinct,
+                              boolean ascending, int[] concordant, int[] discordant) {
+        Arrays.fill(tree, 0, distinct + 1, 0);
+        int inserted = 0;
+        int size = to - from;
+        for (int start = 0; start < size; ) {
+            int end = start + 1;
+            while (end < size && rts[at(order, from, to, end, ascending)] == rts[at(order, from, to, start, ascending)]) end++;
+
+            for (int k = start; k < end; k++) {
+                int i = at(order, from, to, k, ascending);
+                int lower = prefix(tree, ranks[i] - 1);
+                int higher = inserted - prefix(tree, ranks[i]);
+                // ascending: partners with lower RT, so lower key is concordant; descending: the other way round
+                if (ascending) {
+                    concordant[i] += lower;
+                    discordant[i] += higher;
+                } else {
+                    concordant[i] += higher;
+                    discordant[i] += lower;
+                }
+            }
+            for (int k = start; k < end; k++) {
+                add(tree, distinct, ranks[at(order, from, to, k, ascending)]);
+                inserted++;
+            }
+            start = end;
+        }
+    }
+
+    private static int at(int[] order, int from, int to, int k, boolean ascending) {
+        return ascending ? order[from + k] : order[to - 1 - k];
+    }
+
+    private static int prefix(int[] tree, int rank) {
+        int sum = 0;
+        for (int i = rank; i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    private static void add(int[] tree, int distinct, int rank) {
+        for (int i = rank; i <= distinct; i += i & -i) tree[i]++;
+    }
+}
@@ -0,0 +1,129 @@
+package lipid;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Monoisotopic mass of a molecular formula such as C57H104O6 or C42H82NO8P. The formula is read character by character
+ * without creating any object; elements are the ones of lipids and their usual adducts, with the mass of their most
+ * abundant isotope. Masses are memoized per formula because lipid databases repeat the same formulas over many
+ * entries (isomers). The memo is bounded: once {@link #CACHE_SIZE} formulas are stored, new formulas are computed
+ * every time.
+ */
+public final class FormulaMass {
+
+    static final int CACHE_SIZE = 1 << 16;
+
+    private static final Map<String, Double> CACHE = new ConcurrentHashMap<>();
+
+    private FormulaMass() {
+    }
+
+    /**
+     * @param formula molecular formula, element symbols each followed by an optional count
+     * @return the monoisotopic mass, 0.0 for a null or empty formula
+     * @throws IllegalArgumentException if the formula has an unknown element or a character that is not part of a
+     *                                  formula
+     */
+    public static double of(String formula) {
+        if (formula == null || formula.isEmpty()) {
+            return 0.0;
+        }
+        Double cached = CACHE.get(formula);
+        if (cached != null) {
+            return cached;
+        }
+        double mass = compute(formula);
+        if (CACHE.size() < CACHE_SIZE) {
+            CACHE.put(formula, mass);
+        }
+        return mass;
+    }
+
+    /**
+     * Parses the formula without looking at the memo.
+     */
+    static double compute(CharSequence formula) {
+        double mass = 0;
+        int length = formula.length();
+        int i = 0;
+        while (i < length) {
+            char first = formula.charAt(i);
+            if (first < 'A' || first > 'Z') {
+                throw new IllegalArgumentException("Unexpected '" + first + "' at " + i + " in formula " + formula);
+            }
+            i++;
+            char second = 0;
+            if (i < length && formula.charAt(i) >= 'a' && formula.charAt(i) <= 'z') {
+                second = formula.charAt(i);
+                i++;
+            }
+            int count = 0;
+            boolean hasCount = false;
+            while (i < length && formula.charAt(i) >= '0' && formula.charAt(i) <= '9') {
+                count = count * 10 + (formula.charAt(i) - '0');
+                hasCount = true;
+                i++;
+            }
+            double elementMass = elementMass(first, second);
+            if (Double.isNaN(elementMass)) {
+                throw new IllegalArgumentException("Unknown element " + first + (second == 0 ? "" : String.valueOf(second))
+                        + " in formula " + formula);
+            }
+            mass += elementMass * (hasCount ? count : 1);
+        }
+        return mass;
+    }
+
+    private static double elementMass(char first, char second) {
+        switch (first) {
+            case 'C':
+                if (second == 0) return 12.0;
+                if (second == 'l') return 34.96885268;
+                if (second == 'a') return 39.96259098;
+                break;
+            case 'H':
+                if (second == 0) return 1.00782503207;
+                break;
+            case 'D':
+                if (second == 0) return 2.0141017778;
+                break;
+            case 'N':
+                if (second == 0) return 14.0030740048;
+                if (second == 'a') return 22.9897692809;
+                break;
+            case 'O':
+                if (second == 0) return 15.99491461956;
+                break;
+            case 'P':
+                if (second == 0) return 30.97376163;
+                break;
+            case 'S':
+                if (second == 0) return 31.97207100;
+                if (second == 'i') return 27.9769265325;
+                break;
+            case 'K':
+                if (second == 0) return 38.96370668;
+                break;
+            case 'L':
+                if (second == 'i') return 7.01600455;
+                break;
+            case 'M':
+                if (second == 'g') return 23.985041700;
+                break;
+            case 'F':
+                if (second == 0) return 18.99840322;
+                if (second == 'e') return 55.9349375;
+                break;
+            case 'B':
+                if (second == 'r') return 78.9183371;
+                break;
+            case 'I':
+                if (second == 0) return 126.904473;
+                break;
+            default:
+                break;
+        }
+        return Double.NaN;
+    }
+}
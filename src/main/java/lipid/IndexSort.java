@@ -0,0 +1,64 @@
+package lipid;
+
+/**
+ * Stable sort of an array of int indices with a comparator over the indices, so columns stored in primitive arrays
+ * can be ordered without boxing.
+ */
+final class IndexSort {
+
+    @FunctionalInterface
+    interface IndexComparator {
+        int compare(int a, int b);
+    }
+
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private IndexSort() {
+    }
+
+    static void sort(int[] indices, IndexComparator comparator) {
+        sort(indices, indices.length, comparator);
+    }
+
+    /**
+     * Sorts the first length elements of the array.
+     */
+    static void sort(int[] indices, int length, IndexComparator comparator) {
+        if (length < INSERTION_SORT_THRESHOLD) {
+            insertionSort(indices, 0, length, comparator);
+            return;
+        }
+        mergeSort(indices, new int[length], 0, length, comparator);
+    }
+
+    private static void insertionSort(int[] indices, int from, int to, IndexComparator comparator) {
+        for (int i = from + 1; i < to; i++) {
+            int index = indices[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(indices[j], index) > 0) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = index;
+        }
+    }
+
+    private static void mergeSort(int[] indices, int[] buffer, int from, int to, IndexComparator comparator) {
+        if (to - from < INSERTION_SORT_THRESHOLD) {
+            insertionSort(indices, from, to, comparator);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(indices, buffer, from, middle, comparator);
+        mergeSort(indices, buffer, middle, to, comparator);
+        if (comparator.compare(indices[middle - 1], indices[middle]) <= 0) return;
+
+        int i = from, j = middle, k = from;
+        while (i < middle && j < to) {
+            buffer[k++] = comparator.compare(indices[j], indices[i]) < 0 ? indices[j++] : indices[i++];
+        }
+        while (i < middle) buffer[k++] = indices[i++];
+        while (j < to) buffer[k++] = indices[j++];
+        System.arraycopy(buffer, from, indices, from, to - from);
+    }
+}
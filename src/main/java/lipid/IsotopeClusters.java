@@ -0,0 +1,151 @@
+package lipid;
+
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Isotope envelopes of a group of peaks. A 13C isotopologue sits 1.00336 Da / z above the previous peak of its
+ * envelope and is less intense than the monoisotopic peak, and it is not another adduct: the envelopes are detected
+ * and each is folded into its monoisotopic peak, which keeps the charge of the envelope. Only the charges of the
+ * adducts that can explain the peaks are tried, highest first, because an envelope of charge z also has peaks at the
+ * spacing of charge 1.
+ *
+ * The peaks are sorted by mz, so the envelopes are found in one sweep from the lowest mz: every peak not yet folded
+ * starts an envelope and its next isotope is found with a binary search within the ppm tolerance.
+ */
+public final class IsotopeClusters {
+
+    public static final double C13_DELTA = 1.0033548378;
+
+    private static final Map<Ionization, int[]> CHARGES = new EnumMap<>(Ionization.class);
+
+    static {
+        for (Ionization ionization : Ionization.values()) {
+            CHARGES.put(ionization, charges(AdductRegistry.forIonization(ionization)));
+        }
+    }
+
+    private final double[] monoisotopicMzs;
+    private final int[] charges;
+    private final int isotopes;
+
+    private IsotopeClusters(double[] monoisotopicMzs, int[] charges, int isotopes) {
+        this.monoisotopicMzs = monoisotopicMzs;
+        this.charges = charges;
+        this.isotopes = isotopes;
+    }
+
+    /**
+     * @param peaks grouped peaks
+     * @param adducts adducts the peaks may come from, their charges are the ones tried
+     * @param tolerancePPM tolerance of the isotope spacing
+     * @param annotatedMz mz of the annotation. The peak at that mz is never folded into another.
+     */
+    public static IsotopeClusters detect(PeakArray peaks, List<AdductDescriptor> adducts, int tolerancePPM, double annotatedMz) {
+        return detect(peaks, charges(adducts), tolerancePPM, annotatedMz);
+    }
+
+    /**
+     * Same as {@link #detect(PeakArray, List, int, double)} with the adducts of the ionization
+     */
+    public static IsotopeClusters detect(PeakArray peaks, Ionization ionization, int tolerancePPM, double annotatedMz) {
+        return detect(peaks, CHARGES.get(ionization), tolerancePPM, annotatedMz);
+    }
+
+    private static IsotopeClusters detect(PeakArray peaks, int[] chargesToTry, int tolerancePPM, double annotatedMz) {
+        int n = peaks.size();
+        // index of the monoisotopic peak of each isotope, -1 for the peaks that are not isotopes
+        int[] isotopeOf = new int[n];
+        Arrays.fill(isotopeOf, -1);
+        int[] peakCharges = new int[n];
+        int isotopes = 0;
+        for (int i = 0; i < n; i++) {
+            if (isotopeOf[i] >= 0) continue;
+            for (int c = chargesToTry.length - 1; c >= 0 && peakCharges[i] == 0; c--) {
+                int z = chargesToTry[c];
+                int previous = i;
+                int next;
+                while ((next = nextIsotope(peaks, previous, z, i, isotopeOf, tolerancePPM, annotatedMz)) >= 0) {
+                    isotopeOf[next] = i;
+                    peakCharges[i] = z;
+                    isotopes++;
+                    previous = next;
+                }
+            }
+        }
+
+        if (isotopes == 0) {
+            return new IsotopeClusters(peaks.mzArray(), peakCharges, 0);
+        }
+        double[] monoisotopicMzs = new double[n - isotopes];
+        int[] charges = new int[n - isotopes];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (isotopeOf[i] >= 0) continue;
+            monoisotopicMzs[size] = peaks.getMz(i);
+            charges[size] = peakCharges[i];
+            size++;
+        }
+        return new IsotopeClusters(monoisotopicMzs, charges, isotopes);
+    }
+
+    /**
+     * @return the distinct positive charges of the adducts, ascending
+     */
+    private static int[] charges(List<AdductDescriptor> adducts) {
+        return adducts.stream().mapToInt(AdductDescriptor::getCharge).filter(z -> z > 0).distinct().sorted().toArray();
+    }
+
+    /**
+     * @return the index of the free peak 1.00336 / z above the previous one and less intense than the monoisotopic
+     * peak, -1 if there is none
+     */
+    private static int nextIsotope(PeakArray peaks, int previous, int z, int monoisotopic, int[] isotopeOf,
+                                   int tolerancePPM, double annotatedMz) {
+        double target = peaks.getMz(previous) + C13_DELTA / z;
+        double delta = target * tolerancePPM / 1_000_000d;
+        int best = -1;
+        for (int j = peaks.lowerBound(target - delta); j < peaks.size() && peaks.getMz(j) <= target + delta; j++) {
+            if (j <= previous || isotopeOf[j] >= 0) continue;
+            if (peaks.getIntensity(j) >= peaks.getIntensity(monoisotopic)) continue;
+            if (Math.abs(peaks.getMz(j) - annotatedMz) <= annotatedMz * tolerancePPM / 1_000_000d) continue;
+            if (best < 0 || Math.abs(peaks.getMz(j) - target) < Math.abs(peaks.getMz(best) - target)) best = j;
+        }
+        return best;
+    }
+
+    /**
+     * @return mz of the peaks that are not isotopes of another one, sorted
+     */
+    public double[] getMonoisotopicMzs() {
+        return monoisotopicMzs.clone();
+    }
+
+    /**
+     * Same as {@link #getMonoisotopicMzs()} without the copy, only for read-only use inside the package. It may be
+     * the mz column of the peaks.
+     */
+    double[] monoisotopicMzArray() {
+        return monoisotopicMzs;
+    }
+
+    /**
+     * @return charge of the envelope of each monoisotopic peak, 0 when the peak has no isotopes and its charge is
+     * unknown
+     */
+    public int[] getCharges() {
+        return charges;
+    }
+
+    /**
+     * @return number of peaks folded into their monoisotopic peak
+     */
+    public int getIsotopeCount() {
+        return isotopes;
+    }
+}
@@ -10,6 +10,8 @@ public class Lipid {
     private final int carbonCount;
     private final int doubleBondsCount;
     private double monoisotropic;
+    // mass of the formula, computed on first use
+    private double formulaMass = Double.NaN;
 
     /**
      * @param compoundId
@@ -29,10 +31,31 @@ public class Lipid {
         this.monoisotropic = 0.0;
     }
 
+    /**
+     * @return the mass set with {@link #setMonoisotropic(double)}, 0.0 if none was set. See also
+     * {@link #getMonoisotopicMass()}.
+     */
     public double getMonoisotropic() {
         return monoisotropic;
     }
 
+    /**
+     * @return the mass set with {@link #setMonoisotropic(double)} or, if none was set, the monoisotopic mass of the
+     * formula (0.0 without formula)
+     * @throws IllegalArgumentException if the formula cannot be parsed
+     */
+    public double getMonoisotopicMass() {
+        if (monoisotropic != 0.0) {
+            return monoisotropic;
+        }
+        double mass = formulaMass;
+        if (Double.isNaN(mass)) {
+            mass = FormulaMass.of(formula);
+            formulaMass = mass;
+        }
+        return mass;
+    }
+
     public void setMonoisotropic(double monoisotropic) {
         this.monoisotropic = monoisotropic;
     }
@@ -0,0 +1,291 @@
+package lipid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable library of lipids with one {@link Lipid} per compound id, so every annotation of a compound can share
+ * the same instance (see {@link #intern(Lipid)}).
+ *
+ * Each lipid has a dense index between 0 and {@link #size()}. Lipids are ordered by type, carbon count, double bonds
+ * and compound id, so all the lipids of a type, or of a type and chain counts, are a contiguous range of indexes, and
+ * the type, carbons and double bonds of each index are kept in primitive arrays: grouping by class is a scan of a
+ * byte array and a range lookup is a binary search. Compound ids are mapped to indexes by binary search over a
+ * sorted copy of the ids.
+ *
+ * {@link #parseName(String)} reads the type and chain counts from shorthand names such as "TG 54:3",
+ * "PC 16:0_18:1" or "PE(18:0/20:4)", so a library only needs ids and names.
+ */
+public final class LipidCatalog {
+
+    private static final LipidType[] LIPID_TYPES = LipidType.values();
+    private static final Map<String, LipidType> TYPES_BY_NAME = new HashMap<>();
+
+    static {
+        for (LipidType type : LIPID_TYPES) TYPES_BY_NAME.put(type.name(), type);
+    }
+
+    private final Lipid[] lipids;
+    private final byte[] types;
+    private final int[] carbons;
+    private final int[] doubleBonds;
+    // first index of each lipid type, typeStarts[LIPID_TYPES.length] == size
+    private final int[] typeStarts;
+    private final int[] sortedCompoundIds;
+    private final int[] indexOfSortedId;
+
+    private LipidCatalog(Lipid[] lipids) {
+        this.lipids = lipids;
+        int n = lipids.length;
+        types = new byte[n];
+        carbons = new int[n];
+        doubleBonds = new int[n];
+        typeStarts = new int[LIPID_TYPES.length + 1];
+        int[] byId = new int[n];
+        for (int i = 0; i < n; i++) {
+            types[i] = (byte) lipids[i].getLipidType().ordinal();
+            carbons[i] = lipids[i].getCarbonCount();
+            doubleBonds[i] = lipids[i].getDoubleBondsCount();
+            typeStarts[types[i] + 1]++;
+            byId[i] = i;
+        }
+        for (int t = 0; t < LIPID_TYPES.length; t++) {
+            typeStarts[t + 1] += typeStarts[t];
+        }
+        IndexSort.sort(byId, (a, b) -> Integer.compare(lipids[a].getCompoundId(), lipids[b].getCompoundId()));
+        sortedCompoundIds = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedCompoundIds[i] = lipids[byId[i]].getCompoundId();
+        }
+        indexOfSortedId = byId;
+    }
+
+    /**
+     * @param lipids lipids of the library. The first lipid of each compound id is kept, the others are dropped.
+     */
+    public static LipidCatalog of(Collection<Lipid> lipids) {
+        Map<Integer, Lipid> unique = new HashMap<>();
+        List<Lipid> kept = new ArrayList<>(lipids.size());
+        for (Lipid lipid : lipids) {
+            if (unique.putIfAbsent(lipid.getCompoundId(), lipid) == null) {
+                kept.add(lipid);
+            }
+        }
+        Lipid[] sorted = kept.toArray(new Lipid[0]);
+        Arrays.sort(sorted, (a, b) -> {
+            int c = Integer.compare(a.getLipidType().ordinal(), b.getLipidType().ordinal());
+            if (c == 0) c = Integer.compare(a.getCarbonCount(), b.getCarbonCount());
+            if (c == 0) c = Integer.compare(a.getDoubleBondsCount(), b.getDoubleBondsCount());
+            if (c == 0) c = Integer.compare(a.getCompoundId(), b.getCompoundId());
+            return c;
+        });
+        return new LipidCatalog(sorted);
+    }
+
+    /**
+     * Builds a lipid whose type and chain counts are read from its shorthand name
+     *
+     * @throws IllegalArgumentException if the name cannot be parsed, see {@link #parseName(String)}
+     */
+    public static Lipid newLipid(int compoundId, String name, String formula) {
+        Shorthand shorthand = parseName(name);
+        return new Lipid(compoundId, name, formula, shorthand.getLipidType(), shorthand.getCarbonCount(),
+                shorthand.getDoubleBondsCount());
+    }
+
+    /**
+     * Parses a shorthand lipid name: the class, then the chains separated by '_' or '/', with or without
+     * parentheses. Each chain is carbons:double bonds, optionally with an ether prefix ("O-", "P-") or a modification
+     * suffix after ';', which are ignored. The counts of the chains are added up: "PC 16:0_18:1" is PC 34:1.
+     *
+     * @throws IllegalArgumentException if the class is not a {@link LipidType} or a chain is not carbons:double bonds
+     */
+    public static Shorthand parseName(String name) {
+        String trimmed = name.trim();
+        int split = 0;
+        while (split < trimmed.length() && Character.isLetter(trimmed.charAt(split))) split++;
+        LipidType type = TYPES_BY_NAME.get(trimmed.substring(0, split).toUpperCase(Locale.ROOT));
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown lipid class in " + name);
+        }
+        String chains = trimmed.substring(split).trim();
+        if (chains.startsWith("(") && chains.endsWith(")")) {
+            chains = chains.substring(1, chains.length() - 1);
+        }
+        if (chains.isEmpty()) {
+            throw new IllegalArgumentException("No chains in " + name);
+        }
+        int carbonCount = 0;
+        int doubleBondsCount = 0;
+        for (String chain : chains.split("[_/]")) {
+            String counts = chain.trim();
+            int modification = counts.indexOf(';');
+            if (modification >= 0) counts = counts.substring(0, modification);
+            if (counts.length() > 2 && counts.charAt(1) == '-'
+                    && (counts.charAt(0) == 'O' || counts.charAt(0) == 'P')) {
+                counts = counts.substring(2);
+            }
+            int colon = counts.indexOf(':');
+            if (colon <= 0 || colon == counts.length() - 1) {
+                throw new IllegalArgumentException("Wrong chain " + chain + " in " + name);
+            }
+            try {
+                carbonCount += Integer.parseInt(counts.substring(0, colon));
+                doubleBondsCount += Integer.parseInt(counts.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Wrong chain " + chain + " in " + name, e);
+            }
+        }
+        return new Shorthand(type, carbonCount, doubleBondsCount);
+    }
+
+    public int size() {
+        return lipids.length;
+    }
+
+    public Lipid get(int index) {
+        return lipids[index];
+    }
+
+    /**
+     * @return the lipids ordered by index
+     */
+    public List<Lipid> getLipids() {
+        return Collections.unmodifiableList(Arrays.asList(lipids));
+    }
+
+    /**
+     * @return the index of the compound, -1 if it is not in the catalog
+     */
+    public int indexOf(int compoundId) {
+        int position = Arrays.binarySearch(sortedCompoundIds, compoundId);
+        return position < 0 ? -1 : indexOfSortedId[position];
+    }
+
+    /**
+     * @return the lipid of the compound, null if it is not in the catalog
+     */
+    public Lipid getByCompoundId(int compoundId) {
+        int index = indexOf(compoundId);
+        return index < 0 ? null : lipids[index];
+    }
+
+    /**
+     * @return the instance of the catalog with the compound id of the lipid, or the lipid itself if the compound is not
+     * in the catalog
+     */
+    public Lipid intern(Lipid lipid) {
+        int index = indexOf(lipid.getCompoundId());
+        return index < 0 ? lipid : lipids[index];
+    }
+
+    public LipidType getLipidType(int index) {
+        return LIPID_TYPES[types[index]];
+    }
+
+    public int getCarbonCount(int index) {
+        return carbons[index];
+    }
+
+    public int getDoubleBondsCount(int index) {
+        return doubleBonds[index];
+    }
+
+    /**
+     * @return the first index of the lipids of the type
+     */
+    public int typeStart(LipidType type) {
+        return typeStarts[type.ordinal()];
+    }
+
+    /**
+     * @return the index after the last lipid of the type
+     */
+    public int typeEnd(LipidType type) {
+        return typeStarts[type.ordinal() + 1];
+    }
+
+    /**
+     * @return number of lipids of each type among the given indexes, by {@link LipidType#ordinal()}
+     */
+    public int[] countByType(int[] indexes) {
+        int[] counts = new int[LIPID_TYPES.length];
+        for (int index : indexes) {
+            counts[types[index]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * @return the first index of the lipids of the type with the given chain counts, or the index where they would be
+     * if there is none. The lipids of the type with those counts are the indexes from here to
+     * {@link #chainsEnd(LipidType, int, int)}.
+     */
+    public int chainsStart(LipidType type, int carbonCount, int doubleBondsCount) {
+        int low = typeStart(type);
+        int high = typeEnd(type);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareChains(middle, carbonCount, doubleBondsCount) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return the index after the last lipid of the type with the given chain counts
+     */
+    public int chainsEnd(LipidType type, int carbonCount, int doubleBondsCount) {
+        int low = typeStart(type);
+        int high = typeEnd(type);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareChains(middle, carbonCount, doubleBondsCount) <= 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private int compareChains(int index, int carbonCount, int doubleBondsCount) {
+        int c = Integer.compare(carbons[index], carbonCount);
+        return c != 0 ? c : Integer.compare(doubleBonds[index], doubleBondsCount);
+    }
+
+    /**
+     * Lipid class and total chain counts read from a shorthand name
+     */
+    public static final class Shorthand {
+        private final LipidType lipidType;
+        private final int carbonCount;
+        private final int doubleBondsCount;
+
+        Shorthand(LipidType lipidType, int carbonCount, int doubleBondsCount) {
+            this.lipidType = lipidType;
+            this.carbonCount = carbonCount;
+            this.doubleBondsCount = doubleBondsCount;
+        }
+
+        public LipidType getLipidType() {
+            return lipidType;
+        }
+
+        public int getCarbonCount() {
+            return carbonCount;
+        }
+
+        public int getDoubleBondsCount() {
+            return doubleBondsCount;
+        }
+
+        @Override
+        public String toString() {
+            return lipidType + " " + carbonCount + ":" + doubleBondsCount;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package lipid;
+
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static adduct.Adduct.getMonoisotopicMassFromMZ;
+
+/**
+ * Immutable index of a lipid database ordered by monoisotopic mass. Masses are kept in a sorted primitive array with
+ * the compound ids (and the lipids) in parallel arrays, so a ppm window is two binary searches and the candidates
+ * are a contiguous range of indexes.
+ *
+ * An observed mz is looked up under every adduct of its ionization: the neutral mass of each hypothesis is searched
+ * within ±ppm of itself. A whole mz column sorted in ascending order can be looked up as a merge join
+ * ({@link #lookupSorted}), because the neutral mass grows with the mz for every adduct: each adduct keeps a cursor in
+ * the mass array that only moves forward.
+ */
+public final class LipidIndex {
+
+    /**
+     * Receives the lipids matching an mz
+     */
+    @FunctionalInterface
+    public interface MatchConsumer {
+        /**
+         * @param mzIndex index of the queried mz in the queried column, 0 for a single query
+         * @param lipidIndex index of the candidate lipid in this index
+         * @param adduct adduct under which the lipid matches the mz
+         */
+        void accept(int mzIndex, int lipidIndex, AdductDescriptor adduct);
+    }
+
+    private final double[] masses;
+    private final int[] compoundIds;
+    private final Lipid[] lipids;
+
+    private LipidIndex(double[] masses, int[] compoundIds, Lipid[] lipids) {
+        this.masses = masses;
+        this.compoundIds = compoundIds;
+        this.lipids = lipids;
+    }
+
+    /**
+     * @param lipids lipids of the database, indexed by {@link Lipid#getMonoisotopicMass()}. Lipids without a positive
+     *               mass are not indexed.
+     */
+    public static LipidIndex of(Collection<Lipid> lipids) {
+        Lipid[] known = new Lipid[lipids.size()];
+        double[] unsortedMasses = new double[lipids.size()];
+        int size = 0;
+        for (Lipid lipid : lipids) {
+            double mass = lipid.getMonoisotopicMass();
+            if (mass > 0) {
+                known[size] = lipid;
+                unsortedMasses[size] = mass;
+                size++;
+            }
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        IndexSort.sort(order, (a, b) -> Double.compare(unsortedMasses[a], unsortedMasses[b]));
+
+        double[] masses = new double[size];
+        int[] compoundIds = new int[size];
+        Lipid[] sorted = new Lipid[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = known[order[i]];
+            masses[i] = unsortedMasses[order[i]];
+            compoundIds[i] = sorted[i].getCompoundId();
+        }
+        return new LipidIndex(masses, compoundIds, sorted);
+    }
+
+    public int size() {
+        return masses.length;
+    }
+
+    public double getMass(int index) {
+        return masses[index];
+    }
+
+    public int getCompoundId(int index) {
+        return compoundIds[index];
+    }
+
+    public Lipid getLipid(int index) {
+        return lipids[index];
+    }
+
+    /**
+     * @return the index of the first lipid with mass >= the given mass, {@link #size()} if there is none
+     */
+    public int lowerBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (masses[middle] < mass) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first lipid with mass > the given mass, {@link #size()} if there is none
+     */
+    public int upperBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (masses[middle] <= mass) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Sends every lipid whose mass matches the mz under an adduct of the ionization, grouped by adduct in registry
+     * order and by mass inside each adduct.
+     *
+     * @param mz observed mz
+     * @param ionization ionization mode of the mz
+     * @param tolerancePPM tolerance, relative to the neutral mass of the hypothesis
+     * @param consumer receives each (lipid, adduct) match, with mzIndex 0
+     */
+    public void lookup(double mz, Ionization ionization, int tolerancePPM, MatchConsumer consumer) {
+        for (AdductDescriptor adduct : AdductRegistry.forIonization(ionization)) {
+            double mass = getMonoisotopicMassFromMZ(mz, adduct);
+            double delta = window(mass, tolerancePPM);
+            for (int i = lowerBound(mass - delta), end = masses.length; i < end && masses[i] <= mass + delta; i++) {
+                consumer.accept(0, i, adduct);
+            }
+        }
+    }
+
+    /**
+     * @return the lipids matching the mz under any adduct of the ionization, in the order of
+     * {@link #lookup(double, Ionization, int, MatchConsumer)}. A lipid matching under several adducts is repeated.
+     */
+    public List<Lipid> candidates(double mz, Ionization ionization, int tolerancePPM) {
+        List<Lipid> candidates = new ArrayList<>();
+        lookup(mz, ionization, tolerancePPM, (mzIndex, lipidIndex, adduct) -> candidates.add(lipids[lipidIndex]));
+        return candidates;
+    }
+
+    /**
+     * Looks up a whole mz column in one pass over the index. Gives the same matches as calling
+     * {@link #lookup(double, Ionization, int, MatchConsumer)} on every mz in order, with the position of the mz as
+     * mzIndex.
+     *
+     * @param sortedMzs observed mzs in ascending order
+     * @throws IllegalArgumentException if the mzs are not sorted
+     */
+    public void lookupSorted(double[] sortedMzs, Ionization ionization, int tolerancePPM, MatchConsumer consumer) {
+        List<AdductDescriptor> adducts = AdductRegistry.forIonization(ionization);
+        int adductCount = adducts.size();
+        AdductDescriptor[] descriptors = adducts.toArray(new AdductDescriptor[0]);
+        // first lipid that can still match, per adduct
+        int[] cursors = new int[adductCount];
+        int size = masses.length;
+        for (int m = 0; m < sortedMzs.length; m++) {
+            double mz = sortedMzs[m];
+            if (m > 0 && mz < sortedMzs[m - 1]) {
+                throw new IllegalArgumentException("mzs are not sorted at index " + m + ": " + sortedMzs[m - 1] + " > " + mz);
+            }
+            for (int a = 0; a < adductCount; a++) {
+                AdductDescriptor adduct = descriptors[a];
+                double mass = getMonoisotopicMassFromMZ(mz, adduct);
+                double delta = window(mass, tolerancePPM);
+                double low = mass - delta;
+                double high = mass + delta;
+                int i = cursors[a];
+                while (i < size && masses[i] < low) i++;
+                cursors[a] = i;
+                for (; i < size && masses[i] <= high; i++) {
+                    consumer.accept(m, i, adduct);
+                }
+            }
+        }
+    }
+
+    private static double window(double mass, int tolerancePPM) {
+        return Math.abs(mass) * tolerancePPM / 1_000_000d;
+    }
+}
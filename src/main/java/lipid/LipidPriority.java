@@ -11,10 +11,23 @@ public class LipidPriority {
             LipidType.PC
     );
 
+    /**
+     * Priority of annotations without lipid type
+     */
+    public static final int UNKNOWN = -2;
 
     public static boolean isHigherPriority(LipidType l1, LipidType l2) {
         //ES MAYOR L1 SI SU INDEX ES MENOR
-        return PRIORITY.indexOf(l1) < PRIORITY.indexOf(l2);
+        return priorityOf(l1) < priorityOf(l2);
+    }
+
+    /**
+     * @return position of the type in the elution order, lower elutes first. Types outside the priority list
+     * (TG, PL) get -1, so they are considered higher priority than any listed type. A missing type gets
+     * {@link #UNKNOWN}, which no type shares.
+     */
+    public static int priorityOf(LipidType type) {
+        return type == null ? UNKNOWN : PRIORITY.indexOf(type);
     }
 
 }
@@ -0,0 +1,11 @@
+package lipid;
+
+import java.util.Collection;
+
+/**
+ * Scores a set of annotations by their elution order, adding the scores to the annotations themselves.
+ */
+public interface LipidScorer {
+
+    void score(Collection<Annotation> annotations);
+}
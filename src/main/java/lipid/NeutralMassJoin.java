@@ -0,0 +1,189 @@
+package lipid;
+
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static adduct.Adduct.calculatePPMIncrement;
+import static adduct.Adduct.getMonoisotopicMassFromMZ;
+
+/**
+ * Adduct identification as a join on neutral masses. Every (peak, adduct) hypothesis is converted to its neutral
+ * mass once and the hypotheses are sorted by mass (as primitive longs, the bits of the mass with the hypothesis in
+ * the low bits). Two hypotheses can only agree within the tolerance if they are less than the tolerance apart, so
+ * each one is only compared with the next ones up to that distance. The cost is O(H log H) with H = peaks * adducts
+ * instead of the O(A²·P²) of the nested loops in {@link #exhaustive}.
+ *
+ * The answer is the same one the exhaustive search gives: among all the agreeing pairs, the one that the nested
+ * loops (adduct1, adduct2, peak1, peak2) would have visited first is returned.
+ */
+public final class NeutralMassJoin {
+
+    public static final String UNKNOWN = "unknown";
+
+    private static final long NEGATIVE = 1L << 62;
+
+    private NeutralMassJoin() {
+    }
+
+    /**
+     * @param peakMzs mz of the grouped peaks, sorted and without duplicates
+     * @param mz mz of the annotation
+     * @param lipidMass monoisotopic mass of the annotated lipid or 0.0 if unknown
+     * @param ionization ionization mode of the annotation
+     * @param tolerancePPM ppm tolerance to consider two masses equal
+     * @return the name of the adduct of the annotation or {@link #UNKNOWN}
+     */
+    public static String identify(double[] peakMzs, double mz, double lipidMass, Ionization ionization, int tolerancePPM) {
+        return identify(peakMzs, mz, lipidMass, AdductRegistry.forIonization(ionization), tolerancePPM);
+    }
+
+    /**
+     * @param peakMzs mz of the grouped peaks, sorted and without duplicates
+     * @param mz mz of the annotation
+     * @param lipidMass monoisotopic mass of the annotated lipid or 0.0 if unknown
+     * @param adducts adduct hypotheses, in the order they have to be tried
+     * @param tolerancePPM ppm tolerance to consider two masses equal
+     * @return the name of the adduct of the annotation or {@link #UNKNOWN}
+     */
+    public static String identify(double[] peakMzs, double mz, double lipidMass, List<AdductDescriptor> adducts, int tolerancePPM) {
+        return identify(peakMzs, null, mz, lipidMass, adducts, tolerancePPM);
+    }
+
+    /**
+     * Same as {@link #identify(double[], double, double, List, int)} where a peak can only be explained by the adducts
+     * of its charge
+     *
+     * @param peakCharges charge of each peak (see {@link IsotopeClusters}), 0 if unknown. Null if no charge is known.
+     */
+    public static String identify(double[] peakMzs, int[] peakCharges, double mz, double lipidMass,
+                                  List<AdductDescriptor> adducts, int tolerancePPM) {
+        int adductCount = adducts.size();
+        int peakCount = peakMzs.length;
+        if (adductCount < 2 || peakCount < 2) {
+            return UNKNOWN;
+        }
+
+        // hypothesis h corresponds to peak h / adductCount under adduct h % adductCount
+        int hypotheses = peakCount * adductCount;
+        double[] masses = new double[hypotheses];
+        // sort keys: the bits of |mass| with h in the low bits and negative masses above every positive one, so
+        // they can only meet each other, as in the exhaustive search. A zero mass never supports an adduct.
+        int hypothesisBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(hypotheses - 1));
+        long hypothesisMask = (1L << hypothesisBits) - 1;
+        long[] keys = new long[hypotheses];
+        int sorted = 0;
+        for (int p = 0; p < peakCount; p++) {
+            for (int a = 0; a < adductCount; a++) {
+                int h = p * adductCount + a;
+                if (!chargeMatches(peakCharges, p, adducts.get(a))) continue;
+                double mass = getMonoisotopicMassFromMZ(peakMzs[p], adducts.get(a));
+                masses[h] = mass;
+                if (mass != 0) {
+                    long bits = Double.doubleToRawLongBits(Math.abs(mass)) >>> 1;
+                    keys[sorted++] = (mass < 0 ? NEGATIVE : 0) | (bits & ~hypothesisMask) | h;
+                }
+            }
+        }
+        Arrays.sort(keys, 0, sorted);
+        // two masses within the tolerance are at most tolerance ppm apart; the cleared low bits may swap masses that
+        // close, so the window is widened by their weight
+        double window = 1 + 2d * tolerancePPM / 1_000_000 + Math.scalb(1d, hypothesisBits - 50);
+
+        boolean[] closeToMz = new boolean[peakCount];
+        for (int p = 0; p < peakCount; p++) {
+            closeToMz[p] = calculatePPMIncrement(peakMzs[p], mz) < tolerancePPM;
+        }
+        boolean[] supportedByLipid = new boolean[adductCount];
+        for (int a = 0; a < adductCount; a++) {
+            supportedByLipid[a] = lipidMass == 0.0
+                    || calculatePPMIncrement(lipidMass, getMonoisotopicMassFromMZ(mz, adducts.get(a))) < tolerancePPM;
+        }
+
+        long bestKey = Long.MAX_VALUE;
+        int bestAdduct = -1;
+        for (int i = 0; i < sorted; i++) {
+            int h1 = (int) (keys[i] & hypothesisMask);
+            long sign = keys[i] & NEGATIVE;
+            double limit = Math.abs(masses[h1]) * window;
+            for (int j = i + 1; j < sorted && (keys[j] & NEGATIVE) == sign; j++) {
+                int h2 = (int) (keys[j] & hypothesisMask);
+                if (Math.abs(masses[h2]) > limit) break;
+                for (int side = 0; side < 2; side++) {
+                    int x = side == 0 ? h1 : h2;
+                    int y = side == 0 ? h2 : h1;
+                    int p1 = x / adductCount, a1 = x % adductCount;
+                    int p2 = y / adductCount, a2 = y % adductCount;
+                    if (p1 == p2 || a1 == a2) continue;
+                    long key = (((long) a1 * adductCount + a2) * peakCount + p1) * peakCount + p2;
+                    if (key >= bestKey) continue;
+                    if (calculatePPMIncrement(masses[x], masses[y]) >= tolerancePPM) continue;
+
+                    if (closeToMz[p1] && supportedByLipid[a1]) {
+                        bestKey = key;
+                        bestAdduct = a1;
+                    } else if (closeToMz[p2] && supportedByLipid[a2]) {
+                        bestKey = key;
+                        bestAdduct = a2;
+                    }
+                }
+            }
+        }
+        return bestAdduct < 0 ? UNKNOWN : adducts.get(bestAdduct).getName();
+    }
+
+    /**
+     * Reference search that compares every pair of adducts over every pair of peaks, in the order that defines the
+     * answer of the join. Same as {@link Annotation#identifyAdductExhaustive()} where a peak can only be explained by
+     * the adducts of its charge.
+     */
+    static String exhaustive(double[] peakMzs, int[] peakCharges, double mz, double lipidMass,
+                             List<AdductDescriptor> adducts, int tolerancePPM) {
+        for (int a1 = 0; a1 < adducts.size(); a1++) {
+            AdductDescriptor adduct1 = adducts.get(a1);
+            for (int a2 = 0; a2 < adducts.size(); a2++) {
+                if (a1 == a2) continue;
+                AdductDescriptor adduct2 = adducts.get(a2);
+
+                for (int p1 = 0; p1 < peakMzs.length; p1++) {
+                    if (!chargeMatches(peakCharges, p1, adduct1)) continue;
+                    double monoisotopicMass1 = getMonoisotopicMassFromMZ(peakMzs[p1], adduct1);
+                    for (int p2 = 0; p2 < peakMzs.length; p2++) {
+                        if (p1 == p2 || !chargeMatches(peakCharges, p2, adduct2)) continue;
+
+                        double monoisotopicMass2 = getMonoisotopicMassFromMZ(peakMzs[p2], adduct2);
+
+                        int ppmDifference = calculatePPMIncrement(monoisotopicMass1, monoisotopicMass2);
+                        if (ppmDifference < tolerancePPM) {
+                            int toleranceDa1 = calculatePPMIncrement(peakMzs[p1], mz);
+                            int toleranceDa2 = calculatePPMIncrement(peakMzs[p2], mz);
+
+                            if (lipidMass != 0.0) {
+                                double inferredMass1 = getMonoisotopicMassFromMZ(mz, adduct1);
+                                double inferredMass2 = getMonoisotopicMassFromMZ(mz, adduct2);
+                                if (toleranceDa1 < tolerancePPM && calculatePPMIncrement(lipidMass, inferredMass1) < tolerancePPM) {
+                                    return adduct1.getName();
+                                } else if (toleranceDa2 < tolerancePPM && calculatePPMIncrement(lipidMass, inferredMass2) < tolerancePPM) {
+                                    return adduct2.getName();
+                                }
+                            } else {
+                                if (toleranceDa1 < tolerancePPM) {
+                                    return adduct1.getName();
+                                } else if (toleranceDa2 < tolerancePPM) {
+                                    return adduct2.getName();
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean chargeMatches(int[] peakCharges, int peak, AdductDescriptor adduct) {
+        return peakCharges == null || peakCharges[peak] == 0 || peakCharges[peak] == adduct.getCharge();
+    }
+}
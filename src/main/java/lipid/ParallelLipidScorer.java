@@ -0,0 +1,140 @@
+package lipid;
+
+import metrics.RuleMetrics;
+import org.kie.api.runtime.rule.AgendaFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
+/**
+ * Fires {@link LipidScoreUnit} on several threads. The rules only pair annotations that share a join key, so the
+ * annotations are split in two passes:
+ * <ol>
+ *     <li>sharded by lipid type, firing every rule except the lipid type ones (rules 1, 2, 4 and 5 and the adduct
+ *     identification)</li>
+ *     <li>sharded by (carbons, double bonds), firing only the lipid type rules (3 and 6), which cross classes</li>
+ * </ol>
+ * Each annotation is in exactly one shard per pass, so no annotation is scored by two threads at the same time and
+ * the final scores do not depend on the scheduling. Shards are made of whole groups, packed in key order to balance
+ * their sizes. Every shard records into the same {@link RuleMetrics}.
+ */
+public class ParallelLipidScorer implements LipidScorer {
+
+    static final Set<String> LIPID_TYPE_RULES = Set.of(
+            ScoreRule.LIPID_TYPE_ORDER.getRuleName(),
+            ScoreRule.LIPID_TYPE_MISMATCH.getRuleName());
+
+    private static final AgendaFilter WITHIN_TYPE = match -> !LIPID_TYPE_RULES.contains(match.getRule().getName());
+    private static final AgendaFilter ACROSS_TYPES = match -> LIPID_TYPE_RULES.contains(match.getRule().getName());
+
+    private final int threads;
+    private final boolean virtualThreads;
+    private final RuleUnitPool<LipidScoreUnit> pool;
+
+    /**
+     * Uses one platform thread per available processor
+     */
+    public ParallelLipidScorer() {
+        this(Runtime.getRuntime().availableProcessors(), false);
+    }
+
+    /**
+     * @param threads number of threads, and of shards per pass
+     * @param virtualThreads run the shards on virtual threads instead of a fixed pool of platform threads
+     */
+    public ParallelLipidScorer(int threads, boolean virtualThreads) {
+        this(threads, virtualThreads, RuleUnitPool.scoring());
+    }
+
+    /**
+     * @param threads number of threads, and of shards per pass
+     * @param virtualThreads run the shards on virtual threads instead of a fixed pool of platform threads
+     * @param metrics metrics the firings are recorded into, with a pool of its own
+     */
+    public ParallelLipidScorer(int threads, boolean virtualThreads, RuleMetrics metrics) {
+        this(threads, virtualThreads, RuleUnitPool.forScoring(metrics));
+    }
+
+    /**
+     * @param threads number of threads, and of shards per pass
+     * @param virtualThreads run the shards on virtual threads instead of a fixed pool of platform threads
+     * @param pool pool the shards borrow their instances from
+     */
+    public ParallelLipidScorer(int threads, boolean virtualThreads, RuleUnitPool<LipidScoreUnit> pool) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.threads = threads;
+        this.virtualThreads = virtualThreads;
+        this.pool = pool;
+    }
+
+    @Override
+    public void score(Collection<Annotation> annotations) {
+        try (ExecutorService executor = virtualThreads
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(threads)) {
+            // the type of the join keys, -1 for annotations without lipid or lipid type
+            fireShards(executor, shard(annotations, a -> a.getTypeDoubleBondsKey() >> 16), WITHIN_TYPE);
+            fireShards(executor, shard(annotations, Annotation::getCarbonDoubleBondsKey), ACROSS_TYPES);
+        }
+    }
+
+    /**
+     * Groups the annotations by key and packs the groups, in key order, into at most {@link #threads} shards, each
+     * group into the shard with the fewest annotations so far.
+     */
+    private List<List<Annotation>> shard(Collection<Annotation> annotations, ToIntFunction<Annotation> key) {
+        Map<Integer, List<Annotation>> groups = new TreeMap<>();
+        for (Annotation annotation : annotations) {
+            groups.computeIfAbsent(key.applyAsInt(annotation), k -> new ArrayList<>()).add(annotation);
+        }
+        List<List<Annotation>> shards = new ArrayList<>();
+        for (int i = 0; i < Math.min(threads, groups.size()); i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (List<Annotation> group : groups.values()) {
+            List<Annotation> smallest = shards.get(0);
+            for (List<Annotation> shard : shards) {
+                if (shard.size() < smallest.size()) smallest = shard;
+            }
+            smallest.addAll(group);
+        }
+        return shards;
+    }
+
+    private void fireShards(ExecutorService executor, List<List<Annotation>> shards, AgendaFilter rules) {
+        List<Future<Integer>> firings = new ArrayList<>(shards.size());
+        for (List<Annotation> shard : shards) {
+            firings.add(executor.submit(() -> fire(shard, rules)));
+        }
+        try {
+            for (Future<Integer> firing : firings) {
+                firing.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            firings.forEach(firing -> firing.cancel(true));
+            throw new IllegalStateException("Interrupted while scoring the annotations", e);
+        } catch (ExecutionException e) {
+            firings.forEach(firing -> firing.cancel(true));
+            throw new IllegalStateException("Scoring of a shard failed", e.getCause());
+        }
+    }
+
+    private int fire(List<Annotation> shard, AgendaFilter rules) {
+        try (RuleUnitPool<LipidScoreUnit>.Lease lease = pool.borrow()) {
+            lease.addAll(shard);
+            return lease.fire(rules);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package lipid;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable group of peaks sorted by mz, stored as two parallel primitive arrays. Peaks can be read by index without
+ * creating any object, and mz ranges can be found by binary search. {@link #asSet()} gives a read-only
+ * {@code Set<Peak>} view for the callers that still work with {@link Peak} objects.
+ */
+public final class PeakArray {
+
+    public static final PeakArray EMPTY = new PeakArray(new double[0], new double[0]);
+
+    private final double[] mzs;
+    private final double[] intensities;
+    private Set<Peak> setView;
+
+    private PeakArray(double[] mzs, double[] intensities) {
+        this.mzs = mzs;
+        this.intensities = intensities;
+    }
+
+    /**
+     * @param peaks peaks in any order. Peaks with the same mz are kept once, the first one found wins (as in a
+     *              TreeSet ordered by mz).
+     */
+    public static PeakArray of(Collection<Peak> peaks) {
+        if (peaks.isEmpty()) {
+            return EMPTY;
+        }
+        Peak[] sorted = peaks.toArray(new Peak[0]);
+        // stable sort, so the first of several peaks with the same mz stays first
+        Arrays.sort(sorted, Comparator.comparingDouble(Peak::getMz));
+        double[] mzs = new double[sorted.length];
+        double[] intensities = new double[sorted.length];
+        int size = 0;
+        for (Peak peak : sorted) {
+            if (size > 0 && Double.compare(mzs[size - 1], peak.getMz()) == 0) continue;
+            mzs[size] = peak.getMz();
+            intensities[size] = peak.getIntensity();
+            size++;
+        }
+        return size == sorted.length ? new PeakArray(mzs, intensities)
+                : new PeakArray(Arrays.copyOf(mzs, size), Arrays.copyOf(intensities, size));
+    }
+
+    /**
+     * @param mzs mz of the peaks, in any order. Repeated mzs are kept once, the first one wins.
+     * @param intensities intensity of each peak
+     */
+    public static PeakArray of(double[] mzs, double[] intensities) {
+        return of(mzs, intensities, mzs.length);
+    }
+
+    /**
+     * Same as {@link #of(double[], double[])} with only the first length values of the arrays, which are copied.
+     */
+    public static PeakArray of(double[] mzs, double[] intensities, int length) {
+        if (mzs.length < length || intensities.length < length) {
+            throw new IllegalArgumentException("mz and intensity arrays must have at least " + length + " values");
+        }
+        if (length == 0) {
+            return EMPTY;
+        }
+        int[] order = new int[length];
+        for (int i = 0; i < length; i++) order[i] = i;
+        IndexSort.sort(order, (a, b) -> Double.compare(mzs[a], mzs[b]));
+        double[] sortedMzs = new double[length];
+        double[] sortedIntensities = new double[length];
+        int size = 0;
+        for (int index : order) {
+            if (size > 0 && Double.compare(sortedMzs[size - 1], mzs[index]) == 0) continue;
+            sortedMzs[size] = mzs[index];
+            sortedIntensities[size] = intensities[index];
+            size++;
+        }
+        return size == length ? new PeakArray(sortedMzs, sortedIntensities)
+                : new PeakArray(Arrays.copyOf(sortedMzs, size), Arrays.copyOf(sortedIntensities, size));
+    }
+
+    /**
+     * Wraps arrays already sorted by mz without repeated mzs, which must not be changed afterwards
+     */
+    static PeakArray ofSorted(double[] mzs, double[] intensities) {
+        return mzs.length == 0 ? EMPTY : new PeakArray(mzs, intensities);
+    }
+
+    public int size() {
+        return mzs.length;
+    }
+
+    public boolean isEmpty() {
+        return mzs.length == 0;
+    }
+
+    public double getMz(int index) {
+        return mzs[index];
+    }
+
+    public double getIntensity(int index) {
+        return intensities[index];
+    }
+
+    /**
+     * @return a new {@link Peak} with the values at the index
+     */
+    public Peak get(int index) {
+        return new Peak(mzs[index], intensities[index]);
+    }
+
+    /**
+     * @return the index of the peak with exactly that mz, or (-(insertion point) - 1) if there is none
+     */
+    public int indexOf(double mz) {
+        return Arrays.binarySearch(mzs, mz);
+    }
+
+    /**
+     * @return the index of the first peak with mz >= the given mz, {@link #size()} if there is none
+     */
+    public int lowerBound(double mz) {
+        int low = 0;
+        int high = mzs.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mzs[middle] < mz) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first peak with mz > the given mz, {@link #size()} if there is none
+     */
+    public int upperBound(double mz) {
+        int low = 0;
+        int high = mzs.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mzs[middle] <= mz) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return number of peaks with minMz <= mz <= maxMz. They are the ones from {@link #lowerBound(double)} of minMz.
+     */
+    public int countInRange(double minMz, double maxMz) {
+        return Math.max(0, upperBound(maxMz) - lowerBound(minMz));
+    }
+
+    /**
+     * @return the index of the most intense peak, -1 if the array is empty
+     */
+    public int mostIntense() {
+        int best = -1;
+        for (int i = 0; i < intensities.length; i++) {
+            if (best < 0 || intensities[i] > intensities[best]) best = i;
+        }
+        return best;
+    }
+
+    /**
+     * Internal mz column, only for read-only use inside the package.
+     */
+    double[] mzArray() {
+        return mzs;
+    }
+
+    /**
+     * @return a read-only view of the peaks ordered by mz. Peaks are created while iterating.
+     */
+    public Set<Peak> asSet() {
+        Set<Peak> view = setView;
+        if (view == null) {
+            view = new PeakSetView();
+            setView = view;
+        }
+        return view;
+    }
+
+    @Override
+    public String toString() {
+        return asSet().toString();
+    }
+
+    private final class PeakSetView extends AbstractSet<Peak> {
+
+        @Override
+        public Iterator<Peak> iterator() {
+            return new Iterator<>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < mzs.length;
+                }
+
+                @Override
+                public Peak next() {
+                    if (next >= mzs.length) throw new NoSuchElementException();
+                    return get(next++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return mzs.length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            // peaks are equal when their mz is equal
+            return o instanceof Peak && indexOf(((Peak) o).getMz()) >= 0;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package lipid;
+
+import java.util.Arrays;
+
+/**
+ * Groups of co-eluting features built by {@link CoElutionGrouper}. The members of all the groups are stored in one
+ * array, group after group, and each group is a range of it. {@link #peaksOfFeature(int)} gives the grouped signals to
+ * pass to the {@link Annotation} of a feature.
+ */
+public final class PeakGroups {
+
+    private final double[] mzs;
+    private final double[] intensities;
+    private final int[] groupOf;
+    private final int[] starts;
+    private final int[] members;
+
+    private PeakGroups(double[] mzs, double[] intensities, int[] groupOf, int[] starts, int[] members) {
+        this.mzs = mzs;
+        this.intensities = intensities;
+        this.groupOf = groupOf;
+        this.starts = starts;
+        this.members = members;
+    }
+
+    /**
+     * @param byRt features in RT order
+     * @param seedOf position in byRt of the seed of the group of each position
+     */
+    static PeakGroups of(double[] mzs, double[] intensities, int[] byRt, int[] seedOf) {
+        int n = byRt.length;
+        // group ids in RT order of the first member
+        int[] groupOfSeed = new int[n];
+        Arrays.fill(groupOfSeed, -1);
+        int[] groupOf = new int[n];
+        int groups = 0;
+        int[] starts = new int[n + 1];
+        for (int p = 0; p < n; p++) {
+            int seed = seedOf[p];
+            if (groupOfSeed[seed] < 0) groupOfSeed[seed] = groups++;
+            groupOf[byRt[p]] = groupOfSeed[seed];
+            starts[groupOfSeed[seed] + 1]++;
+        }
+        for (int g = 0; g < groups; g++) starts[g + 1] += starts[g];
+        int[] members = new int[n];
+        int[] next = Arrays.copyOf(starts, groups);
+        for (int p = 0; p < n; p++) {
+            int feature = byRt[p];
+            members[next[groupOf[feature]]++] = feature;
+        }
+        return new PeakGroups(mzs, intensities, groupOf, Arrays.copyOf(starts, groups + 1), members);
+    }
+
+    public int groupCount() {
+        return starts.length - 1;
+    }
+
+    public int featureCount() {
+        return groupOf.length;
+    }
+
+    public int groupOf(int feature) {
+        return groupOf[feature];
+    }
+
+    public int groupSize(int group) {
+        return starts[group + 1] - starts[group];
+    }
+
+    /**
+     * @return indexes of the features of the group, in RT order
+     */
+    public int[] members(int group) {
+        return Arrays.copyOfRange(members, starts[group], starts[group + 1]);
+    }
+
+    /**
+     * @return peaks of the features of the group
+     */
+    public PeakArray peaks(int group) {
+        int from = starts[group];
+        int size = starts[group + 1] - from;
+        double[] groupMzs = new double[size];
+        double[] groupIntensities = new double[size];
+        for (int k = 0; k < size; k++) {
+            groupMzs[k] = mzs[members[from + k]];
+            groupIntensities[k] = intensities[members[from + k]];
+        }
+        return PeakArray.of(groupMzs, groupIntensities);
+    }
+
+    /**
+     * @return peaks of the group of the feature, the grouped signals of its annotation
+     */
+    public PeakArray peaksOfFeature(int feature) {
+        return peaks(groupOf[feature]);
+    }
+}
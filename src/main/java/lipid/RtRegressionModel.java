@@ -0,0 +1,243 @@
+package lipid;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Linear model of the retention time of each {@link LipidType}: rt = a + b * carbons + c * double bonds, fitted by
+ * weighted least squares from streaming sums. {@link #add(Annotation)} only adds the annotation to ten sums of its
+ * class, so fitting N annotations is O(N) and the model can be refitted with {@link #fit()} at any time as more
+ * annotations arrive, without keeping them.
+ *
+ * The fit is robust to wrong annotations: once the model has been fitted, new annotations are added with a Tukey
+ * bisquare weight, (1 - (z / k)^2)^2 for a residual of z standard deviations and 0 beyond {@link #BISQUARE_K}, so an
+ * annotation far from the line of its class does not move it. The standard deviation of each class comes from the
+ * weighted residual sum of squares, which the same sums give.
+ *
+ * A class needs more annotations than coefficients to be fitted. With too few annotations, or when all of them have
+ * the same carbons or double bonds, the coefficients that cannot be estimated are left out (fixed at 0); a class with
+ * fewer than two annotations has no model.
+ *
+ * Not thread safe.
+ */
+public class RtRegressionModel {
+
+    public static final double BISQUARE_K = 4.685;
+
+    private static final LipidType[] TYPES = LipidType.values();
+    // sums of each class: w, w*c, w*d, w*rt, w*c*c, w*d*d, w*c*d, w*c*rt, w*d*rt, w*rt*rt
+    private static final int W = 0, C = 1, D = 2, Y = 3, CC = 4, DD = 5, CD = 6, CY = 7, DY = 8, YY = 9, SUMS = 10;
+    // smallest standard deviation, so that a class of annotations exactly on a line does not give infinite z-scores
+    private static final double MIN_SIGMA = 1e-9;
+
+    private final double[][] sums = new double[TYPES.length][SUMS];
+    private final long[] counts = new long[TYPES.length];
+    // a, b, c and the standard deviation of each class, NaN while the class has no model
+    private final double[][] coefficients = new double[TYPES.length][];
+    private final double[] sigmas = new double[TYPES.length];
+
+    public RtRegressionModel() {
+        for (int t = 0; t < TYPES.length; t++) {
+            coefficients[t] = new double[]{Double.NaN, Double.NaN, Double.NaN};
+            sigmas[t] = Double.NaN;
+        }
+    }
+
+    /**
+     * Adds the annotation to the sums of its class, with its bisquare weight if the class already has a model.
+     * Annotations without a finite RT or without lipid type are ignored. The model does not change until the next
+     * {@link #fit()}.
+     */
+    public void add(Annotation annotation) {
+        double rt = annotation.getRtMin();
+        Lipid lipid = annotation.getLipid();
+        if (!Double.isFinite(rt) || lipid == null || lipid.getLipidType() == null) return;
+        add(lipid.getLipidType(), lipid.getCarbonCount(), lipid.getDoubleBondsCount(), rt, weight(annotation));
+    }
+
+    public void addAll(Collection<Annotation> annotations) {
+        for (Annotation annotation : annotations) add(annotation);
+    }
+
+    private void add(LipidType type, double carbons, double doubleBonds, double rt, double weight) {
+        double[] s = sums[type.ordinal()];
+        s[W] += weight;
+        s[C] += weight * carbons;
+        s[D] += weight * doubleBonds;
+        s[Y] += weight * rt;
+        s[CC] += weight * carbons * carbons;
+        s[DD] += weight * doubleBonds * doubleBonds;
+        s[CD] += weight * carbons * doubleBonds;
+        s[CY] += weight * carbons * rt;
+        s[DY] += weight * doubleBonds * rt;
+        s[YY] += weight * rt * rt;
+        counts[type.ordinal()]++;
+    }
+
+    /**
+     * Forgets the sums, keeping the fitted models: the annotations added next are weighted against them. Adding the
+     * same annotations again after a reset is one step of iteratively reweighted least squares.
+     */
+    public void reset() {
+        for (int t = 0; t < TYPES.length; t++) {
+            Arrays.fill(sums[t], 0);
+            counts[t] = 0;
+        }
+    }
+
+    /**
+     * Solves the models of every class from the sums of the annotations added so far
+     */
+    public void fit() {
+        for (int t = 0; t < TYPES.length; t++) {
+            fit(t);
+        }
+    }
+
+    private void fit(int type) {
+        double[] s = sums[type];
+        long n = counts[type];
+        // try the full model first, then without double bonds, without carbons and the mean RT alone
+        int[][] models = {{C, D}, {C}, {D}, {}};
+        for (int[] model : models) {
+            int parameters = model.length + 1;
+            if (n <= parameters || s[W] <= 0) continue;
+            double[] solution = solve(s, model);
+            if (solution == null) continue;
+            double a = solution[0];
+            double b = 0;
+            double c = 0;
+            for (int i = 0; i < model.length; i++) {
+                if (model[i] == C) b = solution[i + 1];
+                else c = solution[i + 1];
+            }
+            // weighted residual sum of squares: sum w (rt - a - b c - c d)^2, expanded over the sums
+            double rss = s[YY] + a * a * s[W] + b * b * s[CC] + c * c * s[DD]
+                    - 2 * a * s[Y] - 2 * b * s[CY] - 2 * c * s[DY]
+                    + 2 * a * b * s[C] + 2 * a * c * s[D] + 2 * b * c * s[CD];
+            // weighted mean square, corrected for the degrees of freedom of the fit
+            double variance = Math.max(0, rss) / s[W] * n / (n - parameters);
+            coefficients[type][0] = a;
+            coefficients[type][1] = b;
+            coefficients[type][2] = c;
+            sigmas[type] = Math.max(Math.sqrt(variance), MIN_SIGMA);
+            return;
+        }
+    }
+
+    /**
+     * Solves the normal equations of the intercept and the given terms by Gaussian elimination
+     *
+     * @return intercept and coefficients of the terms, null if the system is singular
+     */
+    private static double[] solve(double[] s, int[] terms) {
+        int size = terms.length + 1;
+        // columns of the design: 1 and the terms, as indexes into the sums (W stands for the constant 1)
+        int[] columns = new int[size];
+        columns[0] = W;
+        System.arraycopy(terms, 0, columns, 1, terms.length);
+        double[][] m = new double[size][size + 1];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                m[i][j] = s[product(columns[i], columns[j])];
+            }
+            m[i][size] = s[product(columns[i], Y)];
+        }
+        for (int pivot = 0; pivot < size; pivot++) {
+            int best = pivot;
+            for (int row = pivot + 1; row < size; row++) {
+                if (Math.abs(m[row][pivot]) > Math.abs(m[best][pivot])) best = row;
+            }
+            double[] swap = m[pivot];
+            m[pivot] = m[best];
+            m[best] = swap;
+            // relative to the diagonal of the weights, so that a constant column is detected as singular
+            if (Math.abs(m[pivot][pivot]) <= 1e-9 * Math.max(1, s[W])) return null;
+            for (int row = 0; row < size; row++) {
+                if (row == pivot) continue;
+                double factor = m[row][pivot] / m[pivot][pivot];
+                for (int col = pivot; col <= size; col++) {
+                    m[row][col] -= factor * m[pivot][col];
+                }
+            }
+        }
+        double[] solution = new double[size];
+        for (int i = 0; i < size; i++) {
+            solution[i] = m[i][size] / m[i][i];
+        }
+        return solution;
+    }
+
+    /**
+     * @return the index of the sum of the product of two columns, W standing for the constant 1
+     */
+    private static int product(int a, int b) {
+        if (a == W) return b;
+        if (b == W) return a;
+        if (a == b) return a == C ? CC : a == D ? DD : YY;
+        if ((a == C && b == D) || (a == D && b == C)) return CD;
+        if ((a == C && b == Y) || (a == Y && b == C)) return CY;
+        return DY;
+    }
+
+    /**
+     * @return the RT predicted for a lipid, NaN if its class has no model
+     */
+    public double predict(LipidType type, int carbons, int doubleBonds) {
+        double[] k = coefficients[type.ordinal()];
+        return k[0] + k[1] * carbons + k[2] * doubleBonds;
+    }
+
+    /**
+     * @return observed minus predicted RT, NaN if the class has no model, the annotation has no lipid type or the RT
+     * is not finite
+     */
+    public double residual(Annotation annotation) {
+        Lipid lipid = annotation.getLipid();
+        if (lipid == null || lipid.getLipidType() == null) return Double.NaN;
+        return annotation.getRtMin() - predict(lipid.getLipidType(), lipid.getCarbonCount(),
+                lipid.getDoubleBondsCount());
+    }
+
+    /**
+     * @return the residual in standard deviations of its class, NaN if the class has no model or the annotation has
+     * no lipid type
+     */
+    public double zScore(Annotation annotation) {
+        double residual = residual(annotation);
+        if (Double.isNaN(residual)) return Double.NaN;
+        return residual / sigmas[annotation.getLipid().getLipidType().ordinal()];
+    }
+
+    private double weight(Annotation annotation) {
+        double z = zScore(annotation);
+        if (Double.isNaN(z)) return 1;
+        double u = z / BISQUARE_K;
+        return u * u >= 1 ? 0 : (1 - u * u) * (1 - u * u);
+    }
+
+    /**
+     * @return intercept, carbon count and double bonds coefficients of the class, NaN if the class has no model
+     */
+    public double[] getCoefficients(LipidType type) {
+        return coefficients[type.ordinal()].clone();
+    }
+
+    /**
+     * @return standard deviation of the residuals of the class, NaN if the class has no model
+     */
+    public double getSigma(LipidType type) {
+        return sigmas[type.ordinal()];
+    }
+
+    /**
+     * @return number of annotations of the class added since the last {@link #reset()}
+     */
+    public long getCount(LipidType type) {
+        return counts[type.ordinal()];
+    }
+
+    public boolean isFitted(LipidType type) {
+        return !Double.isNaN(sigmas[type.ordinal()]);
+    }
+}
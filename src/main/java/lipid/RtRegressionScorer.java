@@ -0,0 +1,78 @@
+package lipid;
+
+import java.util.Collection;
+
+/**
+ * Scores each annotation by how far its RT is from the {@link RtRegressionModel} of its class, instead of comparing
+ * pairs of annotations: O(N) and the size of the error counts, not only its sign. The model is fitted with one
+ * unweighted pass and {@link #DEFAULT_ITERATIONS} robust passes over the annotations, then the z-score of each
+ * annotation is set as {@link Annotation#getRtZScore()}. It counts as one score applied worth
+ * {@link Annotation#getRtScore()}, 2 exp(-z^2 / 2) - 1, so on its own {@link Annotation#getNormalizedScore()} is 1 on
+ * the line of its class, about 0.2 at one standard deviation and -1 far from it. Scoring again replaces the z-score
+ * instead of adding to it. Annotations whose class has no model, or without RT, are not scored, and lose the z-score
+ * of a previous call.
+ *
+ * With a model of its own the scorer keeps fitting it across calls, so annotations that arrive later are scored
+ * against a model refitted with all the annotations seen so far; earlier scores are not revised.
+ */
+public class RtRegressionScorer implements LipidScorer {
+
+    public static final int DEFAULT_ITERATIONS = 2;
+
+    private final RtRegressionModel model;
+    private final int iterations;
+
+    /**
+     * Fits a new model for each call to {@link #score(Collection)}
+     */
+    public RtRegressionScorer() {
+        this(null, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param model model refitted with the annotations of every call, null to fit a new one each time
+     * @param iterations robust passes over the annotations of a call after the first fit, when the model is not
+     *                   shared
+     */
+    public RtRegressionScorer(RtRegressionModel model, int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        this.model = model;
+        this.iterations = iterations;
+    }
+
+    @Override
+    public void score(Collection<Annotation> annotations) {
+        RtRegressionModel fitted = model == null ? fit(annotations) : refit(annotations);
+        for (Annotation annotation : annotations) {
+            annotation.setRtZScore(fitted.zScore(annotation));
+        }
+    }
+
+    private RtRegressionModel fit(Collection<Annotation> annotations) {
+        RtRegressionModel fitted = new RtRegressionModel();
+        fitted.addAll(annotations);
+        fitted.fit();
+        for (int i = 0; i < iterations; i++) {
+            fitted.reset();
+            fitted.addAll(annotations);
+            fitted.fit();
+        }
+        return fitted;
+    }
+
+    /**
+     * Adds the annotations to the shared model, weighted against its current fit, and refits it. The annotations of
+     * the previous calls are not reweighted: their sums are kept as they were.
+     */
+    private RtRegressionModel refit(Collection<Annotation> annotations) {
+        model.addAll(annotations);
+        model.fit();
+        return model;
+    }
+
+    public RtRegressionModel getModel() {
+        return model;
+    }
+}
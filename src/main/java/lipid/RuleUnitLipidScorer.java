@@ -0,0 +1,40 @@
+package lipid;
+
+import metrics.RuleMetrics;
+
+import java.util.Collection;
+
+/**
+ * Scores the annotations firing the rules of {@link LipidScoreUnit}. The adducts are identified as well. The firings
+ * are recorded in {@link RuleMetrics}. Instances are borrowed from a {@link RuleUnitPool}.
+ */
+public class RuleUnitLipidScorer implements LipidScorer {
+
+    private final RuleUnitPool<LipidScoreUnit> pool;
+
+    /**
+     * Uses the pool of the whole JVM, see {@link RuleUnitPool#scoring()}
+     */
+    public RuleUnitLipidScorer() {
+        this(RuleUnitPool.scoring());
+    }
+
+    /**
+     * Uses a pool of its own recording into the metrics
+     */
+    public RuleUnitLipidScorer(RuleMetrics metrics) {
+        this(RuleUnitPool.forScoring(metrics));
+    }
+
+    public RuleUnitLipidScorer(RuleUnitPool<LipidScoreUnit> pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void score(Collection<Annotation> annotations) {
+        try (RuleUnitPool<LipidScoreUnit>.Lease lease = pool.borrow()) {
+            lease.addAll(annotations);
+            lease.fire();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package lipid;
+
+import metrics.RuleMetrics;
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.DataSource;
+import org.drools.ruleunits.api.DataStore;
+import org.drools.ruleunits.api.RuleUnitData;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.kie.api.runtime.rule.AgendaFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Pool of rule unit instances. {@link #borrow()} hands out an instance whose data store is empty: an idle one, or a
+ * new one if there is none. Closing the {@link Lease} retracts the annotations added through the lease, and those
+ * added by the consequences of the rules, and returns the instance to the pool. The rule base is built once, by the
+ * first instance created in the JVM, and {@link #prewarm(int)} builds it and the first instances before the first
+ * sample.
+ *
+ * Retracting the annotations of a sample costs more than creating an instance (about 5 us) once the sample has more
+ * than a few annotations, so the instance of a lease with more than maxReusedSize annotations is closed instead. An
+ * instance is also closed once it has retracted maxRetracted annotations, which bounds what the engine may keep of the
+ * facts retracted from it.
+ *
+ * The pool is thread safe, a lease is used by one thread at a time. Every instance records into the metrics of the
+ * pool.
+ */
+public class RuleUnitPool<T extends RuleUnitData> implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_MAX_REUSED_SIZE = 6;
+    public static final int DEFAULT_MAX_RETRACTED = 10_000;
+
+    private static volatile RuleUnitPool<LipidScoreUnit> scoring;
+    private static volatile RuleUnitPool<AnnotationUnit> adducts;
+
+    private final Supplier<T> units;
+    private final Function<T, DataStore<Annotation>> annotations;
+    private final RuleMetrics metrics;
+    private final int maxReusedSize;
+    private final long maxRetracted;
+    private final BlockingQueue<Lease> idle;
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param units creates the data of a new instance
+     * @param annotations data store of the annotations of the unit
+     * @param metrics metrics of every instance of the pool
+     * @param maxIdle maximum number of instances kept in the pool
+     * @param maxReusedSize number of annotations of a lease above which its instance is closed rather than reused
+     * @param maxRetracted number of annotations an instance retracts before it is closed
+     */
+    public RuleUnitPool(Supplier<T> units, Function<T, DataStore<Annotation>> annotations, RuleMetrics metrics,
+                        int maxIdle, int maxReusedSize, long maxRetracted) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must be positive: " + maxIdle);
+        }
+        if (maxReusedSize < 0) {
+            throw new IllegalArgumentException("maxReusedSize must be positive: " + maxReusedSize);
+        }
+        this.units = units;
+        this.annotations = annotations;
+        this.metrics = metrics;
+        this.maxReusedSize = maxReusedSize;
+        this.maxRetracted = maxRetracted;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, maxIdle));
+    }
+
+    public static RuleUnitPool<LipidScoreUnit> forScoring(RuleMetrics metrics) {
+        return new RuleUnitPool<>(LipidScoreUnit::new, LipidScoreUnit::getAnnotations, metrics, DEFAULT_MAX_IDLE,
+                DEFAULT_MAX_REUSED_SIZE, DEFAULT_MAX_RETRACTED);
+    }
+
+    public static RuleUnitPool<AnnotationUnit> forAdducts(RuleMetrics metrics) {
+        return new RuleUnitPool<>(AnnotationUnit::new, AnnotationUnit::getAnnotations, metrics, DEFAULT_MAX_IDLE,
+                DEFAULT_MAX_REUSED_SIZE, DEFAULT_MAX_RETRACTED);
+    }
+
+    /**
+     * @param adductCache cache shared by every instance of the pool
+     */
+    public static RuleUnitPool<AnnotationUnit> forAdducts(RuleMetrics metrics, AdductCache adductCache) {
+        return new RuleUnitPool<>(() -> new AnnotationUnit(DataSource.createStore(), adductCache),
+                AnnotationUnit::getAnnotations, metrics, DEFAULT_MAX_IDLE, DEFAULT_MAX_REUSED_SIZE,
+                DEFAULT_MAX_RETRACTED);
+    }
+
+    /**
+     * @return the pool of {@link LipidScoreUnit} shared by the whole JVM, recording into
+     * {@code RuleMetrics.ifEnabled(LipidScoreUnit.class)}
+     */
+    public static RuleUnitPool<LipidScoreUnit> scoring() {
+        RuleUnitPool<LipidScoreUnit> pool = scoring;
+        if (pool == null) {
+            synchronized (RuleUnitPool.class) {
+                if (scoring == null) scoring = forScoring(RuleMetrics.ifEnabled(LipidScoreUnit.class));
+                pool = scoring;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the pool of {@link AnnotationUnit} shared by the whole JVM, recording into
+     * {@code RuleMetrics.ifEnabled(AnnotationUnit.class)}
+     */
+    public static RuleUnitPool<AnnotationUnit> adducts() {
+        RuleUnitPool<AnnotationUnit> pool = adducts;
+        if (pool == null) {
+            synchronized (RuleUnitPool.class) {
+                if (adducts == null) adducts = forAdducts(RuleMetrics.ifEnabled(AnnotationUnit.class));
+                pool = adducts;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Creates instances until the pool holds the given number, e.g. at startup so the first samples do not pay for
+     * building the rule base
+     */
+    public void prewarm(int instances) {
+        while (idle.size() < instances) {
+            Lease lease = newLease();
+            if (!idle.offer(lease)) {
+                lease.instance.close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return an idle instance or a new one if there is none
+     */
+    public Lease borrow() {
+        if (closed) {
+            throw new IllegalStateException("The pool is closed");
+        }
+        borrowed.incrementAndGet();
+        Lease lease = idle.poll();
+        if (lease == null) {
+            lease = newLease();
+        }
+        lease.released = false;
+        return lease;
+    }
+
+    private Lease newLease() {
+        T unit = units.get();
+        Lease lease = new Lease(unit, RuleUnitProvider.get().createRuleUnitInstance(unit, metrics.newRuleConfig()));
+        created.incrementAndGet();
+        return lease;
+    }
+
+    public RuleMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return number of instances created since the pool was built
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return number of instances handed out since the pool was built
+     */
+    public long getBorrowed() {
+        return borrowed.get();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Closes the idle instances. The leases still out are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Lease lease;
+        while ((lease = idle.poll()) != null) {
+            lease.instance.close();
+        }
+    }
+
+    private boolean reusable(Lease lease) {
+        int size = lease.handles.size();
+        return !closed && size <= maxReusedSize && lease.retracted + size <= maxRetracted
+                && idle.remainingCapacity() > 0;
+    }
+
+    /**
+     * An instance borrowed from the pool. Closing it retracts its annotations and returns it.
+     */
+    public final class Lease implements AutoCloseable {
+        private final T unit;
+        private final RuleUnitInstance<T> instance;
+        private final DataStore<Annotation> store;
+        private final List<DataHandle> handles = new ArrayList<>();
+        private boolean released;
+        private long retracted;
+
+        private Lease(T unit, RuleUnitInstance<T> instance) {
+            this.unit = unit;
+            this.instance = instance;
+            this.store = annotations.apply(unit);
+        }
+
+        public void add(Annotation annotation) {
+            handles.add(store.add(annotation));
+        }
+
+        public void addAll(Collection<Annotation> annotations) {
+            annotations.forEach(this::add);
+        }
+
+        /**
+         * @return number of rules fired
+         */
+        public int fire() {
+            return metrics.fire(instance);
+        }
+
+        /**
+         * @return number of rules fired among the matches accepted by the filter
+         */
+        public int fire(AgendaFilter filter) {
+            return metrics.fire(instance, filter);
+        }
+
+        public T getUnit() {
+            return unit;
+        }
+
+        public RuleUnitInstance<T> getInstance() {
+            return instance;
+        }
+
+        /**
+         * Retracts the annotations of the lease and returns the instance to the pool, or closes it if it cannot be
+         * used again
+         */
+        @Override
+        public void close() {
+            if (released) return;
+            released = true;
+            if (!reusable(this)) {
+                instance.close();
+                return;
+            }
+            try {
+                handles.forEach(store::remove);
+                retracted += handles.size();
+                handles.clear();
+                if (store instanceof Iterable) {
+                    // facts added by the consequences
+                    List<Annotation> added = new ArrayList<>();
+                    ((Iterable<?>) store).forEach(fact -> added.add((Annotation) fact));
+                    added.forEach(store::remove);
+                    retracted += added.size();
+                }
+            } catch (RuntimeException e) {
+                instance.close();
+                throw e;
+            }
+            if (retracted >= maxRetracted || !idle.offer(this)) {
+                instance.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package lipid;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Scores of an annotation, one slot per {@link ScoreRule} plus one for the scores added without a rule. Each slot is
+ * a single long with the score in the high 32 bits and the number of scores applied in the low 32 bits, so one
+ * atomic add updates both.
+ *
+ * The z-score of {@link RtRegressionScorer} has a slot of its own, which is set rather than added to. When set it
+ * counts as one score applied worth {@link #rtScore(double)}, between -1 and 1: exactly in
+ * {@link #normalizedScore()}, rounded to an integer in {@link #totalScore()}.
+ *
+ * Like {@link java.util.concurrent.atomic.LongAdder}, an uncontended ledger is a single array of slots. The first time
+ * an add loses a race the ledger grows stripes: one cache line of slots per stripe, picked by thread, so threads
+ * scoring the same annotation add to different lines. Reads fold the base slots and the stripes.
+ *
+ * Totals add up the slots. They are exact once the scoring has finished; while threads are still scoring they may
+ * mix slots read before and after an update.
+ */
+final class ScoreLedger {
+
+    private static final ScoreRule[] RULES = ScoreRule.values();
+    static final int UNATTRIBUTED = RULES.length;
+    private static final int SLOTS = RULES.length + 1;
+    private static final long COUNT_MASK = 0xFFFF_FFFFL;
+
+    // 8 longs (a 64 byte line) per stripe and a power of two stripes, at most one per processor
+    private static final int STRIDE = Math.max(8, Integer.highestOneBit(SLOTS - 1) << 1);
+    private static final int STRIPES =
+            Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+    private static final AtomicReferenceFieldUpdater<ScoreLedger, AtomicLongArray> STRIPED =
+            AtomicReferenceFieldUpdater.newUpdater(ScoreLedger.class, AtomicLongArray.class, "striped");
+
+    private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+    private volatile AtomicLongArray striped;
+    private volatile double rtZScore = Double.NaN;
+
+    /**
+     * @param score score added to the slot
+     * @param applied number of scores applied added to the slot
+     */
+    void add(int slot, int score, int applied) {
+        long delta = ((long) score << 32) + applied;
+        AtomicLongArray striped = this.striped;
+        if (striped == null) {
+            long current = slots.get(slot);
+            if (slots.compareAndSet(slot, current, current + delta)) return;
+            striped = stripe();
+        }
+        striped.getAndAdd(stripe(Thread.currentThread()) * STRIDE + slot, delta);
+    }
+
+    /**
+     * Grows the stripes if no thread did yet.
+     */
+    AtomicLongArray stripe() {
+        STRIPED.compareAndSet(this, null, new AtomicLongArray(STRIPES * STRIDE));
+        return striped;
+    }
+
+    private static int stripe(Thread thread) {
+        long id = thread.getId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & (STRIPES - 1);
+    }
+
+    private long slot(int slot) {
+        long value = slots.get(slot);
+        AtomicLongArray striped = this.striped;
+        if (striped != null) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) value += striped.get(stripe * STRIDE + slot);
+        }
+        return value;
+    }
+
+    int score(int slot) {
+        return (int) (slot(slot) >> 32);
+    }
+
+    int applied(int slot) {
+        return (int) (slot(slot) & COUNT_MASK);
+    }
+
+    double rtZScore() {
+        return rtZScore;
+    }
+
+    /**
+     * @param rtZScore z-score replacing the previous one, NaN to clear it
+     */
+    void setRtZScore(double rtZScore) {
+        this.rtZScore = rtZScore;
+    }
+
+    int totalScore() {
+        int total = roundedRtScore(rtZScore);
+        for (int slot = 0; slot < SLOTS; slot++) total += score(slot);
+        return total;
+    }
+
+    int totalApplied() {
+        int total = rtApplied(rtZScore);
+        for (int slot = 0; slot < SLOTS; slot++) total += applied(slot);
+        return total;
+    }
+
+    double normalizedScore() {
+        double rtZScore = this.rtZScore;
+        int score = 0;
+        int applied = rtApplied(rtZScore);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long value = slot(slot);
+            score += (int) (value >> 32);
+            applied += (int) (value & COUNT_MASK);
+        }
+        return (score + (Double.isNaN(rtZScore) ? 0 : rtScore(rtZScore))) / applied;
+    }
+
+    /**
+     * @return 2 exp(-z^2 / 2) - 1: 1 on the regression line, about 0.2 at one standard deviation and -1 far from it,
+     * NaN if the z-score is
+     */
+    static double rtScore(double rtZScore) {
+        return 2 * Math.exp(-0.5 * rtZScore * rtZScore) - 1;
+    }
+
+    /**
+     * @return the RT score rounded to -1, 0 or 1, 0 if there is none
+     */
+    static int roundedRtScore(double rtZScore) {
+        return Double.isNaN(rtZScore) ? 0 : (int) Math.round(rtScore(rtZScore));
+    }
+
+    static int rtApplied(double rtZScore) {
+        return Double.isNaN(rtZScore) ? 0 : 1;
+    }
+}
@@ -0,0 +1,34 @@
+package lipid;
+
+/**
+ * The elution order rules of lipids.drl, each with the score it adds to both annotations of a matching pair. Every
+ * rule has its own slot in the score ledger of an {@link Annotation}.
+ */
+public enum ScoreRule {
+
+    CARBON_COUNT_ORDER("Score 1 for lipid pair with increasing RT and carbon count", 1),
+    DOUBLE_BOND_ORDER("Score 1 for lipid pair with increasing RT and double bonds", 1),
+    LIPID_TYPE_ORDER("Score 1 for lipid pair with increasing RT and lipid type", 1),
+    CARBON_COUNT_MISMATCH("Score negative for lipid pair with increasing RT and carbon count", -1),
+    DOUBLE_BOND_MISMATCH("Score negative for lipid pair with increasing RT and double bonds", -1),
+    LIPID_TYPE_MISMATCH("Score negative for lipid pair with increasing RT and lipid type", -1);
+
+    private final String ruleName;
+    private final int delta;
+
+    ScoreRule(String ruleName, int delta) {
+        this.ruleName = ruleName;
+        this.delta = delta;
+    }
+
+    /**
+     * @return name of the rule in lipids.drl
+     */
+    public String getRuleName() {
+        return ruleName;
+    }
+
+    public int getDelta() {
+        return delta;
+    }
+}
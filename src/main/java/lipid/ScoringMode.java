@@ -0,0 +1,57 @@
+package lipid;
+
+/**
+ * Available engines to score the elution order of the annotations. The mode used by {@link main.Main} is read
+ * from the system property {@value #PROPERTY}.
+ */
+public enum ScoringMode {
+
+    /**
+     * Rules of lipids.drl fired by {@link LipidScoreUnit}
+     */
+    RULES {
+        @Override
+        public LipidScorer newScorer() {
+            return new RuleUnitLipidScorer();
+        }
+    },
+    /**
+     * Rules of lipids.drl fired by {@link ParallelLipidScorer}, one rule unit per shard on every processor
+     */
+    PARALLEL_RULES {
+        @Override
+        public LipidScorer newScorer() {
+            return new ParallelLipidScorer();
+        }
+    },
+    /**
+     * Same scores as the rules, counted by {@link ElutionOrderScorer} in O(N log N)
+     */
+    ELUTION_ORDER {
+        @Override
+        public LipidScorer newScorer() {
+            return new ElutionOrderScorer();
+        }
+    },
+    /**
+     * Distance of each RT to a robust per-class regression of RT on carbons and double bonds, see
+     * {@link RtRegressionScorer}. O(N), but one score applied per annotation instead of the scores of the rules.
+     */
+    RT_REGRESSION {
+        @Override
+        public LipidScorer newScorer() {
+            return new RtRegressionScorer();
+        }
+    };
+
+    public static final String PROPERTY = "lipid.scoring";
+
+    public abstract LipidScorer newScorer();
+
+    /**
+     * @return the mode named by the system property {@value #PROPERTY}, {@link #RULES} if it is not set
+     */
+    public static ScoringMode fromSystemProperty() {
+        return valueOf(System.getProperty(PROPERTY, RULES.name()).trim().toUpperCase());
+    }
+}
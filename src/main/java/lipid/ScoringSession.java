@@ -0,0 +1,205 @@
+package lipid;
+
+import metrics.RuleMetrics;
+import org.drools.ruleunits.api.DataHandle;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Long-lived {@link LipidScoreUnit} for annotations that arrive while the LC run is still going. The rule engine keeps
+ * the matches of the annotations already inserted, so each {@link #add(Annotation)} only fires the new pairs, those
+ * with the new annotation. Annotations with an RT more than rtWindow below the highest RT seen are retracted, so
+ * memory and the cost of an insert depend on the number of annotations inside the window, not on the length of the
+ * run. The instance is also replaced after recycleAfter retractions: the annotations in the window are inserted into
+ * a new one and their matches discarded, since their pairs are already scored, which bounds whatever the engine
+ * keeps of the retracted facts.
+ *
+ * Pairs are scored when their second annotation arrives, if the first one is still in the window. When annotations
+ * arrive in RT order, that means every pair with an RT difference up to rtWindow; an infinite window gives the scores
+ * of {@link RuleUnitLipidScorer} over all the annotations. The scores of retracted annotations are final.
+ *
+ * A session is not thread safe.
+ */
+public class ScoringSession implements AutoCloseable {
+
+    public static final long DEFAULT_RECYCLE_AFTER = 50_000;
+
+    private final double rtWindow;
+    private final RuleMetrics metrics;
+    private final long recycleAfter;
+    private LipidScoreUnit lipidScoreUnit;
+    private RuleUnitInstance<LipidScoreUnit> instance;
+    // live annotations, lowest RT first
+    private final PriorityQueue<Live> window = new PriorityQueue<>((a, b) -> Double.compare(a.rt, b.rt));
+    // annotations without RT: the rules never pair them, they are retracted after their adduct is identified
+    private final List<DataHandle> withoutRt = new ArrayList<>();
+    private double maxRt = Double.NEGATIVE_INFINITY;
+    private long retracted;
+    private long retractedByInstance;
+    private long recycled;
+
+    /**
+     * @param rtWindow width of the RT window, in the unit of the RTs of the annotations
+     */
+    public ScoringSession(double rtWindow) {
+        this(rtWindow, RuleMetrics.ifEnabled(LipidScoreUnit.class));
+    }
+
+    public ScoringSession(double rtWindow, RuleMetrics metrics) {
+        this(rtWindow, metrics, DEFAULT_RECYCLE_AFTER);
+    }
+
+    /**
+     * @param recycleAfter number of retractions after which the instance is replaced
+     */
+    public ScoringSession(double rtWindow, RuleMetrics metrics, long recycleAfter) {
+        if (!(rtWindow >= 0)) {
+            throw new IllegalArgumentException("rtWindow must be positive: " + rtWindow);
+        }
+        if (recycleAfter < 1) {
+            throw new IllegalArgumentException("recycleAfter must be at least 1: " + recycleAfter);
+        }
+        this.rtWindow = rtWindow;
+        this.metrics = metrics;
+        this.recycleAfter = recycleAfter;
+        this.lipidScoreUnit = new LipidScoreUnit();
+        this.instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit, metrics.newRuleConfig());
+    }
+
+    /**
+     * Inserts the annotation, retracts the ones that left the window and fires the new matches
+     *
+     * @return number of rules fired
+     */
+    public int add(Annotation annotation) {
+        insert(annotation);
+        return fire();
+    }
+
+    /**
+     * Same as adding each annotation but firing once at the end. Pairs inside the collection are scored only if
+     * both annotations are in the window after the whole collection is inserted.
+     *
+     * @return number of rules fired
+     */
+    public int addAll(Collection<Annotation> annotations) {
+        annotations.forEach(this::insert);
+        return fire();
+    }
+
+    /**
+     * Moves the window up to the RT without new annotations, e.g. when the acquisition reports its progress, and
+     * retracts the annotations that left it
+     */
+    public void advanceTo(double rt) {
+        if (rt > maxRt) {
+            maxRt = rt;
+            retractOld();
+        }
+    }
+
+    /**
+     * @return number of annotations in the window
+     */
+    public int size() {
+        return window.size();
+    }
+
+    /**
+     * @return number of annotations retracted since the session started
+     */
+    public long getRetracted() {
+        return retracted;
+    }
+
+    /**
+     * @return number of times the instance was replaced
+     */
+    public long getRecycled() {
+        return recycled;
+    }
+
+    public double getMaxRt() {
+        return maxRt;
+    }
+
+    @Override
+    public void close() {
+        instance.close();
+    }
+
+    private void insert(Annotation annotation) {
+        double rt = annotation.getRtMin();
+        if (Double.isNaN(rt)) {
+            withoutRt.add(lipidScoreUnit.getAnnotations().add(annotation));
+            return;
+        }
+        if (rt < maxRt - rtWindow) {
+            // already out of the window, it would be retracted before firing
+            return;
+        }
+        DataHandle handle = lipidScoreUnit.getAnnotations().add(annotation);
+        window.add(new Live(rt, annotation, handle));
+        advanceTo(rt);
+    }
+
+    private void retractOld() {
+        double lowest = maxRt - rtWindow;
+        while (!window.isEmpty() && window.peek().rt < lowest) {
+            lipidScoreUnit.getAnnotations().remove(window.poll().handle);
+            retracted++;
+            retractedByInstance++;
+        }
+    }
+
+    private int fire() {
+        int fired = metrics.fire(instance);
+        for (DataHandle handle : withoutRt) {
+            lipidScoreUnit.getAnnotations().remove(handle);
+            retracted++;
+            retractedByInstance++;
+        }
+        withoutRt.clear();
+        if (retractedByInstance >= recycleAfter) {
+            recycle();
+        }
+        return fired;
+    }
+
+    /**
+     * Replaces the instance by a new one holding the annotations of the window. Called after firing, so every match
+     * of the old instance has fired.
+     */
+    private void recycle() {
+        LipidScoreUnit unit = new LipidScoreUnit();
+        RuleUnitInstance<LipidScoreUnit> fresh = RuleUnitProvider.get().createRuleUnitInstance(unit,
+                metrics.newRuleConfig());
+        for (Live live : window) {
+            live.handle = unit.getAnnotations().add(live.annotation);
+        }
+        // the pairs of the window are already scored
+        fresh.fire(match -> false);
+        instance.close();
+        lipidScoreUnit = unit;
+        instance = fresh;
+        retractedByInstance = 0;
+        recycled++;
+    }
+
+    private static final class Live {
+        private final double rt;
+        private final Annotation annotation;
+        private DataHandle handle;
+
+        private Live(double rt, Annotation annotation, DataHandle handle) {
+            this.rt = rt;
+            this.annotation = annotation;
+            this.handle = handle;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package main;
+
+import ingest.AnnotationSnapshot;
+import ingest.FeatureTableReader;
+import lipid.AdductCache;
+import lipid.Annotation;
+import lipid.AnnotationUnit;
+import lipid.LipidCatalog;
+import lipid.LipidScorer;
+import lipid.RuleUnitPool;
+import lipid.ScoringMode;
+import metrics.RuleMetrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Processes the samples of a study in four stages: ingest (read the feature table of the sample), adduct (fire
+ * {@link AnnotationUnit}), score (the {@link LipidScorer} of a {@link ScoringMode}) and export (write an
+ * {@link AnnotationSnapshot} per sample). Each stage has its own worker threads and takes the samples from a bounded
+ * queue: a stage that is faster than the next one blocks when the queue is full (backpressure), so at most
+ * queueCapacity samples wait between two stages and the samples in memory do not depend on the size of the study.
+ *
+ * A sample that fails in a stage is dropped from the next stages and reported in the {@link Summary} with the stage
+ * and the error; the other samples go on. A worker that cannot be set up (its scorer cannot be created, for instance)
+ * fails every sample it takes, so the run still ends. An interrupted step stops the run instead of failing the sample.
+ * The summary gives the samples, annotations and busy time of each stage.
+ *
+ * With an {@link AdductCache}, a feature that recurs across the samples (replicate and QC injections) is only searched
+ * by the adduct stage the first time.
+ */
+public class BatchPipeline {
+
+    public static final String SNAPSHOT_EXTENSION = ".lsnp";
+
+    // marks the end of the samples in a queue, one per worker of the stage
+    private static final Sample END = new Sample(null);
+
+    private final int ingestWorkers;
+    private final int adductWorkers;
+    private final int scoreWorkers;
+    private final int exportWorkers;
+    private final int queueCapacity;
+    private final Supplier<LipidScorer> scorers;
+    private final LipidCatalog catalog;
+    private final AdductCache adductCache;
+
+    /**
+     * @param queueCapacity maximum number of samples waiting in front of each stage
+     * @param scoringMode engine of the score stage, one scorer per worker
+     * @param catalog lipids of the features, null to build them from the columns of each file
+     */
+    public BatchPipeline(int ingestWorkers, int adductWorkers, int scoreWorkers, int exportWorkers, int queueCapacity,
+                         ScoringMode scoringMode, LipidCatalog catalog) {
+        this(ingestWorkers, adductWorkers, scoreWorkers, exportWorkers, queueCapacity, scoringMode, catalog, null);
+    }
+
+    /**
+     * @param adductCache adducts of the features already identified, shared by the adduct workers across the samples,
+     *                    null to search every feature
+     */
+    public BatchPipeline(int ingestWorkers, int adductWorkers, int scoreWorkers, int exportWorkers, int queueCapacity,
+                         ScoringMode scoringMode, LipidCatalog catalog, AdductCache adductCache) {
+        this(ingestWorkers, adductWorkers, scoreWorkers, exportWorkers, queueCapacity, scoringMode::newScorer, catalog,
+                adductCache);
+    }
+
+    /**
+     * @param scorers creates the scorer of each worker of the score stage
+     */
+    BatchPipeline(int ingestWorkers, int adductWorkers, int scoreWorkers, int exportWorkers, int queueCapacity,
+                  Supplier<LipidScorer> scorers, LipidCatalog catalog, AdductCache adductCache) {
+        if (Math.min(Math.min(ingestWorkers, adductWorkers), Math.min(scoreWorkers, exportWorkers)) < 1) {
+            throw new IllegalArgumentException("Every stage needs at least one worker");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+        }
+        this.ingestWorkers = ingestWorkers;
+        this.adductWorkers = adductWorkers;
+        this.scoreWorkers = scoreWorkers;
+        this.exportWorkers = exportWorkers;
+        this.queueCapacity = queueCapacity;
+        this.scorers = scorers;
+        this.catalog = catalog;
+        this.adductCache = adductCache;
+    }
+
+    /**
+     * @return the feature tables (.csv, .tsv) of the directory, ordered by name
+     */
+    public static List<Path> sampleFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> {
+                        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                        return name.endsWith(".csv") || name.endsWith(".tsv");
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * @return the file the annotations of the sample are exported to
+     */
+    public static Path snapshotFile(Path sample, Path outputDirectory) {
+        String name = sample.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return outputDirectory.resolve((extension > 0 ? name.substring(0, extension) : name) + SNAPSHOT_EXTENSION);
+    }
+
+    /**
+     * Runs the samples through the stages and waits until every sample is exported or failed
+     *
+     * @throws InterruptedException if the calling thread is interrupted; the workers are stopped
+     */
+    public Summary run(List<Path> samples, Path outputDirectory) throws InterruptedException, IOException {
+        Files.createDirectories(outputDirectory);
+        RuleUnitPool<AnnotationUnit> adducts = adductCache == null ? RuleUnitPool.adducts()
+                : RuleUnitPool.forAdducts(RuleMetrics.ifEnabled(AnnotationUnit.class), adductCache);
+        Stage export = new Stage("export", exportWorkers, null, () -> sample -> {
+            AnnotationSnapshot.write(snapshotFile(sample.file, outputDirectory), sample.annotations);
+        });
+        Stage score = new Stage("score", scoreWorkers, export, () -> {
+            LipidScorer scorer = scorers.get();
+            return sample -> scorer.score(sample.annotations);
+        });
+        Stage adduct = new Stage("adduct", adductWorkers, score, () -> sample -> {
+            try (RuleUnitPool<AnnotationUnit>.Lease lease = adducts.borrow()) {
+                lease.addAll(sample.annotations);
+                lease.fire();
+            }
+        });
+        Stage ingest = new Stage("ingest", ingestWorkers, adduct, () -> this::read);
+        List<Stage> stages = List.of(ingest, adduct, score, export);
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        stages.forEach(stage -> stage.start(threads, start));
+        try {
+            for (Path file : samples) {
+                ingest.input.put(new Sample(file));
+            }
+            ingest.endInput();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            throw e;
+        } finally {
+            if (adductCache != null) adducts.close();
+        }
+        List<StageSummary> summaries = new ArrayList<>();
+        List<Failure> failures = new ArrayList<>();
+        for (Stage stage : stages) {
+            summaries.add(stage.summary(start));
+            failures.addAll(stage.failures);
+        }
+        return new Summary(samples.size(), (System.nanoTime() - start) / 1e9, summaries, failures);
+    }
+
+    private void read(Sample sample) throws IOException {
+        List<Annotation> annotations = new ArrayList<>();
+        try (FeatureTableReader reader = new FeatureTableReader(sample.file, FeatureTableReader.DEFAULT_BATCH_SIZE,
+                catalog)) {
+            List<Annotation> batch;
+            while (!(batch = reader.nextBatch()).isEmpty()) {
+                annotations.addAll(batch);
+            }
+        }
+        sample.annotations = annotations;
+    }
+
+    /**
+     * Work of a stage on one sample
+     */
+    @FunctionalInterface
+    private interface Step {
+        void process(Sample sample) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface StepFactory {
+        Step newStep();
+    }
+
+    private static final class Sample {
+        private final Path file;
+        private List<Annotation> annotations = Collections.emptyList();
+
+        private Sample(Path file) {
+            this.file = file;
+        }
+    }
+
+    private final class Stage {
+        private final String name;
+        private final int workers;
+        private final Stage next;
+        private final StepFactory steps;
+        private final BlockingQueue<Sample> input = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong annotations = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+        private volatile long end;
+
+        private Stage(String name, int workers, Stage next, StepFactory steps) {
+            this.name = name;
+            this.workers = workers;
+            this.next = next;
+            this.steps = steps;
+        }
+
+        private void start(List<Thread> threads, long start) {
+            running.set(workers);
+            for (int i = 0; i < workers; i++) {
+                Thread thread = new Thread(this::work, "pipeline-" + name + "-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        private void work() {
+            try {
+                Step step;
+                Throwable broken = null;
+                try {
+                    step = steps.newStep();
+                } catch (RuntimeException | Error e) {
+                    // the worker still takes its samples and fails them, so the stages around it do not wait forever
+                    step = null;
+                    broken = e;
+                }
+                Sample sample;
+                while ((sample = input.take()) != END) {
+                    if (step == null) {
+                        failures.add(new Failure(sample.file, name, broken));
+                        continue;
+                    }
+                    long begin = System.nanoTime();
+                    try {
+                        step.process(sample);
+                        processed.incrementAndGet();
+                        annotations.addAndGet(sample.annotations.size());
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            // interrupted inside the step, e.g. a file channel closed by the interrupt: the run stops
+                            throw new InterruptedException(name + " interrupted: " + e);
+                        }
+                        failures.add(new Failure(sample.file, name, e));
+                        continue;
+                    } finally {
+                        busyNanos.addAndGet(System.nanoTime() - begin);
+                    }
+                    if (next == null) {
+                        sample.annotations = null;
+                    } else {
+                        next.input.put(sample);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // the last worker of the stage tells the workers of the next one that there are no more samples
+                if (running.decrementAndGet() == 0) {
+                    end = System.nanoTime();
+                    if (next != null && !Thread.currentThread().isInterrupted()) {
+                        next.endInput();
+                    }
+                }
+            }
+        }
+
+        private void endInput() {
+            try {
+                for (int i = 0; i < workers; i++) {
+                    input.put(END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private StageSummary summary(long start) {
+            return new StageSummary(name, workers, processed.get(), failures.size(), annotations.get(),
+                    busyNanos.get() / 1e9, (end - start) / 1e9);
+        }
+    }
+
+    /**
+     * A sample that could not be processed
+     */
+    public static final class Failure {
+        private final Path sample;
+        private final String stage;
+        private final Throwable error;
+
+        Failure(Path sample, String stage, Throwable error) {
+            this.sample = sample;
+            this.stage = stage;
+            this.error = error;
+        }
+
+        public Path getSample() {
+            return sample;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return sample.getFileName() + " failed in " + stage + ": " + error;
+        }
+    }
+
+    /**
+     * Work done by one stage
+     */
+    public static final class StageSummary {
+        private final String stage;
+        private final int workers;
+        private final long samples;
+        private final long failures;
+        private final long annotations;
+        private final double busySeconds;
+        private final double wallSeconds;
+
+        StageSummary(String stage, int workers, long samples, long failures, long annotations, double busySeconds,
+                     double wallSeconds) {
+            this.stage = stage;
+            this.workers = workers;
+            this.samples = samples;
+            this.failures = failures;
+            this.annotations = annotations;
+            this.busySeconds = busySeconds;
+            this.wallSeconds = wallSeconds;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        /**
+         * @return samples processed without error
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getAnnotations() {
+            return annotations;
+        }
+
+        /**
+         * @return time spent processing samples, added up over the workers
+         */
+        public double getBusySeconds() {
+            return busySeconds;
+        }
+
+        /**
+         * @return time from the start of the pipeline to the end of the last worker of the stage
+         */
+        public double getWallSeconds() {
+            return wallSeconds;
+        }
+
+        /**
+         * @return annotations per second of work of one worker
+         */
+        public double getAnnotationsPerBusySecond() {
+            return busySeconds == 0 ? 0 : annotations / busySeconds;
+        }
+
+        /**
+         * @return fraction of the time the workers of the stage were busy, near 1 for the bottleneck
+         */
+        public double getUtilization() {
+            return wallSeconds == 0 ? 0 : busySeconds / (wallSeconds * workers);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-7s workers=%d samples=%d failed=%d annotations=%d busy=%.2fs "
+                            + "annotations/s/worker=%.0f utilization=%.0f%%", stage, workers, samples, failures,
+                    annotations, busySeconds, getAnnotationsPerBusySecond(), 100 * getUtilization());
+        }
+    }
+
+    /**
+     * Result of {@link #run(List, Path)}
+     */
+    public static final class Summary {
+        private final int samples;
+        private final double wallSeconds;
+        private final List<StageSummary> stages;
+        private final List<Failure> failures;
+
+        Summary(int samples, double wallSeconds, List<StageSummary> stages, List<Failure> failures) {
+            this.samples = samples;
+            this.wallSeconds = wallSeconds;
+            this.stages = Collections.unmodifiableList(stages);
+            this.failures = Collections.unmodifiableList(failures);
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return samples that went through every stage
+         */
+        public long getExported() {
+            return stages.get(stages.size() - 1).getSamples();
+        }
+
+        public double getWallSeconds() {
+            return wallSeconds;
+        }
+
+        /**
+         * @return ingest, adduct, score and export, in that order
+         */
+        public List<StageSummary> getStages() {
+            return stages;
+        }
+
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(String.format(Locale.ROOT,
+                    "%d samples, %d exported, %d failed in %.2fs (%.2f samples/s)%n", samples, getExported(),
+                    failures.size(), wallSeconds, wallSeconds == 0 ? 0 : getExported() / wallSeconds));
+            stages.forEach(stage -> text.append("  ").append(stage).append(System.lineSeparator()));
+            failures.forEach(failure -> text.append("  ").append(failure).append(System.lineSeparator()));
+            return text.toString();
+        }
+    }
+}
@@ -1,26 +1,73 @@
 package main;
 
-import lipid.LipidScoreUnit;
-import org.drools.ruleunits.api.RuleUnitInstance;
-import org.drools.ruleunits.api.RuleUnitProvider;
+import ingest.LipidLibraryReader;
+import lipid.AdductCache;
+import lipid.Annotation;
+import lipid.LipidCatalog;
+import lipid.LipidScorer;
+import lipid.ScoringMode;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
 
-    public static void main(String[] args) {
-        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
-
-        RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(lipidScoreUnit);
-
-        try {
-            // TODO INTRODUCE THE CODE IF DESIRED TO INSERT FACTS AND TRIGGER RULES
-            instance.fire();
-            // TODO INTRODUCE THE QUERIES IF DESIRED
+    /**
+     * Without arguments, scores an empty set of annotations. With a directory of samples and an output directory,
+     * runs the {@link BatchPipeline} over the feature tables of the directory:
+     * <pre>
+     * java [options] main.Main samples/ annotations/
+     *
+     * options:
+     *   -Dlipid.scoring=RULES | PARALLEL_RULES | ELUTION_ORDER | RT_REGRESSION
+     *   -Dlipid.library=library.csv                               lipids of the features, see LipidLibraryReader
+     *   -Dpipeline.ingest.workers=1 -Dpipeline.adduct.workers=N
+     *   -Dpipeline.score.workers=N -Dpipeline.export.workers=1    N is the number of processors
+     *   -Dpipeline.queue.capacity=2                               samples waiting in front of each stage
+     *   -Dadduct.cache.size=0 -Dadduct.cache.age.seconds=0        features whose adduct is cached across the
+     *                                                             samples (0: no cache) and their age (0: no limit)
+     *   -Dlipid.metrics=true                                      rule metrics in JMX, see RuleMetrics
+     * </pre>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 2) {
+            runPipeline(Path.of(args[0]), Path.of(args[1]));
+            return;
+        }
+        // -Dlipid.scoring=RULES | PARALLEL_RULES | ELUTION_ORDER | RT_REGRESSION, see ScoringMode
+        LipidScorer scorer = ScoringMode.fromSystemProperty().newScorer();
+        List<Annotation> annotations = new ArrayList<>();
 
+        // TODO INTRODUCE THE CODE IF DESIRED TO INSERT FACTS AND TRIGGER RULES
+        scorer.score(annotations);
+        // TODO INTRODUCE THE QUERIES IF DESIRED
+    }
 
-        } finally {
-            instance.close();
+    private static void runPipeline(Path samples, Path output) throws Exception {
+        int processors = Runtime.getRuntime().availableProcessors();
+        String library = System.getProperty("lipid.library");
+        LipidCatalog catalog = library == null ? null : LipidLibraryReader.read(Path.of(library));
+        int cacheSize = Integer.getInteger("adduct.cache.size", 0);
+        AdductCache adductCache = cacheSize <= 0 ? null
+                : new AdductCache(cacheSize, Long.getLong("adduct.cache.age.seconds", 0), TimeUnit.SECONDS);
+        BatchPipeline pipeline = new BatchPipeline(
+                Integer.getInteger("pipeline.ingest.workers", 1),
+                Integer.getInteger("pipeline.adduct.workers", processors),
+                Integer.getInteger("pipeline.score.workers", processors),
+                Integer.getInteger("pipeline.export.workers", 1),
+                Integer.getInteger("pipeline.queue.capacity", 2),
+                ScoringMode.fromSystemProperty(),
+                catalog,
+                adductCache);
+        BatchPipeline.Summary summary = pipeline.run(BatchPipeline.sampleFiles(samples), output);
+        System.out.print(summary);
+        if (adductCache != null) {
+            System.out.println(adductCache);
+        }
+        if (!summary.getFailures().isEmpty()) {
+            System.exit(1);
         }
     }
 }
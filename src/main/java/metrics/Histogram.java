@@ -0,0 +1,79 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Concurrent histogram of durations in nanoseconds with power of two buckets: bucket b holds the durations in
+ * [2^(b-1), 2^b), bucket 0 the zeros. Recording is a few atomic adds, without locks or allocation.
+ */
+final class Histogram {
+
+    static final int BUCKETS = 64;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+        buckets.incrementAndGet(bucket(nanos));
+    }
+
+    static int bucket(long nanos) {
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos));
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long totalNanos() {
+        return total.sum();
+    }
+
+    long maxNanos() {
+        return max.get();
+    }
+
+    long percentileNanos(double fraction) {
+        return percentileNanos(fraction, max.get(), buckets::get);
+    }
+
+    /**
+     * @return upper bound of the bucket holding that fraction of the durations (at most the maximum), 0 if there are
+     * none
+     */
+    static long percentileNanos(double fraction, long maxNanos, IntToLongFunction buckets) {
+        long bucketTotal = 0;
+        for (int b = 0; b < BUCKETS; b++) bucketTotal += buckets.applyAsLong(b);
+        long target = (long) Math.ceil(fraction * bucketTotal);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.applyAsLong(b);
+            if (seen >= target && seen > 0) {
+                return Math.min(maxNanos, b == 0 ? 0 : (b >= 63 ? Long.MAX_VALUE : 1L << b));
+            }
+        }
+        return 0;
+    }
+
+    MetricsSnapshot.TimeSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) copy[b] = buckets.get(b);
+        return new MetricsSnapshot.TimeSnapshot(count.sum(), total.sum(), max.get(), copy);
+    }
+
+    void reset() {
+        count.reset();
+        total.reset();
+        max.reset();
+        for (int b = 0; b < BUCKETS; b++) buckets.set(b, 0);
+    }
+}
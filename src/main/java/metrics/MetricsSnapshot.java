@@ -0,0 +1,180 @@
+package metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable copy of the {@link RuleMetrics} of a rule unit at one moment
+ */
+public final class MetricsSnapshot {
+
+    private final String unitName;
+    private final Map<String, RuleSnapshot> rules;
+    private final long inserted;
+    private final long updated;
+    private final long deleted;
+    private final TimeSnapshot fireTimes;
+
+    MetricsSnapshot(String unitName, Map<String, RuleSnapshot> rules, long inserted, long updated, long deleted,
+                    TimeSnapshot fireTimes) {
+        this.unitName = unitName;
+        this.rules = Collections.unmodifiableMap(rules);
+        this.inserted = inserted;
+        this.updated = updated;
+        this.deleted = deleted;
+        this.fireTimes = fireTimes;
+    }
+
+    public String getUnitName() {
+        return unitName;
+    }
+
+    /**
+     * @return metrics of every rule that had a match, by rule name in alphabetical order
+     */
+    public Map<String, RuleSnapshot> getRules() {
+        return rules;
+    }
+
+    /**
+     * @return metrics of the rule, all zero if it never had a match
+     */
+    public RuleSnapshot getRule(String ruleName) {
+        RuleSnapshot rule = rules.get(ruleName);
+        return rule != null ? rule : new RuleSnapshot(ruleName, 0, 0, TimeSnapshot.EMPTY);
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return wall times of the calls to fire
+     */
+    public TimeSnapshot getFireTimes() {
+        return fireTimes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(unitName).append(": ").append(fireTimes.getCount()).append(" fire() in ")
+                .append(fireTimes.getTotalNanos() / 1_000_000).append(" ms, facts +").append(inserted).append(" ~")
+                .append(updated).append(" -").append(deleted);
+        rules.values().forEach(rule -> text.append(System.lineSeparator()).append("  ").append(rule));
+        return text.toString();
+    }
+
+    public static final class RuleSnapshot {
+        private final String ruleName;
+        private final long firings;
+        private final long matchesCancelled;
+        private final TimeSnapshot consequenceTimes;
+
+        RuleSnapshot(String ruleName, long firings, long matchesCancelled, TimeSnapshot consequenceTimes) {
+            this.ruleName = ruleName;
+            this.firings = firings;
+            this.matchesCancelled = matchesCancelled;
+            this.consequenceTimes = consequenceTimes;
+        }
+
+        public String getRuleName() {
+            return ruleName;
+        }
+
+        public long getFirings() {
+            return firings;
+        }
+
+        public long getMatchesCancelled() {
+            return matchesCancelled;
+        }
+
+        /**
+         * @return times of the timed firings, one in {@link RuleMetrics#TIMED_FIRINGS}
+         */
+        public TimeSnapshot getConsequenceTimes() {
+            return consequenceTimes;
+        }
+
+        /**
+         * @return time spent in the consequences of every firing, extrapolated from the timed ones
+         */
+        public double getEstimatedConsequenceNanos() {
+            return estimatedNanos(consequenceTimes.getTotalNanos(), consequenceTimes.getCount(), firings);
+        }
+
+        static double estimatedNanos(long timedNanos, long timed, long firings) {
+            return timed == 0 ? 0 : (double) timedNanos * firings / timed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d firings, %d cancelled, ~%.3f ms, p99 < %d ns", ruleName, firings,
+                    matchesCancelled, getEstimatedConsequenceNanos() / 1e6, consequenceTimes.percentileNanos(0.99));
+        }
+    }
+
+    /**
+     * Count, sum, maximum and power of two histogram of durations in nanoseconds
+     */
+    public static final class TimeSnapshot {
+        static final TimeSnapshot EMPTY = new TimeSnapshot(0, 0, 0, new long[Histogram.BUCKETS]);
+
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        TimeSnapshot(long count, long totalNanos, long maxNanos, long[] buckets) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @return number of durations in [2^(bucket-1), 2^bucket) ns, bucket 0 counts the durations of 0 ns
+         */
+        public long getBucket(int bucket) {
+            return buckets[bucket];
+        }
+
+        public long[] getBuckets() {
+            return Arrays.copyOf(buckets, buckets.length);
+        }
+
+        /**
+         * @param fraction between 0 and 1, e.g. 0.99
+         * @return upper bound of the bucket holding that fraction of the durations (at most the maximum), 0 if
+         * there are none
+         */
+        public long percentileNanos(double fraction) {
+            return Histogram.percentileNanos(fraction, maxNanos, b -> buckets[b]);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package metrics;
+
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.drools.ruleunits.api.conf.RuleConfig;
+import org.kie.api.definition.rule.Rule;
+import org.kie.api.event.rule.AfterMatchFiredEvent;
+import org.kie.api.event.rule.BeforeMatchFiredEvent;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+import org.kie.api.event.rule.MatchCancelledEvent;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.rule.AgendaFilter;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Metrics of the rules of one rule unit, collected by agenda and rule runtime listeners: firings, cancelled matches
+ * and consequence time per rule, facts inserted, updated and deleted, and the wall time of every
+ * {@link #fire(RuleUnitInstance)}. The same metrics can be shared by any number of instances on any number of
+ * threads; each instance gets its own listeners from {@link #newRuleConfig()}.
+ *
+ * Every firing is counted in a {@link LongAdder}, but only one in {@link #TIMED_FIRINGS} is timed, and the matches
+ * created are not listened to, so the metrics are cheap enough to be on by default in the shared pools and sessions;
+ * -Dlipid.metrics=false turns them off, see {@link #ifEnabled(Class)}. They are read with {@link #snapshot()} or
+ * through JMX, see {@link #of(String)}.
+ */
+public final class RuleMetrics {
+
+    public static final String PROPERTY = "lipid.metrics";
+    /**
+     * One firing in this many has its consequence timed, a power of two
+     */
+    public static final int TIMED_FIRINGS = 16;
+
+    /**
+     * Metrics that add no listeners and record nothing
+     */
+    public static final RuleMetrics DISABLED = new RuleMetrics("disabled", false);
+
+    private static final Map<String, RuleMetrics> UNITS = new ConcurrentHashMap<>();
+
+    private final String unitName;
+    private final boolean enabled;
+    private final Map<String, RuleCounters> rules = new ConcurrentHashMap<>();
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+    private final Histogram fireTimes = new Histogram();
+
+    public RuleMetrics(String unitName) {
+        this(unitName, true);
+    }
+
+    private RuleMetrics(String unitName, boolean enabled) {
+        this.unitName = unitName;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the metrics of the unit shared by the whole JVM, registered in the platform MBean server as
+     * lipid:type=RuleMetrics,unit=unitName the first time they are asked for
+     */
+    public static RuleMetrics of(String unitName) {
+        return UNITS.computeIfAbsent(unitName, name -> {
+            RuleMetrics metrics = new RuleMetrics(name);
+            metrics.register();
+            return metrics;
+        });
+    }
+
+    /**
+     * Same as {@link #of(String)} with the simple name of the rule unit class
+     */
+    public static RuleMetrics of(Class<?> unit) {
+        return of(unit.getSimpleName());
+    }
+
+    /**
+     * @return {@link #DISABLED} if -Dlipid.metrics=false, {@code of(unit)} otherwise
+     */
+    public static RuleMetrics ifEnabled(Class<?> unit) {
+        return Boolean.parseBoolean(System.getProperty(PROPERTY, "true").trim()) ? of(unit) : DISABLED;
+    }
+
+    public String getUnitName() {
+        return unitName;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return a new configuration with the listeners that record into these metrics, without listeners if they are
+     * disabled. Use one per instance.
+     */
+    public RuleConfig newRuleConfig() {
+        RuleConfig config = RuleUnitProvider.get().newRuleConfig();
+        if (!enabled) return config;
+        config.getAgendaEventListeners().add(new AgendaListener());
+        config.getRuleRuntimeListeners().add(new RuntimeListener());
+        return config;
+    }
+
+    /**
+     * Fires the instance and records the wall time of the call
+     *
+     * @return number of rules fired
+     */
+    public int fire(RuleUnitInstance<?> instance) {
+        if (!enabled) return instance.fire();
+        long start = System.nanoTime();
+        try {
+            return instance.fire();
+        } finally {
+            fireTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Same as {@link #fire(RuleUnitInstance)} firing only the matches accepted by the filter
+     */
+    public int fire(RuleUnitInstance<?> instance, AgendaFilter filter) {
+        if (!enabled) return instance.fire(filter);
+        long start = System.nanoTime();
+        try {
+            return instance.fire(filter);
+        } finally {
+            fireTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, MetricsSnapshot.RuleSnapshot> ruleSnapshots = new TreeMap<>();
+        rules.forEach((name, counters) -> ruleSnapshots.put(name, counters.snapshot(name)));
+        return new MetricsSnapshot(unitName, ruleSnapshots, inserted.sum(), updated.sum(), deleted.sum(),
+                fireTimes.snapshot());
+    }
+
+    Histogram fireTimes() {
+        return fireTimes;
+    }
+
+    long inserted() {
+        return inserted.sum();
+    }
+
+    long updated() {
+        return updated.sum();
+    }
+
+    long deleted() {
+        return deleted.sum();
+    }
+
+    /**
+     * Reads one value of every rule that had a match, without copying the rest of its metrics
+     */
+    <T> Map<String, T> byRule(Function<RuleCounters, T> value) {
+        Map<String, T> values = new TreeMap<>();
+        rules.forEach((name, counters) -> values.put(name, value.apply(counters)));
+        return values;
+    }
+
+    public void reset() {
+        rules.values().forEach(RuleCounters::reset);
+        inserted.reset();
+        updated.reset();
+        deleted.reset();
+        fireTimes.reset();
+    }
+
+    private void register() {
+        try {
+            ObjectName name = new ObjectName("lipid:type=RuleMetrics,unit=" + ObjectName.quote(unitName));
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new RuleMetricsBean(this), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register the metrics of " + unitName + " in JMX", e);
+        }
+    }
+
+    private RuleCounters counters(Rule rule) {
+        return rules.computeIfAbsent(rule.getName(), name -> new RuleCounters());
+    }
+
+    static final class RuleCounters {
+        final LongAdder fired = new LongAdder();
+        final LongAdder cancelled = new LongAdder();
+        // timed firings only
+        final Histogram consequenceTimes = new Histogram();
+
+        private MetricsSnapshot.RuleSnapshot snapshot(String name) {
+            return new MetricsSnapshot.RuleSnapshot(name, fired.sum(), cancelled.sum(), consequenceTimes.snapshot());
+        }
+
+        /**
+         * @return time spent in the consequences of every firing, extrapolated from the timed ones
+         */
+        double estimatedNanos() {
+            return MetricsSnapshot.RuleSnapshot.estimatedNanos(consequenceTimes.totalNanos(), consequenceTimes.count(),
+                    fired.sum());
+        }
+
+        private void reset() {
+            fired.reset();
+            cancelled.reset();
+            consequenceTimes.reset();
+        }
+    }
+
+    /**
+     * Listens to one instance, which fires on one thread at a time, so the start of the running consequence and the
+     * counters already looked up can be kept in plain fields.
+     */
+    private final class AgendaListener extends DefaultAgendaEventListener {
+
+        private final Map<Rule, RuleCounters> cache = new IdentityHashMap<>();
+        private int firings;
+        private boolean timed;
+        private long firingStart;
+
+        private RuleCounters countersOf(Rule rule) {
+            RuleCounters counters = cache.get(rule);
+            if (counters == null) {
+                counters = counters(rule);
+                cache.put(rule, counters);
+            }
+            return counters;
+        }
+
+        @Override
+        public void matchCancelled(MatchCancelledEvent event) {
+            countersOf(event.getMatch().getRule()).cancelled.increment();
+        }
+
+        @Override
+        public void beforeMatchFired(BeforeMatchFiredEvent event) {
+            timed = (firings++ & (TIMED_FIRINGS - 1)) == 0;
+            if (timed) firingStart = System.nanoTime();
+        }
+
+        @Override
+        public void afterMatchFired(AfterMatchFiredEvent event) {
+            RuleCounters counters = countersOf(event.getMatch().getRule());
+            counters.fired.increment();
+            if (timed) counters.consequenceTimes.record(System.nanoTime() - firingStart);
+        }
+    }
+
+    private final class RuntimeListener implements RuleRuntimeEventListener {
+
+        @Override
+        public void objectInserted(ObjectInsertedEvent event) {
+            inserted.increment();
+        }
+
+        @Override
+        public void objectUpdated(ObjectUpdatedEvent event) {
+            updated.increment();
+        }
+
+        @Override
+        public void objectDeleted(ObjectDeletedEvent event) {
+            deleted.increment();
+        }
+    }
+}
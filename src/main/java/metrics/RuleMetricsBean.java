@@ -0,0 +1,70 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * Serves every attribute from the counters it reads, without taking a {@link RuleMetrics#snapshot()}
+ */
+final class RuleMetricsBean implements RuleMetricsMXBean {
+
+    private final RuleMetrics metrics;
+
+    RuleMetricsBean(RuleMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getUnitName() {
+        return metrics.getUnitName();
+    }
+
+    @Override
+    public long getFireCount() {
+        return metrics.fireTimes().count();
+    }
+
+    @Override
+    public double getFireTotalMillis() {
+        return metrics.fireTimes().totalNanos() / 1e6;
+    }
+
+    @Override
+    public double getFireMaxMillis() {
+        return metrics.fireTimes().maxNanos() / 1e6;
+    }
+
+    @Override
+    public double getFireP99Millis() {
+        return metrics.fireTimes().percentileNanos(0.99) / 1e6;
+    }
+
+    @Override
+    public long getFactsInserted() {
+        return metrics.inserted();
+    }
+
+    @Override
+    public long getFactsUpdated() {
+        return metrics.updated();
+    }
+
+    @Override
+    public long getFactsDeleted() {
+        return metrics.deleted();
+    }
+
+    @Override
+    public Map<String, Long> getRuleFirings() {
+        return metrics.byRule(rule -> rule.fired.sum());
+    }
+
+    @Override
+    public Map<String, Double> getRuleConsequenceMillis() {
+        return metrics.byRule(rule -> rule.estimatedNanos() / 1e6);
+    }
+
+    @Override
+    public void reset() {
+        metrics.reset();
+    }
+}
@@ -0,0 +1,37 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link RuleMetrics} of a rule unit, registered as lipid:type=RuleMetrics,unit=name
+ */
+public interface RuleMetricsMXBean {
+
+    String getUnitName();
+
+    long getFireCount();
+
+    double getFireTotalMillis();
+
+    double getFireMaxMillis();
+
+    double getFireP99Millis();
+
+    long getFactsInserted();
+
+    long getFactsUpdated();
+
+    long getFactsDeleted();
+
+    /**
+     * @return firings by rule name
+     */
+    Map<String, Long> getRuleFirings();
+
+    /**
+     * @return total time spent in the consequences by rule name, extrapolated from the timed firings
+     */
+    Map<String, Double> getRuleConsequenceMillis();
+
+    void reset();
+}
@@ -0,0 +1,64 @@
+package adduct;
+
+import lipid.Ionization;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AdductBatchTest {
+
+    @Test
+    public void shouldConvertColumnsBitIdenticalToScalarPath() {
+        Random random = new Random(5);
+        double[] mzs = new double[1003];
+        for (int i = 0; i < mzs.length; i++) {
+            mzs[i] = 100 + random.nextDouble() * 1900;
+        }
+        for (Ionization ionization : Ionization.values()) {
+            for (AdductDescriptor adduct : AdductRegistry.forIonization(ionization)) {
+                double[] masses = Adduct.getMonoisotopicMassesFromMZ(mzs, adduct);
+                double[] back = Adduct.getMZsFromMonoisotopicMass(masses, adduct);
+                for (int i = 0; i < mzs.length; i++) {
+                    assertEquals(Double.doubleToRawLongBits(Adduct.getMonoisotopicMassFromMZ(mzs[i], adduct)),
+                            Double.doubleToRawLongBits(masses[i]));
+                    assertEquals(Double.doubleToRawLongBits(Adduct.getMZFromMonoisotopicMass(masses[i], adduct)),
+                            Double.doubleToRawLongBits(back[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldConvertSlices() {
+        double[] mzs = {100, 200, 300, 400, 500};
+        double[] masses = {-1, -1, -1, -1};
+        AdductDescriptor adduct = AdductRegistry.get("[M+H]+");
+        Adduct.getMonoisotopicMassesFromMZ(mzs, 1, 4, adduct, masses, 1);
+        assertEquals(-1, masses[0], 0);
+        for (int i = 1; i < 4; i++) {
+            assertEquals(Adduct.getMonoisotopicMassFromMZ(mzs[i], adduct), masses[i], 0);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldRejectSlicesOutOfBounds() {
+        Adduct.getMZsFromMonoisotopicMass(new double[4], 0, 4, AdductRegistry.get("[M+H]+"), new double[4], 1);
+    }
+
+    @Test
+    public void shouldComputePpmColumns() {
+        double[] experimental = {760.5851, 760.5900, 760.5000, 700.0};
+        double theoretical = 760.5851;
+        int[] ppms = new int[experimental.length];
+        Adduct.calculatePPMIncrements(experimental, 0, experimental.length, theoretical, ppms, 0);
+        int[] pairwise = Adduct.calculatePPMIncrements(experimental,
+                new double[]{theoretical, theoretical, theoretical, theoretical});
+        for (int i = 0; i < experimental.length; i++) {
+            assertEquals(Adduct.calculatePPMIncrement(experimental[i], theoretical), ppms[i]);
+        }
+        assertArrayEquals(ppms, pairwise);
+    }
+}
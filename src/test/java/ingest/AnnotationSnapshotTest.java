@@ -0,0 +1,122 @@
+package ingest;
+
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.Peak;
+import lipid.RtRegressionScorer;
+import lipid.RuleUnitLipidScorer;
+import lipid.ScoreRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AnnotationSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReloadScoredAnnotations() throws IOException {
+        Random random = new Random(16);
+        LipidType[] types = {LipidType.PC, LipidType.PE, LipidType.PG};
+        List<Lipid> lipids = new ArrayList<>();
+        for (int l = 0; l < 10; l++) {
+            LipidType type = types[l % types.length];
+            lipids.add(new Lipid(l, type + " " + (32 + l) + ":" + (l % 3), "C42H82NO8P", type, 32 + l, l % 3));
+        }
+        lipids.get(0).setMonoisotropic(759.5778);
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Set<Peak> peaks = i % 4 == 0 ? Set.of()
+                    : Set.of(new Peak(700 + i, 1e5), new Peak(722 + i, 5e4 + i), new Peak(680 + i, 1e4));
+            annotations.add(new Annotation(lipids.get(random.nextInt(lipids.size())), 700 + i, 1e5,
+                    i == 7 ? Double.NaN : random.nextInt(40) / 4d, i % 5 == 0 ? Ionization.NEGATIVE : Ionization.POSITIVE,
+                    peaks));
+        }
+        new RuleUnitLipidScorer().score(annotations);
+        new RtRegressionScorer().score(annotations);
+        annotations.get(3).setAdduct(null);
+        annotations.get(5).addScore(3, 2);
+
+        Path file = folder.getRoot().toPath().resolve("annotations.snapshot");
+        AnnotationSnapshot.write(file, annotations);
+        AnnotationSnapshot snapshot = AnnotationSnapshot.open(file);
+
+        assertEquals(annotations.size(), snapshot.size());
+        List<Annotation> reloaded = snapshot.getAnnotations();
+        for (int i = 0; i < annotations.size(); i++) {
+            Annotation expected = annotations.get(i);
+            Annotation actual = reloaded.get(i);
+            assertEquals(expected, actual);
+            assertEquals(expected.getIntensity(), actual.getIntensity(), 0);
+            assertEquals(expected.getIonization(), actual.getIonization());
+            assertEquals(expected.getAdduct(), actual.getAdduct());
+            assertEquals(expected.getGroupedSignals(), actual.getGroupedSignals());
+            assertEquals(expected.getScore(), actual.getScore());
+            assertEquals(expected.getTotalScoresApplied(), actual.getTotalScoresApplied());
+            assertEquals(expected.getRtZScore(), actual.getRtZScore(), 0);
+            assertEquals(expected.getNormalizedScore(), actual.getNormalizedScore(), 0);
+            for (ScoreRule rule : ScoreRule.values()) {
+                assertEquals(expected.getScoresApplied(rule), actual.getScoresApplied(rule));
+                assertEquals(expected.getScoresApplied(rule), snapshot.getScoresApplied(i, rule));
+            }
+            assertEquals(expected.getLipid().getName(), actual.getLipid().getName());
+            assertEquals(expected.getLipid().getMonoisotropic(), actual.getLipid().getMonoisotropic(), 0);
+        }
+        assertNull(snapshot.getAdduct(3));
+        assertEquals(Double.NaN, snapshot.getRtMin(7), 0);
+        assertEquals(Double.NaN, snapshot.getRtZScore(7), 0);
+        assertEquals(annotations.get(0).getRtZScore(), snapshot.getRtZScore(0), 0);
+        assertFalse(Double.isNaN(snapshot.getRtZScore(0)));
+        assertSame(snapshot.getLipid(0), reloaded.get(0).getLipid());
+    }
+
+    @Test
+    public void shouldReloadAnnotationsWithoutLipidOrLipidType() throws IOException {
+        Lipid untyped = new Lipid(1, "X 34:1", "", null, 34, 1);
+        List<Annotation> annotations = List.of(
+                new Annotation(untyped, 700.5, 1e5, 5, Ionization.POSITIVE),
+                new Annotation(null, 720.5, 2e5, 6, Ionization.POSITIVE));
+
+        Path file = folder.getRoot().toPath().resolve("untyped.snapshot");
+        AnnotationSnapshot.write(file, annotations);
+        AnnotationSnapshot snapshot = AnnotationSnapshot.open(file);
+
+        assertEquals("X 34:1", snapshot.getLipid(0).getName());
+        assertNull(snapshot.getLipid(0).getLipidType());
+        assertEquals(34, snapshot.getLipid(0).getCarbonCount());
+        assertNull(snapshot.getLipid(1));
+        assertEquals(annotations, snapshot.getAnnotations());
+    }
+
+    @Test
+    public void shouldReloadAnEmptySnapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.snapshot");
+        AnnotationSnapshot.write(file, List.of());
+
+        assertEquals(0, AnnotationSnapshot.open(file).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectOtherFiles() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("features.tsv");
+        Files.writeString(file, "mz\trt\tintensity\tlipid_id\tlipid_type\tcarbons\tdouble_bonds\n");
+
+        AnnotationSnapshot.open(file);
+    }
+}
@@ -0,0 +1,182 @@
+package ingest;
+
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidCatalog;
+import lipid.LipidType;
+import lipid.Peak;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureTableReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadTsvFeatures() throws IOException {
+        Path file = write("features.tsv",
+                "MZ\tRT\tIntensity\tlipid_id\tlipid_name\tlipid_type\tcarbons\tdouble_bonds\tionization\tpeaks\n" +
+                "700.500\t6.0\t80000\t1\tPC 34:1\tPC\t34\t1\t+\t700.500:80000;716.4725:50000\n" +
+                "\n" +
+                "751.5\t7.25\t1.5e5\t2\tPE 36:2\tPE\t36\t2\tNEGATIVE\t\n");
+
+        try (FeatureTableReader reader = new FeatureTableReader(file, 10)) {
+            List<Annotation> annotations = reader.nextBatch();
+            assertEquals(2, annotations.size());
+
+            Annotation first = annotations.get(0);
+            assertEquals(700.5, first.getMz(), 0);
+            assertEquals(6.0, first.getRtMin(), 0);
+            assertEquals(80000, first.getIntensity(), 0);
+            assertEquals(Ionization.POSITIVE, first.getIonization());
+            assertEquals(LipidType.PC, first.getLipid().getLipidType());
+            assertEquals("PC 34:1", first.getLipid().getName());
+            assertEquals(34, first.getLipid().getCarbonCount());
+            assertEquals(1, first.getLipid().getDoubleBondsCount());
+            assertEquals(2, first.getGroupedSignals().size());
+            assertTrue(first.getGroupedSignals().contains(new Peak(716.4725, 50000)));
+
+            Annotation second = annotations.get(1);
+            assertEquals(150000, second.getIntensity(), 0);
+            assertEquals(Ionization.NEGATIVE, second.getIonization());
+            assertTrue(second.getGroupedSignals().isEmpty());
+
+            assertTrue(reader.nextBatch().isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldReadCsvInBatchesAcrossWindows() throws IOException {
+        Random random = new Random(7);
+        StringBuilder csv = new StringBuilder("lipid_id,lipid_type,carbons,double_bonds,mz,rt,intensity\r\n");
+        List<double[]> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            double mz = 400 + random.nextDouble() * 600;
+            double rt = random.nextInt(2000) / 100d;
+            double intensity = random.nextDouble() * 1e7;
+            // the same 50 lipids are repeated
+            int id = i % 50;
+            csv.append(id).append(",TG,").append(40 + id % 10).append(',').append(id % 4).append(',')
+                    .append(mz).append(',').append(String.format(Locale.ROOT, "%.2f", rt)).append(',')
+                    .append(intensity).append("\r\n");
+            expected.add(new double[]{mz, rt, intensity});
+        }
+        Path file = write("features.csv", csv.toString());
+
+        // a window much smaller than the file, so lines are cut between windows
+        List<Annotation> annotations = new ArrayList<>();
+        try (FeatureTableReader reader = new FeatureTableReader(file, 128, 256)) {
+            List<Annotation> batch;
+            while (!(batch = reader.nextBatch()).isEmpty()) {
+                assertTrue(batch.size() <= 128);
+                annotations.addAll(batch);
+            }
+            assertEquals(1000, reader.getAnnotationsRead());
+            assertEquals(50, reader.getLipidsRead());
+        }
+
+        assertEquals(1000, annotations.size());
+        for (int i = 0; i < annotations.size(); i++) {
+            assertEquals(expected.get(i)[0], annotations.get(i).getMz(), 0);
+            assertEquals(expected.get(i)[1], annotations.get(i).getRtMin(), 0);
+            assertEquals(expected.get(i)[2], annotations.get(i).getIntensity(), 0);
+        }
+        assertSame(annotations.get(0).getLipid(), annotations.get(50).getLipid());
+    }
+
+    @Test
+    public void shouldStreamAllBatches() throws IOException {
+        StringBuilder tsv = new StringBuilder("mz\trt\tintensity\tlipid_id\tlipid_type\tcarbons\tdouble_bonds\n");
+        for (int i = 0; i < 500; i++) {
+            tsv.append(500 + i * 0.25).append("\t5\t1000\t").append(i).append("\tPC\t36\t1\n");
+        }
+        Path file = write("features.tsv", tsv.toString());
+
+        int annotations = 0;
+        try (AnnotationBatchStream stream = new AnnotationBatchStream(new FeatureTableReader(file, 64, 1024), 2)) {
+            while (stream.hasNext()) {
+                annotations += stream.next().size();
+            }
+            assertFalse(stream.hasNext());
+        }
+        assertEquals(500, annotations);
+    }
+
+    @Test
+    public void shouldParseNumbersAsDoubleParseDouble() {
+        Random random = new Random(11);
+        List<String> numbers = new ArrayList<>(List.of("0", "-0.0", "1e3", "2.5E-4", "123456789012345678.9",
+                "0.000000000000000000000000012", "  42 ", "\"3.14\"", "1.7976931348623157E308", "NaN"));
+        for (int i = 0; i < 10000; i++) {
+            numbers.add(Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(12) - 3)));
+            numbers.add(String.format(Locale.ROOT, "%." + random.nextInt(8) + "f", random.nextDouble() * 2000));
+        }
+        for (String number : numbers) {
+            ByteBuffer buffer = ByteBuffer.wrap(number.getBytes(StandardCharsets.US_ASCII));
+            double expected = Double.parseDouble(number.trim().replace("\"", ""));
+            assertEquals(number, Double.doubleToLongBits(expected),
+                    Double.doubleToLongBits(ByteNumbers.parseDouble(buffer, 0, buffer.limit())));
+        }
+    }
+
+    @Test
+    public void shouldShareTheLipidsOfTheLibrary() throws IOException {
+        Path library = write("library.csv",
+                "lipid_id,lipid_name,formula,mass\n" +
+                "1,PC 16:0_18:1,C42H82NO8P,759.5778\n" +
+                "2,TG(18:1/18:1/18:1),C57H104O6,\n");
+        LipidCatalog catalog = LipidLibraryReader.read(library);
+        assertEquals(2, catalog.size());
+        Lipid pc = catalog.getByCompoundId(1);
+        assertEquals(LipidType.PC, pc.getLipidType());
+        assertEquals(34, pc.getCarbonCount());
+        assertEquals(759.5778, pc.getMonoisotropic(), 0);
+        assertEquals(54, catalog.getByCompoundId(2).getCarbonCount());
+
+        Path features = write("features.csv",
+                "mz,rt,intensity,lipid_id,lipid_name\n" +
+                "760.585,6.0,80000,1,\n" +
+                "885.790,9.0,60000,2,\n" +
+                "790.539,7.0,10000,3,PE 40:6\n");
+        try (FeatureTableReader first = new FeatureTableReader(features, 10, catalog);
+             FeatureTableReader second = new FeatureTableReader(features, 10, catalog)) {
+            List<Annotation> annotations = first.nextBatch();
+            assertSame(pc, annotations.get(0).getLipid());
+            assertSame(pc, second.nextBatch().get(0).getLipid());
+            Lipid pe = annotations.get(2).getLipid();
+            assertEquals(LipidType.PE, pe.getLipidType());
+            assertEquals(40, pe.getCarbonCount());
+            assertEquals(6, pe.getDoubleBondsCount());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRequireTheLipidColumnsWithoutCatalog() throws IOException {
+        Path file = write("features.csv", "mz,rt,intensity,lipid_id,carbons\n760.585,6.0,80000,1,34\n");
+        new FeatureTableReader(file, 10).close();
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.writeString(file, content, StandardCharsets.US_ASCII);
+        return file;
+    }
+}
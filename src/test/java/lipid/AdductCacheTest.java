@@ -0,0 +1,165 @@
+package lipid;
+
+import org.drools.ruleunits.api.DataSource;
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class AdductCacheTest {
+
+    private static final Lipid PC = new Lipid(1, "PC 34:1", "", LipidType.PC, 34, 1);
+
+    private static Annotation feature(double mz, double shiftPpm, Ionization ionization) {
+        double shift = 1 + shiftPpm * 1e-6;
+        // [M+H]+ and [M+Na]+ of the same neutral mass
+        return new Annotation(PC, mz * shift, 80000, 6.5, ionization,
+                Set.of(new Peak(mz * shift, 100000), new Peak((mz + 21.98194) * shift, 80000)));
+    }
+
+    @Test
+    public void replicatesHitTheFirstAnswer() {
+        AdductCache cache = new AdductCache(100, 0, TimeUnit.SECONDS);
+        Annotation first = feature(700.5, 0, Ionization.POSITIVE);
+        Annotation replicate = feature(700.5, 0.5, Ionization.POSITIVE);
+
+        assertEquals(first.identifyAdduct(), cache.identify(first));
+        assertEquals("[M+H]+", cache.identify(replicate));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+
+        // another ionization or another feature is another signature
+        cache.identify(feature(700.5, 0, Ionization.NEGATIVE));
+        cache.identify(feature(760.6, 0, Ionization.POSITIVE));
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void missesReturnTheUncachedAnswer() {
+        Random random = new Random(5);
+        AdductCache cache = new AdductCache(64, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 2000; i++) {
+            double mz = 400 + random.nextInt(50) * 10.0;
+            double[] mzs = {mz, mz + 21.98194, mz + 1.00335, mz + random.nextDouble() * 40};
+            double[] intensities = {random.nextDouble(), random.nextDouble(), random.nextDouble(), random.nextDouble()};
+            Annotation annotation = new Annotation(PC, mz, 1000, 5, i % 3 == 0 ? Ionization.NEGATIVE
+                    : Ionization.POSITIVE, PeakArray.of(mzs, intensities));
+            long misses = cache.getMisses();
+            String cached = cache.identify(annotation);
+            if (cache.getMisses() > misses) {
+                assertEquals(annotation.identifyAdduct(), cached);
+            }
+        }
+        assertEquals(2000, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() {
+        AdductCache cache = new AdductCache(2, 0, TimeUnit.SECONDS);
+        Annotation a = feature(500.4, 0, Ionization.POSITIVE);
+        Annotation b = feature(600.5, 0, Ionization.POSITIVE);
+        Annotation c = feature(700.5, 0, Ionization.POSITIVE);
+        cache.identify(a);
+        cache.identify(b);
+        cache.identify(c);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        cache.identify(b);
+        cache.identify(c);
+        assertEquals(2, cache.getHits());
+        cache.identify(a);
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void evictsOldEntries() {
+        AtomicLong now = new AtomicLong();
+        AdductCache cache = new AdductCache(10, 1000, now::get);
+        Annotation annotation = feature(700.5, 0, Ionization.POSITIVE);
+        cache.identify(annotation);
+        now.set(999);
+        cache.identify(annotation);
+        assertEquals(1, cache.getHits());
+
+        now.set(1000);
+        cache.identify(annotation);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void intensityOrderIsPartOfTheSignature() {
+        AdductCache cache = new AdductCache(10, 0, TimeUnit.SECONDS);
+        Annotation annotation = feature(700.5, 0, Ionization.POSITIVE);
+        PeakArray peaks = annotation.getGroupedPeaks();
+        Annotation swapped = new Annotation(PC, 700.5, 80000, 6.5, Ionization.POSITIVE, PeakArray.of(
+                new double[]{peaks.getMz(0), peaks.getMz(1)}, new double[]{peaks.getIntensity(1), peaks.getIntensity(0)}));
+        assertNotEquals(cache.signature(annotation), cache.signature(swapped));
+        assertEquals(cache.signature(annotation), cache.signature(feature(700.5, 0.2, Ionization.POSITIVE)));
+    }
+
+    @Test
+    public void sharedByParallelWorkers() throws Exception {
+        AdductCache cache = new AdductCache(1000, 0, TimeUnit.SECONDS);
+        List<Annotation> features = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            features.add(feature(400 + i * 2.5, 0, i % 2 == 0 ? Ionization.POSITIVE : Ionization.NEGATIVE));
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> injections = new ArrayList<>();
+            for (int injection = 0; injection < 8; injection++) {
+                injections.add(workers.submit(() -> {
+                    List<String> adducts = new ArrayList<>();
+                    for (Annotation feature : features) adducts.add(cache.identify(feature));
+                    return adducts;
+                }));
+            }
+            for (Future<List<String>> injection : injections) {
+                List<String> adducts = injection.get();
+                for (int i = 0; i < features.size(); i++) {
+                    assertEquals(features.get(i).identifyAdduct(), adducts.get(i));
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+        assertEquals(8 * 200, cache.getHits() + cache.getMisses());
+        assertEquals(200, cache.size());
+    }
+
+    @Test
+    public void usedByTheAdductRules() {
+        AdductCache cache = new AdductCache(10, 0, TimeUnit.SECONDS);
+        for (int injection = 0; injection < 3; injection++) {
+            Annotation annotation = feature(700.5, injection * 0.1, Ionization.POSITIVE);
+            AnnotationUnit unit = new AnnotationUnit(DataSource.createStore(), cache);
+            RuleUnitInstance<AnnotationUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(unit);
+            try {
+                unit.getAnnotations().add(annotation);
+                instance.fire();
+            } finally {
+                instance.close();
+            }
+            assertEquals("[M+H]+", annotation.getAdduct());
+        }
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+}
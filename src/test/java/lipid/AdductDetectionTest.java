@@ -1,11 +1,16 @@
 package lipid;
 
 import adduct.Adduct;
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
 import org.drools.ruleunits.api.RuleUnitInstance;
 import org.drools.ruleunits.api.RuleUnitProvider;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -13,6 +18,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class AdductDetectionTest {
+
+    // the peaks of these fixtures are not those of a real lipid, so their lipids have no formula and the search does
+    // not check their mass, see shouldCheckTheMassOfTheFormula
     @Before
     public void setup() {
         // TODO Empty by now,you can create common objects for all tests.
@@ -24,7 +32,7 @@ public class AdductDetectionTest {
         // Given two peaks with ~21.98 Da difference (e.g., [M+H]+ and [M+Na]+)
         Peak mH = new Peak(700.500, 100000.0); // [M+H]+
         Peak mNa = new Peak(722.482, 80000.0);  // [M+Na]+
-        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        Lipid lipid = new Lipid(1, "PC 34:1", "", LipidType.PC, 34, 1);
 
         double annotationMZ = 700.49999d;
         double annotationIntensity = 80000.0;
@@ -52,7 +60,7 @@ public class AdductDetectionTest {
         Peak mh = new Peak(700.500, 90000.0);        // [M+H]+
         Peak mhH2O = new Peak(682.4894, 70000.0);     // [M+H–H₂O]+, ~18.0106 Da less
 
-        Lipid lipid = new Lipid(1, "PE 36:2", "C41H78NO8P", LipidType.PE, 36, 2);
+        Lipid lipid = new Lipid(1, "PE 36:2", "", LipidType.PE, 36, 2);
         Annotation annotation = new Annotation(lipid, mh.getMz(), mh.getIntensity(), 7.5d, Ionization.POSITIVE,Set.of(mh, mhH2O));
 
         AnnotationUnit annotationUnit = new AnnotationUnit();
@@ -77,7 +85,7 @@ public class AdductDetectionTest {
         Peak singlyCharged = new Peak(700.500, 100000.0);  // [M+H]+
         Peak doublyCharged = new Peak(350.754, 85000.0);   // [M+2H]2+
 
-        Lipid lipid = new Lipid(3, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        Lipid lipid = new Lipid(3, "TG 54:3", "", LipidType.TG, 54, 3);
         Annotation annotation = new Annotation(lipid, singlyCharged.getMz(), singlyCharged.getIntensity(), 10d, Ionization.POSITIVE, Set.of(singlyCharged, doublyCharged));
 
         AnnotationUnit annotationUnit = new AnnotationUnit();
@@ -106,7 +114,7 @@ public class AdductDetectionTest {
         Peak negativeAdductPeak = new Peak(698.485, 100000.0);  // [M-H]−
         Peak alternativePeak = new Peak(734.462, 75000.0);     // [M+Cl]−
 
-        Lipid lipid = new Lipid(3, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        Lipid lipid = new Lipid(3, "TG 54:3", "", LipidType.TG, 54, 3);
         Annotation annotation = new Annotation(lipid, negativeAdductPeak.getMz(), negativeAdductPeak.getIntensity(), 10d, Ionization.NEGATIVE, Set.of(negativeAdductPeak, alternativePeak));
 
         AnnotationUnit annotationUnit = new AnnotationUnit();
@@ -133,7 +141,7 @@ public class AdductDetectionTest {
         Peak mH = new Peak(698.4854, 100000.0); // [M–H]⁻
         Peak mCl = new Peak(734.462, 80000.0);  // [M+Cl]⁻, diferencia de ~34.9694 Da      // [M-H]− (más bajo, pero menor intensidad)
 
-        Lipid lipid = new Lipid(3, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        Lipid lipid = new Lipid(3, "TG 54:3", "", LipidType.TG, 54, 3);
         Annotation annotation = new Annotation(lipid, mH.getMz(), mH.getIntensity(), 10d, Ionization.NEGATIVE, Set.of(mH, mCl));
 
         AnnotationUnit annotationUnit = new AnnotationUnit();
@@ -160,7 +168,7 @@ public class AdductDetectionTest {
         Peak mhAdductPeak = new Peak(neutralMass - 1.007276d, 80000.0);       // [M-H]−, alta intensidad y m/z cercano
         Peak formateAdductPeak = new Peak(neutralMass + 44.998201 , 85000.0);  // [M+HCOOH-H]−, más intensidad pero menor coincidencia en m/z
 
-        Lipid lipid = new Lipid(5, "PE 38:4", "C43H80NO8P", LipidType.PE, 38, 4);
+        Lipid lipid = new Lipid(5, "PE 38:4", "", LipidType.PE, 38, 4);
         Annotation annotation = new Annotation(lipid, mhAdductPeak.getMz(), mhAdductPeak.getIntensity(), 10d, Ionization.NEGATIVE, Set.of(mhAdductPeak, formateAdductPeak));
 
         AnnotationUnit annotationUnit = new AnnotationUnit();
@@ -189,7 +197,7 @@ public class AdductDetectionTest {
         Peak doublyChargedPeak = new Peak((neutralMass - 1.007276*2)/2, 75000.0);
         //Peak mhAdductPeak = new Peak(neutralMass - 1.0073, 80000.0);
 
-        Lipid lipid = new Lipid(6, "TG 34:1", "C39H79N2O6P", LipidType.TG, 34, 1);
+        Lipid lipid = new Lipid(6, "TG 34:1", "", LipidType.TG, 34, 1);
         Annotation annotation = new Annotation(
                 lipid,
                 clAdductPeak.getMz(),   // Seleccionamos este como el m/z base
@@ -223,7 +231,7 @@ public class AdductDetectionTest {
         // Dímero [2M+H]+ 1400.993 (2*699.492724)-(-1.007276)=1399.993
         Peak dimer = new Peak((base_M*2) + 1.007276, 50000.0);
 
-        Lipid lipid = new Lipid(5, "PC 34:2", "C42H80NO8P", LipidType.TG, 34, 2);
+        Lipid lipid = new Lipid(5, "PC 34:2", "", LipidType.TG, 34, 2);
         lipid.setMonoisotropic(base_M);
         Annotation annotation = new Annotation(lipid, monomer.getMz(), monomer.getIntensity(), 7d, Ionization.POSITIVE,Set.of(monomer, dimer));
 
@@ -253,7 +261,7 @@ public class AdductDetectionTest {
         Peak p4 = new Peak(682.4894, 70000.0);// [M+H–H₂O]+
 
         // Datos del lípido (nombre y fórmula solo a efectos de completar la estructura)
-        Lipid lipid = new Lipid(5, "PC 36:4", "C44H80NO8P", LipidType.TG, 36, 4);
+        Lipid lipid = new Lipid(5, "PC 36:4", "", LipidType.TG, 36, 4);
 
         double rt = 6.0;
 
@@ -277,5 +285,127 @@ public class AdductDetectionTest {
         }
 
 
-}
+    @Test
+    public void shouldMatchExhaustiveSearchOnRandomGroups() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            Ionization ionization = random.nextBoolean() ? Ionization.POSITIVE : Ionization.NEGATIVE;
+            List<AdductDescriptor> adducts = AdductRegistry.forIonization(ionization);
+            double neutralMass = 300 + random.nextDouble() * 900;
+
+            // some peaks explained by real adducts of the same molecule and some noise
+            Set<Peak> peaks = new HashSet<>();
+            int explained = random.nextInt(4);
+            for (int j = 0; j < explained; j++) {
+                AdductDescriptor adduct = adducts.get(random.nextInt(adducts.size()));
+                double mz = Adduct.getMZFromMonoisotopicMass(neutralMass, adduct) * (1 + (random.nextDouble() - 0.5) * 1e-5);
+                peaks.add(new Peak(mz, random.nextDouble() * 1e5));
+            }
+            int noise = random.nextInt(4);
+            for (int j = 0; j < noise; j++) {
+                peaks.add(new Peak(150 + random.nextDouble() * 1500, random.nextDouble() * 1e5));
+            }
+            double annotationMz = peaks.isEmpty() || random.nextInt(5) == 0
+                    ? 150 + random.nextDouble() * 1500
+                    : peaks.iterator().next().getMz();
+
+            Lipid lipid = new Lipid(i, "PC 34:1", "", LipidType.PC, 34, 1);
+            if (random.nextBoolean()) {
+                lipid.setMonoisotropic(neutralMass);
+            }
+            Annotation annotation = new Annotation(lipid, annotationMz, 1e5, 5d, ionization, peaks);
+
+            assertEquals(annotation.getGroupedSignals().toString(), annotation.identifyAdductExhaustive(), annotation.identifyAdduct());
+        }
+    }
 
+    @Test
+    public void shouldMatchChargeAwareSearchOnRandomGroupsWithIsotopes() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            Ionization ionization = random.nextBoolean() ? Ionization.POSITIVE : Ionization.NEGATIVE;
+            List<AdductDescriptor> adducts = AdductRegistry.forIonization(ionization);
+            double neutralMass = 300 + random.nextDouble() * 900;
+
+            // some peaks explained by real adducts of the same molecule and some noise
+            Set<Peak> peaks = new HashSet<>();
+            int explained = random.nextInt(4);
+            for (int j = 0; j < explained; j++) {
+                AdductDescriptor adduct = adducts.get(random.nextInt(adducts.size()));
+                double mz = Adduct.getMZFromMonoisotopicMass(neutralMass, adduct) * (1 + (random.nextDouble() - 0.5) * 1e-5);
+                double intensity = random.nextDouble() * 1e5;
+                peaks.add(new Peak(mz, intensity));
+                if (random.nextInt(3) == 0) {
+                    // 13C isotope, folded before the search
+                    peaks.add(new Peak(mz + IsotopeClusters.C13_DELTA / adduct.getCharge(), intensity / 2));
+                }
+            }
+            int noise = random.nextInt(4);
+            for (int j = 0; j < noise; j++) {
+                peaks.add(new Peak(150 + random.nextDouble() * 1500, random.nextDouble() * 1e5));
+            }
+            double annotationMz = peaks.isEmpty() || random.nextInt(5) == 0
+                    ? 150 + random.nextDouble() * 1500
+                    : peaks.iterator().next().getMz();
+
+            Lipid lipid = new Lipid(i, "PC 34:1", "", LipidType.PC, 34, 1);
+            if (random.nextBoolean()) {
+                lipid.setMonoisotropic(neutralMass);
+            }
+            Annotation annotation = new Annotation(lipid, annotationMz, 1e5, 5d, ionization, peaks);
+
+            IsotopeClusters clusters = IsotopeClusters.detect(annotation.getGroupedPeaks(), adducts, Annotation.TOLERANCE_PMM,
+                    annotationMz);
+            String expected = NeutralMassJoin.exhaustive(clusters.getMonoisotopicMzs(), clusters.getCharges(), annotationMz,
+                    lipid.getMonoisotopicMass(), adducts, Annotation.TOLERANCE_PMM);
+            assertEquals(annotation.getGroupedSignals().toString(), expected, annotation.identifyAdduct());
+        }
+    }
+
+    /**
+     * The 13C isotopes of a [M+2H]2+ peak are 0.5 apart. Taken as peaks of their own, the first agreeing pair of the
+     * search reads the annotated peak as [M+H]+; folded, the envelope has charge 2 and only [M+2H]2+ explains it.
+     */
+    @Test
+    public void shouldNotMistakeIsotopologuesForAdducts() {
+        double neutralMass = 760.5851;
+        List<AdductDescriptor> adducts = AdductRegistry.forIonization(Ionization.POSITIVE);
+        AdductDescriptor doublyProtonated = adducts.stream().filter(a -> a.getName().equals("[M+2H]2+")).findFirst().orElseThrow();
+        AdductDescriptor sodium = adducts.stream().filter(a -> a.getName().equals("[M+Na]+")).findFirst().orElseThrow();
+        double mz = Adduct.getMZFromMonoisotopicMass(neutralMass, doublyProtonated);
+        Set<Peak> peaks = Set.of(
+                new Peak(mz, 1e6),
+                new Peak(mz + IsotopeClusters.C13_DELTA / 2, 5e5),
+                new Peak(mz + 2 * IsotopeClusters.C13_DELTA / 2, 2e5),
+                new Peak(Adduct.getMZFromMonoisotopicMass(neutralMass, sodium), 5e5));
+        // no formula: the lipid mass does not tell the adducts apart
+        Lipid lipid = new Lipid(1, "PC 34:1", "", LipidType.PC, 34, 1);
+        Annotation annotation = new Annotation(lipid, mz, 1e6, 5d, Ionization.POSITIVE, peaks);
+
+        assertEquals("[M+H]+", annotation.identifyAdductExhaustive());
+        assertEquals("[M+2H]2+", annotation.identifyAdduct());
+    }
+
+    /**
+     * PC 34:1, C42H82NO8P, has a monoisotopic mass of 759.5778. Without a mass set, the search checks the m/z of the
+     * annotation against the mass of the formula.
+     */
+    @Test
+    public void shouldCheckTheMassOfTheFormula() {
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        assertEquals(0.0, lipid.getMonoisotropic(), 0);
+        Set<Peak> real = Set.of(new Peak(760.5851, 1e5), new Peak(782.5670, 8e4));
+        Set<Peak> other = Set.of(new Peak(700.500, 1e5), new Peak(722.482, 8e4));
+
+        Annotation matching = new Annotation(lipid, 760.5851, 1e5, 6.5, Ionization.POSITIVE, real);
+        Annotation notMatching = new Annotation(lipid, 700.500, 1e5, 6.5, Ionization.POSITIVE, other);
+        Annotation withoutFormula = new Annotation(new Lipid(2, "PC 34:1", "", LipidType.PC, 34, 1), 700.500, 1e5,
+                6.5, Ionization.POSITIVE, other);
+
+        assertEquals("[M+H]+", matching.identifyAdduct());
+        assertEquals("[M+H]+", matching.identifyAdductExhaustive());
+        assertEquals("unknown", notMatching.identifyAdduct());
+        assertEquals("unknown", notMatching.identifyAdductExhaustive());
+        assertEquals("[M+H]+", withoutFormula.identifyAdduct());
+    }
+}
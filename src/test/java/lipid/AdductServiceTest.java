@@ -0,0 +1,75 @@
+package lipid;
+
+import org.drools.ruleunits.api.RuleUnitInstance;
+import org.drools.ruleunits.api.RuleUnitProvider;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdductServiceTest {
+
+    private static List<Annotation> annotations(Random random, int size) {
+        List<Annotation> annotations = new ArrayList<>();
+        Lipid lipid = new Lipid(1, "PC 34:1", "", LipidType.PC, 34, 1);
+        for (int i = 0; i < size; i++) {
+            double mz = 400 + random.nextDouble() * 600;
+            double[] mzs = {mz, mz + 21.98194, mz + 1.00335, 200 + random.nextDouble() * 1000};
+            double[] intensities = {1e5, random.nextDouble() * 1e5, random.nextDouble() * 1e5, random.nextDouble() * 1e5};
+            annotations.add(new Annotation(lipid, mz, 1e5, random.nextDouble() * 20,
+                    i % 4 == 0 ? Ionization.NEGATIVE : Ionization.POSITIVE, PeakArray.of(mzs, intensities)));
+        }
+        return annotations;
+    }
+
+    @Test
+    public void shouldAnnotateLikeTheSearchOfEachAnnotation() {
+        List<Annotation> annotations = annotations(new Random(11), 5000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(5000, new AdductService(pool, null, 64).annotate(annotations));
+        } finally {
+            pool.shutdown();
+        }
+        for (Annotation annotation : annotations) {
+            assertEquals(annotation.identifyAdduct(), annotation.getAdduct());
+        }
+    }
+
+    @Test
+    public void shouldSkipAnnotationsWithAnAdduct() {
+        List<Annotation> annotations = annotations(new Random(12), 100);
+        annotations.get(0).setAdduct("[M+Na]+");
+        AdductCache cache = new AdductCache(1000, 0, TimeUnit.SECONDS);
+        AdductService service = new AdductService(ForkJoinPool.commonPool(), cache, 16);
+        assertEquals(99, service.annotate(annotations));
+        assertEquals("[M+Na]+", annotations.get(0).getAdduct());
+        assertEquals(99, cache.getMisses());
+        assertEquals(0, service.annotate(annotations));
+    }
+
+    @Test
+    public void shouldFireTheAdductRuleOncePerAnnotation() {
+        List<Annotation> annotations = annotations(new Random(13), 200);
+        List<Annotation> expected = annotations(new Random(13), 200);
+        new AdductService().annotate(expected);
+
+        AnnotationUnit unit = new AnnotationUnit();
+        RuleUnitInstance<AnnotationUnit> instance = RuleUnitProvider.get().createRuleUnitInstance(unit);
+        try {
+            annotations.forEach(unit.getAnnotations()::add);
+            assertEquals(200, instance.fire());
+            assertEquals(0, instance.fire());
+        } finally {
+            instance.close();
+        }
+        for (int i = 0; i < annotations.size(); i++) {
+            assertEquals(expected.get(i).getAdduct(), annotations.get(i).getAdduct());
+        }
+    }
+}
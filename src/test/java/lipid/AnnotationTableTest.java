@@ -0,0 +1,140 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AnnotationTableTest {
+
+    @Test
+    public void shouldKeepAnnotationsAndScores() {
+        List<Annotation> annotations = new RandomAnnotations(7).types(3).withPeaks().next(50);
+        new ElutionOrderScorer().score(annotations);
+        annotations.get(3).setAdduct("[M+H]+");
+        annotations.get(4).addScore(5, 2);
+
+        AnnotationTable table = AnnotationTable.of(annotations);
+        assertEquals(annotations.size(), table.size());
+        for (int row = 0; row < table.size(); row++) {
+            assertSameAnnotation(annotations.get(row), table.toAnnotation(row));
+        }
+        assertEquals("[M+H]+", table.getAdduct(3));
+        assertNull(table.getAdduct(2));
+        assertEquals(annotations.get(4).getScore(), table.getScore(4));
+        assertEquals(annotations.get(4).getTotalScoresApplied(), table.getTotalScoresApplied(4));
+    }
+
+    @Test
+    public void shouldScoreRangesLikeTheScorer() {
+        AnnotationTable table = new AnnotationTable(4);
+        List<Annotation> expected = new ArrayList<>();
+        for (Annotation annotation : new RandomAnnotations(11).types(3).withPeaks().next(60)) {
+            table.add(annotation.getLipid(), annotation.getMz(), annotation.getIntensity(), annotation.getRtMin(),
+                    annotation.getIonization(), annotation.getGroupedPeaks());
+            expected.add(annotation);
+        }
+        new ElutionOrderScorer().score(expected.subList(0, 30));
+        new ElutionOrderScorer().score(expected.subList(30, 60));
+        table.score(new ElutionOrderScorer(), 0, 30);
+        table.score(new ElutionOrderScorer(), 30, 60);
+        new RtRegressionScorer().score(expected.subList(0, 30));
+        table.score(new RtRegressionScorer(), 0, 30);
+        assertFalse(Double.isNaN(table.getRtZScore(0)));
+        assertTrue(Double.isNaN(table.getRtZScore(30)));
+        assertEquals(expected.get(0).getNormalizedScore(), table.getNormalizedScore(0), 0);
+        assertEquals(expected.get(0).getScore(), table.getScore(0));
+        assertEquals(expected.get(0).getTotalScoresApplied(), table.getTotalScoresApplied(0));
+        for (int row = 0; row < table.size(); row++) {
+            assertSameAnnotation(expected.get(row), table.toAnnotation(row));
+        }
+    }
+
+    @Test
+    public void shouldMoveACursorOverTheRows() {
+        List<Annotation> annotations = new RandomAnnotations(3).types(3).withPeaks().next(10);
+        AnnotationTable table = AnnotationTable.of(annotations);
+        AnnotationTable.Cursor cursor = table.cursor();
+        assertEquals(-1, cursor.getRow());
+        int rows = 0;
+        while (cursor.next()) {
+            Annotation annotation = annotations.get(cursor.getRow());
+            assertSame(annotation.getLipid(), cursor.getLipid());
+            assertEquals(annotation.getMz(), cursor.getMz(), 0);
+            assertEquals(annotation.getRtMin(), cursor.getRtMin(), 0);
+            assertEquals(annotation.getGroupedSignals(), cursor.getGroupedSignals());
+            rows++;
+        }
+        assertEquals(10, rows);
+        assertFalse(cursor.next());
+
+        cursor.moveTo(2).addScore(ScoreRule.CARBON_COUNT_MISMATCH, 3);
+        cursor.setAdduct("[M+Na]+");
+        assertEquals(-3, table.getScore(2));
+        assertEquals(3, table.getScoresApplied(2, ScoreRule.CARBON_COUNT_MISMATCH));
+        assertEquals("[M+Na]+", table.getAdduct(2));
+        assertTrue(cursor.toString().contains("[M+Na]+"));
+    }
+
+    @Test
+    public void shouldShareTheGroupedPeaksOfRowsWithTheSamePeaks() {
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        PeakArray group = PeakArray.of(new double[]{760.585, 782.567, 761.588}, new double[]{1e6, 4e5, 3e5});
+        PeakArray other = PeakArray.of(new double[]{760.585, 782.567}, new double[]{1e6, 4e5});
+        AnnotationTable table = new AnnotationTable(1);
+        table.add(lipid, 760.585, 1e6, 7.5, Ionization.POSITIVE, group);
+        table.add(lipid, 782.567, 4e5, 7.5, Ionization.POSITIVE,
+                PeakArray.of(new double[]{782.567, 760.585, 761.588}, new double[]{4e5, 1e6, 3e5}));
+        table.add(lipid, 760.585, 1e6, 7.6, Ionization.POSITIVE, other);
+        table.add(lipid, 700.5, 1e5, 8.0, Ionization.POSITIVE);
+        table.add(lipid, 701.5, 1e5, 8.0, Ionization.POSITIVE);
+
+        assertEquals(3, table.getPeakSetCount());
+        assertEquals(table.getPeakSetId(0), table.getPeakSetId(1));
+        assertNotEquals(table.getPeakSetId(0), table.getPeakSetId(2));
+        assertEquals(table.getPeakSetId(3), table.getPeakSetId(4));
+        assertEquals(group.asSet(), table.getGroupedPeaks(1).asSet());
+        assertEquals(other.asSet(), table.getGroupedPeaks(2).asSet());
+        assertEquals(0, table.getGroupedPeaksCount(4));
+    }
+
+    @Test
+    public void shouldWidenCountersThatDoNotFitIn16Bits() {
+        AnnotationTable table = new AnnotationTable(1);
+        Lipid lipid = new Lipid(1, "PC 34:1", "C42H82NO8P", LipidType.PC, 34, 1);
+        table.add(lipid, 760.585, 1e6, 7.5, Ionization.POSITIVE);
+        table.add(lipid, 782.567, 1e5, 7.6, Ionization.POSITIVE);
+        table.addScore(0, ScoreRule.LIPID_TYPE_ORDER, 70_000);
+        table.addScore(1, ScoreRule.LIPID_TYPE_ORDER, 2);
+        assertEquals(70_000, table.getScoresApplied(0, ScoreRule.LIPID_TYPE_ORDER));
+        assertEquals(2, table.getScoresApplied(1, ScoreRule.LIPID_TYPE_ORDER));
+        assertEquals(70_000, table.toAnnotation(0).getScore());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldRejectRowsOutOfBounds() {
+        new AnnotationTable().getMz(0);
+    }
+
+    private static void assertSameAnnotation(Annotation expected, Annotation actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getAdduct(), actual.getAdduct());
+        assertEquals(expected.getIntensity(), actual.getIntensity(), 0);
+        assertEquals(expected.getIonization(), actual.getIonization());
+        assertEquals(expected.getGroupedSignals(), actual.getGroupedSignals());
+        assertEquals(expected.getScore(), actual.getScore());
+        assertEquals(expected.getTotalScoresApplied(), actual.getTotalScoresApplied());
+        assertEquals(expected.getRtZScore(), actual.getRtZScore(), 0);
+        assertEquals(expected.getNormalizedScore(), actual.getNormalizedScore(), 0);
+        for (ScoreRule rule : ScoreRule.values()) {
+            assertEquals(expected.getScoresApplied(rule), actual.getScoresApplied(rule));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package lipid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class AnnotationTest {
+
+    @Test
+    public void shouldAcceptAnnotationsWithoutLipidOrLipidType() {
+        Annotation withoutLipid = new Annotation(null, 700.5, 1e5, 5, Ionization.POSITIVE);
+        assertNull(withoutLipid.getLipid());
+
+        Annotation withoutType = new Annotation(new Lipid(1, "X 34:1", "", null, 34, 1), 700.5, 1e5, 5,
+                Ionization.POSITIVE);
+        Annotation typed = new Annotation(new Lipid(2, "PC 34:1", "", LipidType.PC, 34, 1), 700.5, 1e5, 6,
+                Ionization.POSITIVE);
+        assertNotEquals(typed.getTypeDoubleBondsKey(), withoutType.getTypeDoubleBondsKey());
+        assertNotEquals(typed.getTypeCarbonKey(), withoutType.getTypeCarbonKey());
+        assertEquals(typed.getCarbonDoubleBondsKey(), withoutType.getCarbonDoubleBondsKey());
+        assertNotEquals(typed.getCarbonDoubleBondsKey(), withoutLipid.getCarbonDoubleBondsKey());
+    }
+}
@@ -0,0 +1,132 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoElutionGrouperTest {
+
+    @Test
+    public void shouldGroupTheAdductsOfEachCompound() {
+        // [M+H]+, [M+Na]+ and [M+H-H2O]+ of two compounds, plus a feature without RT
+        double[] mzs = {700.500, 722.482, 682.489, 760.585, 782.567, 300.0};
+        double[] rts = {6.50, 6.51, 6.49, 8.02, 8.00, Double.NaN};
+        double[] intensities = {1e5, 8e4, 2e4, 9e4, 5e4, 1e3};
+
+        PeakGroups groups = new CoElutionGrouper(0.05, 0.8, 1, 2).group(mzs, rts, intensities);
+
+        assertEquals(3, groups.groupCount());
+        assertArrayEquals(new int[]{2, 0, 1}, groups.members(0));
+        assertArrayEquals(new int[]{4, 3}, groups.members(1));
+        assertArrayEquals(new int[]{5}, groups.members(2));
+        assertEquals(groups.groupOf(0), groups.groupOf(1));
+
+        Lipid lipid = new Lipid(1, "PC 34:1", "", LipidType.PC, 34, 1);
+        Annotation annotation = new Annotation(lipid, mzs[0], intensities[0], rts[0], Ionization.POSITIVE,
+                groups.peaksOfFeature(0));
+        assertEquals(3, annotation.getGroupedSignals().size());
+        assertEquals("[M+H]+", annotation.identifyAdduct());
+    }
+
+    @Test
+    public void shouldSeparateCoElutingFeaturesWithDifferentShapes() {
+        double[] mzs = {700.500, 722.482, 650.0};
+        double[] rts = {6.50, 6.51, 6.50};
+        double[] intensities = {1e5, 8e4, 5e4};
+        double[][] profiles = {
+                {1, 4, 9, 4, 1},
+                {1, 3, 8, 4, 2},
+                {9, 6, 2, 1, 1}};
+
+        PeakGroups groups = new CoElutionGrouper(0.05, 0.8, 1, 1).group(mzs, rts, intensities, profiles);
+
+        assertEquals(2, groups.groupCount());
+        assertEquals(groups.groupOf(0), groups.groupOf(1));
+        assertNotEquals(groups.groupOf(0), groups.groupOf(2));
+    }
+
+    @Test
+    public void shouldMergeGroupsAcrossSliceBoundaries() {
+        double[] mzs = {700.500, 722.482};
+        double[] rts = {0.99, 1.01};
+        double[] intensities = {1e5, 8e4};
+
+        PeakGroups groups = new CoElutionGrouper(0.05, 0.8, 1, 2).group(mzs, rts, intensities);
+
+        assertEquals(1, groups.groupCount());
+    }
+
+    /**
+     * The seeds at 0.97 and 1.01 merge across the boundary at 1, but the feature at 1.055, grouped with 1.01 in its
+     * slice, is 0.085 from 0.97: the group of 1.01 stays apart.
+     */
+    @Test
+    public void shouldNotChainGroupsAcrossSliceBoundaries() {
+        double[] mzs = {700.500, 722.482, 682.489};
+        double[] rts = {0.97, 1.01, 1.055};
+        double[] intensities = {1e5, 8e4, 5e4};
+
+        PeakGroups groups = new CoElutionGrouper(0.05, 0.8, 1, 2).group(mzs, rts, intensities);
+
+        assertEquals(2, groups.groupCount());
+        assertArrayEquals(new int[]{0}, groups.members(0));
+        assertArrayEquals(new int[]{1, 2}, groups.members(1));
+    }
+
+    @Test
+    public void shouldKeepEveryFeatureWithinToleranceOfItsSeed() {
+        Random random = new Random(151);
+        int n = 20_000;
+        double[] mzs = new double[n];
+        double[] rts = new double[n];
+        double[] intensities = new double[n];
+        for (int i = 0; i < n; i++) {
+            mzs[i] = 400 + random.nextDouble() * 600;
+            rts[i] = random.nextDouble() * 20;
+            intensities[i] = random.nextInt(1000) * 100d;
+        }
+
+        PeakGroups groups = new CoElutionGrouper(0.02, 0.8, 0.5, 4).group(mzs, rts, intensities);
+
+        for (int g = 0; g < groups.groupCount(); g++) {
+            // the seed is the most intense member, the first in RT order between equal intensities
+            int[] members = groups.members(g);
+            int seed = members[0];
+            for (int member : members) {
+                if (intensities[member] > intensities[seed]) seed = member;
+            }
+            for (int member : members) {
+                assertTrue(Math.abs(rts[member] - rts[seed]) <= 0.02);
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotDependOnTheNumberOfThreads() {
+        Random random = new Random(15);
+        int n = 20_000;
+        double[] mzs = new double[n];
+        double[] rts = new double[n];
+        double[] intensities = new double[n];
+        double[][] profiles = new double[n][];
+        for (int i = 0; i < n; i++) {
+            mzs[i] = 400 + random.nextDouble() * 600;
+            rts[i] = random.nextDouble() * 20;
+            intensities[i] = random.nextInt(1000) * 100d;
+            profiles[i] = new double[]{random.nextDouble(), 1 + random.nextDouble(), 2, 1 + random.nextDouble(), random.nextDouble()};
+        }
+
+        PeakGroups single = new CoElutionGrouper(0.02, 0.8, 0.5, 1).group(mzs, rts, intensities, profiles);
+        PeakGroups parallel = new CoElutionGrouper(0.02, 0.8, 0.5, 4).group(mzs, rts, intensities, profiles);
+
+        assertEquals(single.groupCount(), parallel.groupCount());
+        for (int i = 0; i < n; i++) {
+            assertEquals(single.groupOf(i), parallel.groupOf(i));
+        }
+    }
+}
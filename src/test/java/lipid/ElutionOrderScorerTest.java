@@ -0,0 +1,76 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ElutionOrderScorerTest {
+
+    /**
+     * The native scorer must give every annotation the same score and number of scores applied by each rule as the
+     * rules.
+     */
+    @Test
+    public void shouldScoreAsTheRulesOnRandomAnnotations() {
+        Random random = new Random(2024);
+        RandomAnnotations fixture = new RandomAnnotations(random).rt(12, 0.5);
+        for (int round = 0; round < 20; round++) {
+            int size = 5 + random.nextInt(40);
+            List<Annotation> byRules = fixture.next(size);
+            List<Annotation> byScorer = RandomAnnotations.copy(byRules);
+
+            ScoringMode.RULES.newScorer().score(byRules);
+            ScoringMode.ELUTION_ORDER.newScorer().score(byScorer);
+
+            for (int i = 0; i < size; i++) {
+                Annotation expected = byRules.get(i);
+                Annotation actual = byScorer.get(i);
+                assertEquals("score of " + expected, expected.getScore(), actual.getScore());
+                assertEquals("scores applied to " + expected, expected.getTotalScoresApplied(), actual.getTotalScoresApplied());
+                for (ScoreRule rule : ScoreRule.values()) {
+                    assertEquals(rule + " of " + expected, expected.getScoresApplied(rule), actual.getScoresApplied(rule));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldScoreAnnotationsWithoutLipidTypeAsTheRules() {
+        List<Annotation> byRules = new RandomAnnotations(5).rt(12, 0.5).next(30);
+        for (int i = 0; i < 6; i++) {
+            byRules.add(new Annotation(new Lipid(100 + i, "X 34:" + i, "", null, 32 + 2 * (i % 3), i % 3), 800 + i,
+                    1e5, 0.5 * i, Ionization.POSITIVE));
+        }
+        List<Annotation> byScorer = RandomAnnotations.copy(byRules);
+
+        ScoringMode.RULES.newScorer().score(byRules);
+        ScoringMode.ELUTION_ORDER.newScorer().score(byScorer);
+
+        for (int i = 0; i < byRules.size(); i++) {
+            for (ScoreRule rule : ScoreRule.values()) {
+                assertEquals(rule + " of " + byRules.get(i), byRules.get(i).getScoresApplied(rule),
+                        byScorer.get(i).getScoresApplied(rule));
+            }
+        }
+        assertEquals(LipidPriority.UNKNOWN, LipidPriority.priorityOf(null));
+    }
+
+    @Test
+    public void shouldScoreCarbonOrder() {
+        Lipid lipid1 = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        Lipid lipid2 = new Lipid(2, "TG 52:3", "C55H100O6", LipidType.TG, 52, 3);
+        Lipid lipid3 = new Lipid(3, "TG 56:3", "C59H108O6", LipidType.TG, 56, 3);
+        Annotation annotation1 = new Annotation(lipid1, 885.79056, 10E6, 10d, Ionization.POSITIVE);
+        Annotation annotation2 = new Annotation(lipid2, 857.7593, 10E7, 9d, Ionization.POSITIVE);
+        Annotation annotation3 = new Annotation(lipid3, 913.822, 10E5, 8d, Ionization.POSITIVE);
+
+        new ElutionOrderScorer().score(List.of(annotation1, annotation2, annotation3));
+
+        assertEquals(0d, annotation1.getNormalizedScore(), 0.01);
+        assertEquals(0d, annotation2.getNormalizedScore(), 0.01);
+        assertEquals(-1.0, annotation3.getNormalizedScore(), 0.01);
+    }
+}
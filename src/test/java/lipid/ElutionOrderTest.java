@@ -1,5 +1,7 @@
 package lipid;
 
+import metrics.MetricsSnapshot;
+import metrics.RuleMetrics;
 import org.drools.ruleunits.api.RuleUnitInstance;
 import org.drools.ruleunits.api.RuleUnitProvider;
 import org.junit.Before;
@@ -7,7 +9,11 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ElutionOrderTest {
     static final Logger LOG = LoggerFactory.getLogger(ElutionOrderTest.class);
@@ -292,4 +298,120 @@ public class ElutionOrderTest {
     }
 
 
+    /**
+     * The scenarios above scaled up to many families of lipids: identifying the adducts in the same firing must not
+     * run the joins of the score rules again, so the unit evaluates as many join constraints and fires every score
+     * rule as many times as when the adducts are already known.
+     */
+    @Test
+    public void adductIdentificationDoesNotRunTheJoinsAgain() {
+        List<CountingAnnotation> identified = scaledScenarios(200, null);
+        List<CountingAnnotation> known = scaledScenarios(200, "[M+H]+");
+        MetricsSnapshot identifying = fire(identified);
+        MetricsSnapshot notIdentifying = fire(known);
+
+        int n = identified.size();
+        assertEquals(n, firings(identifying, "identify adduct"));
+        assertEquals(0, identifying.getUpdated());
+        assertEquals(evaluations(known), evaluations(identified));
+        for (ScoreRule rule : ScoreRule.values()) {
+            assertEquals(firings(notIdentifying, rule.getRuleName()), firings(identifying, rule.getRuleName()));
+        }
+        for (int i = 0; i < n; i++) {
+            assertTrue(identified.get(i).getAdduct() != null);
+            assertEquals(known.get(i).getScore(), identified.get(i).getScore());
+            assertEquals(known.get(i).getTotalScoresApplied(), identified.get(i).getTotalScoresApplied());
+        }
+    }
+
+    private static MetricsSnapshot fire(List<CountingAnnotation> annotations) {
+        RuleMetrics metrics = new RuleMetrics("elution-order-joins");
+        LipidScoreUnit lipidScoreUnit = new LipidScoreUnit();
+        RuleUnitInstance<LipidScoreUnit> instance = RuleUnitProvider.get()
+                .createRuleUnitInstance(lipidScoreUnit, metrics.newRuleConfig());
+        try {
+            annotations.forEach(lipidScoreUnit::addAnnotation);
+            metrics.fire(instance);
+        } finally {
+            instance.close();
+        }
+        return metrics.snapshot();
+    }
+
+    private static long firings(MetricsSnapshot metrics, String ruleName) {
+        MetricsSnapshot.RuleSnapshot rule = metrics.getRule(ruleName);
+        return rule == null ? 0 : rule.getFirings();
+    }
+
+    private static long evaluations(List<CountingAnnotation> annotations) {
+        long evaluations = 0;
+        for (CountingAnnotation annotation : annotations) evaluations += annotation.reads;
+        return evaluations;
+    }
+
+    /**
+     * Per family (one lipid type and number of double bonds): TG 52, 54 and 56 eluting in carbon order, as in
+     * {@link #score1BasedOnRTCarbonNumbers()}, and one with more carbons eluting first
+     */
+    private static List<CountingAnnotation> scaledScenarios(int families, String adduct) {
+        LipidType[] types = LipidType.values();
+        int[] carbons = {52, 54, 56, 58};
+        double[] rts = {9, 10, 11, 8};
+        List<CountingAnnotation> annotations = new ArrayList<>();
+        for (int family = 0; family < families; family++) {
+            LipidType type = types[family % types.length];
+            int doubleBonds = family / types.length;
+            for (int i = 0; i < carbons.length; i++) {
+                Lipid lipid = new Lipid(annotations.size(), type + " " + carbons[i] + ":" + doubleBonds, "", type,
+                        carbons[i], doubleBonds);
+                CountingAnnotation annotation = new CountingAnnotation(lipid, 800 + carbons[i] + doubleBonds,
+                        rts[i] + 0.01 * family);
+                annotation.setAdduct(adduct);
+                annotations.add(annotation);
+            }
+        }
+        return annotations;
+    }
+
+    /**
+     * Counts the reads of the properties the score rules join on
+     */
+    private static final class CountingAnnotation extends Annotation {
+        private long reads;
+
+        CountingAnnotation(Lipid lipid, double mz, double rt) {
+            super(lipid, mz, 10E6, rt, Ionization.POSITIVE);
+        }
+
+        @Override
+        public double getRtMin() {
+            reads++;
+            return super.getRtMin();
+        }
+
+        @Override
+        public Lipid getLipid() {
+            reads++;
+            return super.getLipid();
+        }
+
+        @Override
+        public int getTypeDoubleBondsKey() {
+            reads++;
+            return super.getTypeDoubleBondsKey();
+        }
+
+        @Override
+        public int getTypeCarbonKey() {
+            reads++;
+            return super.getTypeCarbonKey();
+        }
+
+        @Override
+        public int getCarbonDoubleBondsKey() {
+            reads++;
+            return super.getCarbonDoubleBondsKey();
+        }
+    }
+
 }
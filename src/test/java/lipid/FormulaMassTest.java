@@ -0,0 +1,35 @@
+package lipid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FormulaMassTest {
+
+    private static final double PROTON = 1.007276;
+
+    @Test
+    public void shouldComputeLipidMasses() {
+        // [M+H]+ values of ElutionOrderTest
+        assertEquals(885.79057, FormulaMass.of("C57H104O6") + PROTON, 1e-4);
+        assertEquals(857.75927, FormulaMass.of("C55H100O6") + PROTON, 1e-4);
+        assertEquals(759.5778, FormulaMass.of("C42H82NO8P"), 1e-4);
+        assertEquals(22.98977 + 34.96885, FormulaMass.of("NaCl"), 1e-4);
+        assertEquals(0.0, FormulaMass.of(""), 0);
+    }
+
+    @Test
+    public void shouldDeriveLipidMassFromFormula() {
+        Lipid lipid = new Lipid(1, "TG 54:3", "C57H104O6", LipidType.TG, 54, 3);
+        assertEquals(0.0, lipid.getMonoisotropic(), 0);
+        assertEquals(FormulaMass.compute("C57H104O6"), lipid.getMonoisotopicMass(), 0);
+
+        lipid.setMonoisotropic(884.0);
+        assertEquals(884.0, lipid.getMonoisotopicMass(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownElements() {
+        FormulaMass.of("C57Xx104O6");
+    }
+}
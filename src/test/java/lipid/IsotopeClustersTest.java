@@ -0,0 +1,62 @@
+package lipid;
+
+import adduct.AdductRegistry;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class IsotopeClustersTest {
+
+    private static final double C13 = IsotopeClusters.C13_DELTA;
+
+    @Test
+    public void shouldFoldSinglyChargedEnvelope() {
+        PeakArray peaks = PeakArray.of(Set.of(
+                new Peak(700.500, 100000.0),            // [M+H]+
+                new Peak(700.500 + C13, 45000.0),
+                new Peak(700.500 + 2 * C13, 12000.0),
+                new Peak(722.482, 80000.0),             // [M+Na]+
+                new Peak(722.482 + C13, 36000.0)));
+
+        IsotopeClusters clusters = IsotopeClusters.detect(peaks, AdductRegistry.forIonization(Ionization.POSITIVE), 10, 700.5);
+
+        assertEquals(3, clusters.getIsotopeCount());
+        assertArrayEquals(new double[]{700.500, 722.482}, clusters.getMonoisotopicMzs(), 0);
+        assertArrayEquals(new int[]{1, 1}, clusters.getCharges());
+
+        Lipid lipid = new Lipid(1, "PC 34:1", "", LipidType.PC, 34, 1);
+        Annotation annotation = new Annotation(lipid, 700.500, 100000.0, 6.5, Ionization.POSITIVE, peaks);
+        assertEquals("[M+H]+", annotation.identifyAdduct());
+    }
+
+    @Test
+    public void shouldDetectDoublyChargedEnvelope() {
+        PeakArray peaks = PeakArray.of(Set.of(
+                new Peak(350.754, 85000.0),             // [M+2H]2+
+                new Peak(350.754 + C13 / 2, 40000.0),
+                new Peak(350.754 + C13, 10000.0),
+                new Peak(700.500, 100000.0)));
+
+        IsotopeClusters clusters = IsotopeClusters.detect(peaks, AdductRegistry.forIonization(Ionization.POSITIVE), 10, 700.5);
+
+        assertEquals(2, clusters.getIsotopeCount());
+        assertArrayEquals(new double[]{350.754, 700.500}, clusters.getMonoisotopicMzs(), 0);
+        assertArrayEquals(new int[]{2, 0}, clusters.getCharges());
+    }
+
+    @Test
+    public void shouldKeepAnnotatedAndMoreIntensePeaks() {
+        PeakArray peaks = PeakArray.of(Set.of(
+                new Peak(699.4967, 50000.0),
+                new Peak(700.500, 40000.0),             // annotated peak, 1.00336 above the first one
+                new Peak(701.5034, 60000.0)));          // more intense than its monoisotopic peak
+
+        IsotopeClusters clusters = IsotopeClusters.detect(peaks, AdductRegistry.forIonization(Ionization.POSITIVE), 10, 700.5);
+
+        assertEquals(0, clusters.getIsotopeCount());
+        assertEquals(3, clusters.getMonoisotopicMzs().length);
+    }
+}
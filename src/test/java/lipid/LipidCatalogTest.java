@@ -0,0 +1,79 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LipidCatalogTest {
+
+    @Test
+    public void shouldParseShorthandNames() {
+        assertShorthand("TG 54:3", LipidType.TG, 54, 3);
+        assertShorthand("PC 16:0_18:1", LipidType.PC, 34, 1);
+        assertShorthand("PE(18:0/20:4)", LipidType.PE, 38, 4);
+        assertShorthand("pc O-34:1", LipidType.PC, 34, 1);
+        assertShorthand("PI 38:4;O2", LipidType.PI, 38, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownClasses() {
+        LipidCatalog.parseName("Cer 42:1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectWrongChains() {
+        LipidCatalog.parseName("PC 34");
+    }
+
+    @Test
+    public void shouldIndexLipidsByTypeAndChains() {
+        List<Lipid> lipids = new ArrayList<>();
+        String[] names = {"TG 54:3", "PC 34:1", "PC 36:2", "TG 52:2", "PC 34:1", "PE 36:2", "PC 34:0"};
+        for (int i = 0; i < names.length; i++) {
+            lipids.add(LipidCatalog.newLipid(100 - i, names[i], ""));
+        }
+        // same compound id, the first lipid is kept
+        lipids.add(LipidCatalog.newLipid(100, "TG 50:0", ""));
+        LipidCatalog catalog = LipidCatalog.of(lipids);
+
+        assertEquals(7, catalog.size());
+        for (int index = 0; index < catalog.size(); index++) {
+            assertEquals(index, catalog.indexOf(catalog.get(index).getCompoundId()));
+            assertEquals(catalog.get(index).getLipidType(), catalog.getLipidType(index));
+        }
+        assertSame(lipids.get(0), catalog.getByCompoundId(100));
+        assertNull(catalog.getByCompoundId(7));
+        assertEquals(-1, catalog.indexOf(7));
+        assertSame(lipids.get(1), catalog.intern(new Lipid(99, "PC 34:1", "", LipidType.PC, 34, 1)));
+
+        assertEquals(4, catalog.typeEnd(LipidType.PC) - catalog.typeStart(LipidType.PC));
+        assertEquals(0, catalog.typeEnd(LipidType.PS) - catalog.typeStart(LipidType.PS));
+        int from = catalog.chainsStart(LipidType.PC, 34, 1);
+        int to = catalog.chainsEnd(LipidType.PC, 34, 1);
+        assertEquals(2, to - from);
+        for (int index = from; index < to; index++) {
+            assertEquals("PC 34:1", catalog.get(index).getName());
+        }
+        assertEquals(0, catalog.chainsEnd(LipidType.TG, 53, 0) - catalog.chainsStart(LipidType.TG, 53, 0));
+
+        int[] counts = catalog.countByType(new int[]{0, 1, 2, 3, 4, 5, 6});
+        int[] expected = new int[LipidType.values().length];
+        expected[LipidType.PC.ordinal()] = 4;
+        expected[LipidType.PE.ordinal()] = 1;
+        expected[LipidType.TG.ordinal()] = 2;
+        assertArrayEquals(expected, counts);
+    }
+
+    private static void assertShorthand(String name, LipidType type, int carbons, int doubleBonds) {
+        LipidCatalog.Shorthand shorthand = LipidCatalog.parseName(name);
+        assertEquals(type, shorthand.getLipidType());
+        assertEquals(carbons, shorthand.getCarbonCount());
+        assertEquals(doubleBonds, shorthand.getDoubleBondsCount());
+    }
+}
@@ -0,0 +1,101 @@
+package lipid;
+
+import adduct.Adduct;
+import adduct.AdductDescriptor;
+import adduct.AdductRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LipidIndexTest {
+
+    private static final int PPM = 10;
+
+    @Test
+    public void shouldFindLipidUnderItsAdduct() {
+        Lipid pc = lipid(1, 759.5778);
+        Lipid pe = lipid(2, 717.5309);
+        LipidIndex index = LipidIndex.of(List.of(pc, pe, lipid(3, 0)));
+        assertEquals(2, index.size());
+        assertEquals(2, index.getCompoundId(0));
+
+        double mz = Adduct.getMZFromMonoisotopicMass(759.5778, AdductRegistry.get("[M+Na]+"));
+        List<String> adducts = new ArrayList<>();
+        index.lookup(mz, Ionization.POSITIVE, PPM, (mzIndex, lipidIndex, adduct) -> {
+            assertEquals(pc, index.getLipid(lipidIndex));
+            adducts.add(adduct.getName());
+        });
+        assertEquals(List.of("[M+Na]+"), adducts);
+        assertEquals(List.of(pc), index.candidates(mz, Ionization.POSITIVE, PPM));
+    }
+
+    /**
+     * Single and merge join lookups must give the matches of a linear scan over the database.
+     */
+    @Test
+    public void shouldMatchLinearScan() {
+        Random random = new Random(3);
+        List<Lipid> lipids = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            lipids.add(lipid(i, 300 + random.nextInt(1_000_000) / 1000d));
+        }
+        LipidIndex index = LipidIndex.of(lipids);
+        double[] mzs = new double[2000];
+        for (int i = 0; i < mzs.length; i++) {
+            mzs[i] = i % 2 == 0 ? 200 + random.nextDouble() * 1200
+                    : Adduct.getMZFromMonoisotopicMass(lipids.get(random.nextInt(lipids.size())).getMonoisotropic(),
+                    AdductRegistry.forIonization(Ionization.NEGATIVE).get(random.nextInt(3)));
+        }
+        Arrays.sort(mzs);
+
+        List<String> expected = new ArrayList<>();
+        List<String> single = new ArrayList<>();
+        for (int m = 0; m < mzs.length; m++) {
+            for (AdductDescriptor adduct : AdductRegistry.forIonization(Ionization.NEGATIVE)) {
+                double mass = Adduct.getMonoisotopicMassFromMZ(mzs[m], adduct);
+                List<Integer> ids = new ArrayList<>();
+                for (Lipid lipid : lipids) {
+                    if (Math.abs(lipid.getMonoisotropic() - mass) <= mass * PPM / 1e6) ids.add(lipid.getCompoundId());
+                }
+                ids.sort(null);
+                for (int id : ids) expected.add(m + " " + id + " " + adduct.getName());
+            }
+            int mzIndex = m;
+            List<String> matches = new ArrayList<>();
+            index.lookup(mzs[m], Ionization.NEGATIVE, PPM,
+                    (zero, lipidIndex, adduct) -> matches.add(mzIndex + " " + index.getCompoundId(lipidIndex) + " " + adduct.getName()));
+            single.addAll(matches);
+        }
+        List<String> merged = new ArrayList<>();
+        index.lookupSorted(mzs, Ionization.NEGATIVE, PPM,
+                (mzIndex, lipidIndex, adduct) -> merged.add(mzIndex + " " + index.getCompoundId(lipidIndex) + " " + adduct.getName()));
+
+        assertTrue(expected.size() > mzs.length / 2);
+        assertEquals(sorted(expected), sorted(single));
+        assertEquals(single, merged);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnsortedColumn() {
+        LipidIndex.of(List.of(lipid(1, 700))).lookupSorted(new double[]{701, 700}, Ionization.POSITIVE, PPM,
+                (mzIndex, lipidIndex, adduct) -> { });
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        copy.sort(null);
+        return copy;
+    }
+
+    private static Lipid lipid(int id, double mass) {
+        Lipid lipid = new Lipid(id, "PC " + id, "", LipidType.PC, 34, 1);
+        lipid.setMonoisotropic(mass);
+        return lipid;
+    }
+}
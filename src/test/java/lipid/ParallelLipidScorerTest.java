@@ -0,0 +1,40 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelLipidScorerTest {
+
+    @Test
+    public void shouldScoreAsASingleRuleUnitOnPlatformThreads() {
+        assertSameScoresAsRules(new ParallelLipidScorer(3, false));
+    }
+
+    @Test
+    public void shouldScoreAsASingleRuleUnitOnVirtualThreads() {
+        assertSameScoresAsRules(new ParallelLipidScorer(4, true));
+    }
+
+    private static void assertSameScoresAsRules(LipidScorer scorer) {
+        List<Annotation> byRules = new RandomAnnotations(99).rt(20, 0.5).next(60);
+        for (int i = 0; i < 4; i++) {
+            byRules.add(new Annotation(new Lipid(100 + i, "X 34:" + i, "", null, 34, i % 2), 800 + i, 1e5, 2 + i,
+                    Ionization.POSITIVE));
+        }
+        List<Annotation> byShards = RandomAnnotations.copy(byRules);
+
+        new RuleUnitLipidScorer().score(byRules);
+        scorer.score(byShards);
+
+        for (int i = 0; i < byRules.size(); i++) {
+            Annotation expected = byRules.get(i);
+            Annotation actual = byShards.get(i);
+            assertEquals("score of " + expected, expected.getScore(), actual.getScore());
+            assertEquals("scores applied to " + expected, expected.getTotalScoresApplied(), actual.getTotalScoresApplied());
+            assertEquals("adduct of " + expected, expected.getAdduct(), actual.getAdduct());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package lipid;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random annotations for the tests that compare scorers. Attributes take few values (carbons 32, 34 or 36, 0 to 2
+ * double bonds, RTs on a grid), so there are ties in every attribute and most rules match. Annotation i has m/z
+ * 700 + i.
+ */
+public final class RandomAnnotations {
+
+    private static final LipidType[] TYPES = LipidType.values();
+
+    private final Random random;
+    private int types = TYPES.length;
+    private int rtSteps = 40;
+    private double rtStep = 0.25;
+    private boolean peaks;
+    private boolean sortedByRt;
+
+    public RandomAnnotations(Random random) {
+        this.random = random;
+    }
+
+    public RandomAnnotations(long seed) {
+        this(new Random(seed));
+    }
+
+    /**
+     * @param types number of lipid types, the first ones of {@link LipidType}
+     */
+    public RandomAnnotations types(int types) {
+        this.types = types;
+        return this;
+    }
+
+    /**
+     * RTs are one of 0, step, ..., (steps - 1) * step
+     */
+    public RandomAnnotations rt(int steps, double step) {
+        this.rtSteps = steps;
+        this.rtStep = step;
+        return this;
+    }
+
+    /**
+     * Every annotation has its monoisotopic peak, the M+1 isotopologue and the [M+Na]+ peak of [M+H]+
+     */
+    public RandomAnnotations withPeaks() {
+        this.peaks = true;
+        return this;
+    }
+
+    public RandomAnnotations sortedByRt() {
+        this.sortedByRt = true;
+        return this;
+    }
+
+    public List<Annotation> next(int size) {
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            LipidType type = TYPES[random.nextInt(types)];
+            int carbons = 32 + 2 * random.nextInt(3);
+            int doubleBonds = random.nextInt(3);
+            Lipid lipid = new Lipid(i, type + " " + carbons + ":" + doubleBonds, "", type, carbons, doubleBonds);
+            double mz = 700 + i;
+            double rt = random.nextInt(rtSteps) * rtStep;
+            annotations.add(peaks
+                    ? new Annotation(lipid, mz, 1e5, rt, Ionization.POSITIVE, PeakArray.of(
+                            new double[]{mz, mz + 1.00335, mz + 21.98194}, new double[]{1e5, 4e4, 2e4}))
+                    : new Annotation(lipid, mz, 1e5, rt, Ionization.POSITIVE));
+        }
+        if (sortedByRt) annotations.sort(Comparator.comparingDouble(Annotation::getRtMin));
+        return annotations;
+    }
+
+    /**
+     * @return new annotations with the same lipids, m/z, intensities, RTs and peaks, not scored yet
+     */
+    public static List<Annotation> copy(List<Annotation> annotations) {
+        List<Annotation> copy = new ArrayList<>();
+        for (Annotation a : annotations) {
+            copy.add(new Annotation(a.getLipid(), a.getMz(), a.getIntensity(), a.getRtMin(), a.getIonization(),
+                    a.getGroupedPeaks()));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,154 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RtRegressionScorerTest {
+
+    @Test
+    public void shouldFitEachClassRobustly() {
+        Random random = new Random(21);
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            annotations.add(annotation(i, LipidType.PC, random, 0.05));
+            annotations.add(annotation(i, LipidType.TG, random, 0.05));
+        }
+        // wrong annotations far from the line of PC
+        for (int i = 0; i < 100; i++) {
+            annotations.add(new Annotation(lipid(5000 + i, LipidType.PC, 34, 1), 700, 1e5, 30, Ionization.POSITIVE));
+        }
+        RtRegressionModel model = new RtRegressionModel();
+        model.addAll(annotations);
+        model.fit();
+        double ordinaryIntercept = model.getCoefficients(LipidType.PC)[0];
+        model.reset();
+        model.addAll(annotations);
+        model.fit();
+
+        double[] pc = model.getCoefficients(LipidType.PC);
+        assertEquals(rt(LipidType.PC, 0, 0), pc[0], 0.3);
+        assertEquals(0.25, pc[1], 0.01);
+        assertEquals(-0.4, pc[2], 0.02);
+        assertTrue(Math.abs(pc[0] - rt(LipidType.PC, 0, 0)) < Math.abs(ordinaryIntercept - rt(LipidType.PC, 0, 0)));
+        double[] tg = model.getCoefficients(LipidType.TG);
+        assertEquals(0.25, tg[1], 0.01);
+        assertEquals(-0.4, tg[2], 0.01);
+        assertEquals(0.05, model.getSigma(LipidType.TG), 0.01);
+        assertFalse(model.isFitted(LipidType.PE));
+    }
+
+    @Test
+    public void shouldScoreByResidual() {
+        Random random = new Random(4);
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            annotations.add(annotation(i, LipidType.PE, random, 0.1));
+        }
+        Annotation outlier = new Annotation(lipid(999, LipidType.PE, 36, 2), 700, 1e5, rt(LipidType.PE, 36, 2) + 3,
+                Ionization.POSITIVE);
+        Annotation exact = new Annotation(lipid(998, LipidType.PE, 36, 2), 700, 1e5, rt(LipidType.PE, 36, 2),
+                Ionization.POSITIVE);
+        Annotation alone = new Annotation(lipid(997, LipidType.PS, 36, 2), 700, 1e5, 5, Ionization.POSITIVE);
+        annotations.add(outlier);
+        annotations.add(exact);
+        annotations.add(alone);
+
+        LipidScorer scorer = ScoringMode.RT_REGRESSION.newScorer();
+        scorer.score(annotations);
+
+        assertTrue(outlier.getRtZScore() > 5);
+        assertEquals(-1.0, outlier.getNormalizedScore(), 1e-6);
+        assertEquals(-1, outlier.getScore());
+        assertEquals(0, exact.getRtZScore(), 0.5);
+        assertEquals(1.0, exact.getNormalizedScore(), 0.2);
+        assertEquals(1, exact.getScore());
+        assertTrue(Double.isNaN(alone.getRtZScore()));
+        assertEquals(0, alone.getTotalScoresApplied());
+        double[] normalized = new double[annotations.size()];
+        for (int i = 0; i < normalized.length; i++) {
+            Annotation annotation = annotations.get(i);
+            if (annotation == alone) continue;
+            normalized[i] = annotation.getNormalizedScore();
+            // one score applied, worth exactly the RT score and not a rounding of it
+            assertEquals(1, annotation.getTotalScoresApplied());
+            assertEquals(annotation.getRtScore(), normalized[i], 0);
+            assertEquals(2 * Math.exp(-0.5 * annotation.getRtZScore() * annotation.getRtZScore()) - 1, normalized[i],
+                    1e-12);
+        }
+
+        // scoring again replaces the z-scores instead of adding to them
+        scorer.score(annotations);
+        for (int i = 0; i < normalized.length; i++) {
+            Annotation annotation = annotations.get(i);
+            if (annotation == alone) continue;
+            assertEquals(normalized[i], annotation.getNormalizedScore(), 0);
+            assertEquals(1, annotation.getTotalScoresApplied());
+        }
+    }
+
+    @Test
+    public void shouldClearTheZScoreOfAnnotationsThatCannotBeScored() {
+        Annotation annotation = new Annotation(lipid(1, LipidType.PC, 34, 1), 700, 1e5, 5, Ionization.POSITIVE);
+        annotation.setRtZScore(1.5);
+        Annotation untyped = new Annotation(new Lipid(2, "X 34:1", "", null, 34, 1), 700, 1e5, 5,
+                Ionization.POSITIVE);
+
+        new RtRegressionScorer().score(List.of(annotation, untyped));
+
+        assertTrue(Double.isNaN(annotation.getRtZScore()));
+        assertEquals(0, annotation.getTotalScoresApplied());
+        assertTrue(Double.isNaN(untyped.getRtZScore()));
+    }
+
+    @Test
+    public void shouldRefitASharedModelIncrementally() {
+        Random random = new Random(8);
+        RtRegressionModel model = new RtRegressionModel();
+        RtRegressionScorer scorer = new RtRegressionScorer(model, 0);
+        for (int batch = 0; batch < 10; batch++) {
+            List<Annotation> annotations = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                annotations.add(annotation(batch * 100 + i, LipidType.PC, random, 0.05));
+            }
+            scorer.score(annotations);
+        }
+        assertEquals(1000, model.getCount(LipidType.PC));
+        assertEquals(0.25, model.getCoefficients(LipidType.PC)[1], 0.01);
+        assertEquals(-0.4, model.getCoefficients(LipidType.PC)[2], 0.01);
+    }
+
+    @Test
+    public void shouldDropTermsThatCannotBeEstimated() {
+        RtRegressionModel model = new RtRegressionModel();
+        for (int i = 0; i < 5; i++) {
+            model.add(new Annotation(lipid(i, LipidType.TG, 54, i), 900, 1e5, 20 - 0.5 * i, Ionization.POSITIVE));
+        }
+        model.fit();
+        double[] tg = model.getCoefficients(LipidType.TG);
+        assertEquals(0, tg[1], 0);
+        assertEquals(-0.5, tg[2], 1e-9);
+        assertEquals(18.5, model.predict(LipidType.TG, 54, 3), 1e-9);
+    }
+
+    private static Annotation annotation(int id, LipidType type, Random random, double noise) {
+        int carbons = 30 + 2 * random.nextInt(12);
+        int doubleBonds = random.nextInt(6);
+        double rt = rt(type, carbons, doubleBonds) + noise * random.nextGaussian();
+        return new Annotation(lipid(id, type, carbons, doubleBonds), 700, 1e5, rt, Ionization.POSITIVE);
+    }
+
+    private static double rt(LipidType type, int carbons, int doubleBonds) {
+        return type.ordinal() + 0.25 * carbons - 0.4 * doubleBonds;
+    }
+
+    private static Lipid lipid(int id, LipidType type, int carbons, int doubleBonds) {
+        return new Lipid(id, type + " " + carbons + ":" + doubleBonds, "", type, carbons, doubleBonds);
+    }
+}
@@ -0,0 +1,141 @@
+package lipid;
+
+import metrics.RuleMetrics;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RuleUnitPoolTest {
+
+    @Test
+    public void shouldScoreEverySampleAsAFreshInstance() {
+        RandomAnnotations fixture = new RandomAnnotations(17).types(3);
+        RuleUnitPool<LipidScoreUnit> pool = new RuleUnitPool<>(LipidScoreUnit::new, LipidScoreUnit::getAnnotations,
+                new RuleMetrics("pool-test"), 1, 30, 1000);
+        RuleUnitLipidScorer pooled = new RuleUnitLipidScorer(pool);
+        for (int sample = 0; sample < 20; sample++) {
+            List<Annotation> annotations = fixture.next(30);
+            List<Annotation> expected = RandomAnnotations.copy(annotations);
+            pooled.score(annotations);
+            new ElutionOrderScorer().score(expected);
+            for (int i = 0; i < annotations.size(); i++) {
+                for (ScoreRule rule : ScoreRule.values()) {
+                    assertEquals(expected.get(i).getScoresApplied(rule), annotations.get(i).getScoresApplied(rule));
+                }
+            }
+        }
+        assertEquals(1, pool.getCreated());
+        assertEquals(20, pool.getBorrowed());
+        pool.close();
+    }
+
+    @Test
+    public void shouldHandOutEmptyInstances() {
+        RuleUnitPool<AnnotationUnit> pool = new RuleUnitPool<>(AnnotationUnit::new, AnnotationUnit::getAnnotations,
+                new RuleMetrics("pool-test-adducts"), 2, 100, 10_000);
+        pool.prewarm(2);
+        assertEquals(2, pool.getIdle());
+
+        AnnotationUnit unit;
+        try (RuleUnitPool<AnnotationUnit>.Lease lease = pool.borrow()) {
+            unit = lease.getUnit();
+            lease.addAll(new RandomAnnotations(3).types(3).next(5));
+            lease.fire();
+            assertFalse(lease.getInstance().executeQuery("FindMadeAnnotation").toList().isEmpty());
+        }
+        // idle instances are handed out in the order they were returned
+        pool.borrow().close();
+        try (RuleUnitPool<AnnotationUnit>.Lease lease = pool.borrow()) {
+            assertSame(unit, lease.getUnit());
+            assertEquals(0, lease.getInstance().executeQuery("FindMadeAnnotation").toList().size());
+        }
+        assertEquals(2, pool.getCreated());
+        pool.close();
+        assertEquals(0, pool.getIdle());
+    }
+
+    @Test
+    public void shouldCloseInstancesOfLargeSamples() {
+        RuleUnitPool<LipidScoreUnit> pool = RuleUnitPool.forScoring(new RuleMetrics("pool-test-large"));
+        pool.prewarm(1);
+        assertEquals(1, pool.getIdle());
+
+        LipidScoreUnit unit;
+        try (RuleUnitPool<LipidScoreUnit>.Lease lease = pool.borrow()) {
+            unit = lease.getUnit();
+            lease.addAll(new RandomAnnotations(5).next(RuleUnitPool.DEFAULT_MAX_REUSED_SIZE));
+            lease.fire();
+        }
+        assertEquals(1, pool.getIdle());
+        try (RuleUnitPool<LipidScoreUnit>.Lease lease = pool.borrow()) {
+            assertSame(unit, lease.getUnit());
+            lease.addAll(new RandomAnnotations(5).next(RuleUnitPool.DEFAULT_MAX_REUSED_SIZE + 1));
+            lease.fire();
+        }
+        assertEquals(0, pool.getIdle());
+        try (RuleUnitPool<LipidScoreUnit>.Lease lease = pool.borrow()) {
+            assertNotSame(unit, lease.getUnit());
+        }
+        assertEquals(2, pool.getCreated());
+    }
+
+    @Test
+    public void shouldCloseInstancesThatRetractedMaxRetracted() {
+        RuleUnitPool<LipidScoreUnit> pool = new RuleUnitPool<>(LipidScoreUnit::new, LipidScoreUnit::getAnnotations,
+                new RuleMetrics("pool-test-retracted"), 1, 10, 15);
+        RandomAnnotations fixture = new RandomAnnotations(9).types(3);
+        for (int sample = 0; sample < 4; sample++) {
+            try (RuleUnitPool<LipidScoreUnit>.Lease lease = pool.borrow()) {
+                lease.addAll(fixture.next(5));
+                lease.fire();
+            }
+        }
+        // the third sample reaches 15 retracted annotations
+        assertEquals(2, pool.getCreated());
+    }
+
+    @Test
+    public void shouldNotRetainTheAnnotationsOfPreviousLeases() throws InterruptedException {
+        RuleUnitPool<LipidScoreUnit> pool = new RuleUnitPool<>(LipidScoreUnit::new, LipidScoreUnit::getAnnotations,
+                new RuleMetrics("pool-test-retained"), 1, 10, Long.MAX_VALUE);
+        RandomAnnotations fixture = new RandomAnnotations(11).types(3);
+        List<WeakReference<Annotation>> retracted = new ArrayList<>();
+        for (int sample = 0; sample < 200; sample++) {
+            score(pool, fixture, retracted);
+        }
+        assertEquals(1, pool.getCreated());
+        // the engine may hold the facts of the last sample until the instance is used again
+        assertTrue(collected(retracted.subList(0, retracted.size() - 5)));
+        pool.close();
+    }
+
+    private static void score(RuleUnitPool<LipidScoreUnit> pool, RandomAnnotations fixture,
+                              List<WeakReference<Annotation>> retracted) {
+        try (RuleUnitPool<LipidScoreUnit>.Lease lease = pool.borrow()) {
+            for (Annotation annotation : fixture.next(5)) {
+                lease.add(annotation);
+                retracted.add(new WeakReference<>(annotation));
+            }
+            lease.fire();
+        }
+    }
+
+    static boolean collected(List<WeakReference<Annotation>> references) throws InterruptedException {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            System.gc();
+            if (references.stream().allMatch(reference -> reference.get() == null)) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+}
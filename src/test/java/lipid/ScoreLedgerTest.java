@@ -0,0 +1,78 @@
+package lipid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScoreLedgerTest {
+
+    @Test
+    public void shouldKeepScoresPerRule() {
+        Annotation annotation = new Annotation(new Lipid(1, "PC 34:1", "", LipidType.PC, 34, 1), 760.58, 1e5, 5, Ionization.POSITIVE);
+        annotation.addScore(ScoreRule.CARBON_COUNT_ORDER);
+        annotation.addScore(ScoreRule.LIPID_TYPE_MISMATCH, 3);
+        annotation.addScore(2);
+
+        assertEquals(1, annotation.getScore(ScoreRule.CARBON_COUNT_ORDER));
+        assertEquals(-3, annotation.getScore(ScoreRule.LIPID_TYPE_MISMATCH));
+        assertEquals(3, annotation.getScoresApplied(ScoreRule.LIPID_TYPE_MISMATCH));
+        assertEquals(0, annotation.getScoresApplied(ScoreRule.DOUBLE_BOND_ORDER));
+        assertEquals(0, annotation.getScore());
+        assertEquals(5, annotation.getTotalScoresApplied());
+
+        annotation.setScore(10);
+        assertEquals(10, annotation.getScore());
+        assertEquals(5, annotation.getTotalScoresApplied());
+        assertEquals(2.0, annotation.getNormalizedScore(), 0);
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentScores() throws InterruptedException {
+        Annotation annotation = new Annotation(new Lipid(1, "PC 34:1", "", LipidType.PC, 34, 1), 760.58, 1e5, 5, Ionization.POSITIVE);
+        int threads = 8;
+        int times = 20_000;
+        List<Thread> scorers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            ScoreRule rule = t % 2 == 0 ? ScoreRule.DOUBLE_BOND_ORDER : ScoreRule.DOUBLE_BOND_MISMATCH;
+            scorers.add(new Thread(() -> {
+                for (int i = 0; i < times; i++) annotation.addScore(rule);
+            }));
+        }
+        scorers.forEach(Thread::start);
+        for (Thread scorer : scorers) scorer.join();
+
+        assertEquals(threads / 2 * times, annotation.getScore(ScoreRule.DOUBLE_BOND_ORDER));
+        assertEquals(-threads / 2 * times, annotation.getScore(ScoreRule.DOUBLE_BOND_MISMATCH));
+        assertEquals(0, annotation.getScore());
+        assertEquals(threads * times, annotation.getTotalScoresApplied());
+    }
+
+    @Test
+    public void shouldFoldStripedScores() throws InterruptedException {
+        ScoreLedger ledger = new ScoreLedger();
+        ledger.add(ScoreRule.CARBON_COUNT_ORDER.ordinal(), 1, 1);
+        ledger.stripe();
+        int threads = 8;
+        int times = 20_000;
+        List<Thread> scorers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            scorers.add(new Thread(() -> {
+                for (int i = 0; i < times; i++) {
+                    ledger.add(ScoreRule.CARBON_COUNT_ORDER.ordinal(), 1, 1);
+                    ledger.add(ScoreLedger.UNATTRIBUTED, -2, 1);
+                }
+            }));
+        }
+        scorers.forEach(Thread::start);
+        for (Thread scorer : scorers) scorer.join();
+
+        assertEquals(threads * times + 1, ledger.score(ScoreRule.CARBON_COUNT_ORDER.ordinal()));
+        assertEquals(threads * times + 1, ledger.applied(ScoreRule.CARBON_COUNT_ORDER.ordinal()));
+        assertEquals(-2 * threads * times, ledger.score(ScoreLedger.UNATTRIBUTED));
+        assertEquals(-threads * times + 1, ledger.totalScore());
+        assertEquals(2 * threads * times + 1, ledger.totalApplied());
+    }
+}
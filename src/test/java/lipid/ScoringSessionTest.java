@@ -0,0 +1,140 @@
+package lipid;
+
+import metrics.RuleMetrics;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScoringSessionTest {
+
+    @Test
+    public void shouldScoreAsTheBatchWithAnInfiniteWindow() {
+        List<Annotation> batch = new RandomAnnotations(13).types(3).rt(80, 0.25).sortedByRt().next(150);
+        List<Annotation> online = RandomAnnotations.copy(batch);
+
+        new RuleUnitLipidScorer().score(batch);
+        try (ScoringSession session = new ScoringSession(Double.POSITIVE_INFINITY)) {
+            online.forEach(session::add);
+            assertEquals(online.size(), session.size());
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            for (ScoreRule rule : ScoreRule.values()) {
+                assertEquals(rule + " of " + batch.get(i), batch.get(i).getScoresApplied(rule), online.get(i).getScoresApplied(rule));
+            }
+            assertEquals(batch.get(i).getAdduct(), online.get(i).getAdduct());
+        }
+    }
+
+    /**
+     * With the annotations arriving in RT order, exactly the pairs at most one window apart must be scored.
+     */
+    @Test
+    public void shouldOnlyScorePairsInsideTheWindow() {
+        try (ScoringSession session = new ScoringSession(1.0)) {
+            assertScoresPairsInsideTheWindow(session, 1.0);
+            assertEquals(0, session.getRecycled());
+        }
+    }
+
+    /**
+     * The new instances must neither lose the pairs of the window nor score them again
+     */
+    @Test
+    public void shouldScoreTheSamePairsAcrossRecycledInstances() {
+        try (ScoringSession session = new ScoringSession(1.0, new RuleMetrics("session-test-recycle"), 25)) {
+            assertScoresPairsInsideTheWindow(session, 1.0);
+            assertTrue(session.getRecycled() > 10);
+        }
+    }
+
+    @Test
+    public void shouldNotRetainRetractedAnnotationsInALongRun() throws InterruptedException {
+        RandomAnnotations fixture = new RandomAnnotations(23).types(3);
+        List<WeakReference<Annotation>> added = new ArrayList<>();
+        try (ScoringSession session = new ScoringSession(1.0)) {
+            for (int i = 0; i < 20_000; i++) {
+                add(session, fixture, i * 0.01, added);
+            }
+            assertEquals(0, session.getRecycled());
+            assertTrue(session.size() <= 101);
+            // the engine may hold the last retracted facts until the next insert
+            assertTrue(RuleUnitPoolTest.collected(added.subList(0, added.size() - 200)));
+        }
+    }
+
+    private static void add(ScoringSession session, RandomAnnotations fixture, double rt,
+                            List<WeakReference<Annotation>> added) {
+        Annotation random = fixture.next(1).get(0);
+        Annotation annotation = new Annotation(random.getLipid(), random.getMz(), random.getIntensity(), rt,
+                random.getIonization());
+        session.add(annotation);
+        added.add(new WeakReference<>(annotation));
+    }
+
+    private static void assertScoresPairsInsideTheWindow(ScoringSession session, double window) {
+        List<Annotation> annotations = new RandomAnnotations(17).types(3).rt(80, 0.25).sortedByRt().next(400);
+        int maxLive = 0;
+        for (Annotation annotation : annotations) {
+            session.add(annotation);
+            maxLive = Math.max(maxLive, session.size());
+        }
+        assertEquals(annotations.size(), session.size() + session.getRetracted());
+        // RTs are multiples of 0.25 up to 20, so about 400 / 80 * 5 annotations fit in a window
+        assertTrue("live annotations " + maxLive, maxLive < 60);
+
+        int[][] expected = new int[annotations.size()][ScoreRule.values().length];
+        for (int i = 0; i < annotations.size(); i++) {
+            for (int j = 0; j < annotations.size(); j++) {
+                Annotation a1 = annotations.get(i);
+                Annotation a2 = annotations.get(j);
+                if (i == j || Math.abs(a1.getRtMin() - a2.getRtMin()) > window) continue;
+                for (ScoreRule rule : ScoreRule.values()) {
+                    if (matches(rule, a1, a2)) {
+                        expected[i][rule.ordinal()]++;
+                        expected[j][rule.ordinal()]++;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < annotations.size(); i++) {
+            for (ScoreRule rule : ScoreRule.values()) {
+                assertEquals(rule + " of " + annotations.get(i), expected[i][rule.ordinal()],
+                        annotations.get(i).getScoresApplied(rule));
+            }
+        }
+    }
+
+    /**
+     * Conditions of the rules of lipids.drl for the pair ($a1, $a2)
+     */
+    private static boolean matches(ScoreRule rule, Annotation a1, Annotation a2) {
+        Lipid l1 = a1.getLipid();
+        Lipid l2 = a2.getLipid();
+        boolean later = a2.getRtMin() > a1.getRtMin();
+        boolean earlier = a2.getRtMin() < a1.getRtMin();
+        switch (rule) {
+            case CARBON_COUNT_ORDER:
+                return a1.getTypeDoubleBondsKey() == a2.getTypeDoubleBondsKey() && later && l2.getCarbonCount() > l1.getCarbonCount();
+            case DOUBLE_BOND_ORDER:
+                return a1.getTypeCarbonKey() == a2.getTypeCarbonKey() && earlier && l2.getDoubleBondsCount() > l1.getDoubleBondsCount();
+            case LIPID_TYPE_ORDER:
+                return a1.getCarbonDoubleBondsKey() == a2.getCarbonDoubleBondsKey() && earlier
+                        && LipidPriority.isHigherPriority(l2.getLipidType(), l1.getLipidType());
+            case CARBON_COUNT_MISMATCH:
+                return a1.getTypeDoubleBondsKey() == a2.getTypeDoubleBondsKey() && later && l2.getCarbonCount() < l1.getCarbonCount();
+            case DOUBLE_BOND_MISMATCH:
+                return a1.getTypeCarbonKey() == a2.getTypeCarbonKey() && later && l2.getDoubleBondsCount() > l1.getDoubleBondsCount();
+            case LIPID_TYPE_MISMATCH:
+                return a1.getCarbonDoubleBondsKey() == a2.getCarbonDoubleBondsKey() && later
+                        && LipidPriority.isHigherPriority(l2.getLipidType(), l1.getLipidType());
+            default:
+                throw new IllegalArgumentException(rule.toString());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package main;
+
+import ingest.AnnotationSnapshot;
+import ingest.FeatureTableReader;
+import lipid.Annotation;
+import lipid.ElutionOrderScorer;
+import lipid.Lipid;
+import lipid.RandomAnnotations;
+import lipid.ScoringMode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BatchPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldExportEverySampleAndIsolateFailures() throws Exception {
+        Path samples = folder.newFolder("samples").toPath();
+        Path output = folder.getRoot().toPath().resolve("out");
+        RandomAnnotations fixture = new RandomAnnotations(9).types(3);
+        for (int s = 0; s < 12; s++) {
+            writeSample(samples.resolve(String.format("sample-%02d.csv", s)), fixture, 20 + s);
+        }
+        Files.writeString(samples.resolve("broken.csv"), "mz,rt,intensity,lipid_id,lipid_name\n1.0,2.0,x,1,PC 34:1\n",
+                StandardCharsets.US_ASCII);
+        Files.writeString(samples.resolve("notes.txt"), "not a sample", StandardCharsets.US_ASCII);
+
+        BatchPipeline pipeline = new BatchPipeline(2, 2, 2, 1, 1, ScoringMode.ELUTION_ORDER, null);
+        List<Path> files = BatchPipeline.sampleFiles(samples);
+        assertEquals(13, files.size());
+        BatchPipeline.Summary summary = pipeline.run(files, output);
+
+        assertEquals(13, summary.getSamples());
+        assertEquals(12, summary.getExported());
+        assertEquals(1, summary.getFailures().size());
+        assertEquals("ingest", summary.getFailures().get(0).getStage());
+        assertTrue(summary.getFailures().get(0).getSample().endsWith("broken.csv"));
+        assertEquals(List.of("ingest", "adduct", "score", "export"),
+                summary.getStages().stream().map(BatchPipeline.StageSummary::getStage).toList());
+        for (BatchPipeline.StageSummary stage : summary.getStages()) {
+            assertEquals(12, stage.getSamples());
+            assertEquals(12 * 20 + 66, stage.getAnnotations());
+        }
+        assertTrue(summary.toString().contains("12 exported"));
+
+        for (int s = 0; s < 12; s++) {
+            Path sample = samples.resolve(String.format("sample-%02d.csv", s));
+            AnnotationSnapshot snapshot = AnnotationSnapshot.open(BatchPipeline.snapshotFile(sample, output));
+            List<Annotation> expected = snapshotOfDirectScoring(sample);
+            assertEquals(expected.size(), snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                assertNotNull(snapshot.getAdduct(i));
+                assertEquals(expected.get(i).getScore(), snapshot.getScore(i));
+            }
+        }
+        assertFalse(Files.exists(output.resolve("broken" + BatchPipeline.SNAPSHOT_EXTENSION)));
+    }
+
+    @Test(timeout = 60_000)
+    public void shouldFailTheSamplesOfWorkersThatCannotStart() throws Exception {
+        Path samples = folder.newFolder("samples").toPath();
+        RandomAnnotations fixture = new RandomAnnotations(5).types(3);
+        for (int s = 0; s < 6; s++) {
+            writeSample(samples.resolve(String.format("sample-%02d.csv", s)), fixture, 10);
+        }
+        IllegalStateException broken = new IllegalStateException("no scorer");
+        BatchPipeline pipeline = new BatchPipeline(1, 1, 2, 1, 1, () -> {
+            throw broken;
+        }, null, null);
+
+        BatchPipeline.Summary summary = pipeline.run(BatchPipeline.sampleFiles(samples),
+                folder.getRoot().toPath().resolve("out"));
+
+        assertEquals(0, summary.getExported());
+        assertEquals(6, summary.getFailures().size());
+        for (BatchPipeline.Failure failure : summary.getFailures()) {
+            assertEquals("score", failure.getStage());
+            assertSame(broken, failure.getError());
+        }
+    }
+
+    private static List<Annotation> snapshotOfDirectScoring(Path sample) throws IOException {
+        try (FeatureTableReader reader = new FeatureTableReader(sample, 1000)) {
+            List<Annotation> annotations = reader.nextBatch();
+            new ElutionOrderScorer().score(annotations);
+            return annotations;
+        }
+    }
+
+    private static void writeSample(Path file, RandomAnnotations fixture, int size) throws IOException {
+        StringBuilder text = new StringBuilder("mz,rt,intensity,lipid_id,lipid_name,peaks\n");
+        for (Annotation annotation : fixture.next(size)) {
+            Lipid lipid = annotation.getLipid();
+            double mz = annotation.getMz();
+            text.append(String.format(Locale.ROOT, "%.4f,%.2f,%.1f,%d,%s,%.4f:%.1f;%.4f:%.1f%n", mz,
+                    annotation.getRtMin(), annotation.getIntensity(),
+                    1000 * lipid.getLipidType().ordinal() + 10 * lipid.getCarbonCount() + lipid.getDoubleBondsCount(),
+                    lipid.getName(), mz, 1e5, mz + 21.98194, 5e4));
+        }
+        Files.writeString(file, text, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,118 @@
+package metrics;
+
+import lipid.Annotation;
+import lipid.Ionization;
+import lipid.Lipid;
+import lipid.LipidType;
+import lipid.RuleUnitLipidScorer;
+import lipid.ScoreRule;
+import org.junit.Test;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RuleMetricsTest {
+
+    @Test
+    public void shouldCountFiringsPerRule() {
+        RuleMetrics metrics = new RuleMetrics("LipidScoreUnit");
+        List<Annotation> annotations = List.of(
+                annotation(1, LipidType.TG, 54, 3, 10d),
+                annotation(2, LipidType.TG, 52, 3, 9d),
+                annotation(3, LipidType.TG, 56, 3, 8d));
+
+        new RuleUnitLipidScorer(metrics).score(annotations);
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getFireTimes().getCount());
+        assertTrue(snapshot.getFireTimes().getTotalNanos() > 0);
+        assertEquals(3, snapshot.getInserted());
+        assertEquals(3, snapshot.getRule("identify adduct").getFirings());
+        for (ScoreRule rule : ScoreRule.values()) {
+            // every firing scores both annotations of the pair
+            int applied = annotations.stream().mapToInt(a -> a.getScoresApplied(rule)).sum();
+            assertEquals(rule.toString(), applied / 2, snapshot.getRule(rule.getRuleName()).getFirings());
+        }
+        assertEquals(2, snapshot.getRule(ScoreRule.CARBON_COUNT_MISMATCH.getRuleName()).getFirings());
+        // one instance: its first firing and one in TIMED_FIRINGS after it are timed
+        long firings = snapshot.getRules().values().stream().mapToLong(MetricsSnapshot.RuleSnapshot::getFirings).sum();
+        long timed = snapshot.getRules().values().stream().mapToLong(rule -> rule.getConsequenceTimes().getCount())
+                .sum();
+        assertEquals((firings + RuleMetrics.TIMED_FIRINGS - 1) / RuleMetrics.TIMED_FIRINGS, timed);
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getRule("identify adduct").getFirings());
+    }
+
+    @Test
+    public void shouldExposeMetricsThroughJmx() throws Exception {
+        RuleMetrics metrics = RuleMetrics.of("JmxTestUnit");
+        new RuleUnitLipidScorer(metrics).score(List.of(annotation(1, LipidType.PC, 34, 1, 5d)));
+
+        ObjectName name = new ObjectName("lipid:type=RuleMetrics,unit=\"JmxTestUnit\"");
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FireCount"));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FactsInserted"));
+        RuleMetricsMXBean bean = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), name,
+                RuleMetricsMXBean.class);
+        Map<String, Long> firings = bean.getRuleFirings();
+        assertEquals(Long.valueOf(1), firings.get("identify adduct"));
+        assertEquals(metrics.snapshot().getRule("identify adduct").getEstimatedConsequenceNanos() / 1e6,
+                bean.getRuleConsequenceMillis().get("identify adduct"), 0);
+        assertEquals(metrics.snapshot().getFireTimes().getTotalNanos() / 1e6, bean.getFireTotalMillis(), 0);
+        assertEquals(metrics.snapshot().getFireTimes().percentileNanos(0.99) / 1e6, bean.getFireP99Millis(), 0);
+    }
+
+    @Test
+    public void shouldRecordNothingWhenDisabled() {
+        new RuleUnitLipidScorer(RuleMetrics.DISABLED).score(List.of(annotation(1, LipidType.PC, 34, 1, 5d)));
+
+        assertFalse(RuleMetrics.DISABLED.newRuleConfig().getAgendaEventListeners().iterator().hasNext());
+        MetricsSnapshot snapshot = RuleMetrics.DISABLED.snapshot();
+        assertEquals(0, snapshot.getFireTimes().getCount());
+        assertEquals(0, snapshot.getInserted());
+        assertTrue(snapshot.getRules().isEmpty());
+    }
+
+    @Test
+    public void shouldBeEnabledUnlessTurnedOff() {
+        String property = System.getProperty(RuleMetrics.PROPERTY);
+        try {
+            System.clearProperty(RuleMetrics.PROPERTY);
+            assertSame(RuleMetrics.of("DefaultTestUnit"), RuleMetrics.ifEnabled(DefaultTestUnit.class));
+            System.setProperty(RuleMetrics.PROPERTY, "false");
+            assertSame(RuleMetrics.DISABLED, RuleMetrics.ifEnabled(DefaultTestUnit.class));
+        } finally {
+            if (property == null) System.clearProperty(RuleMetrics.PROPERTY);
+            else System.setProperty(RuleMetrics.PROPERTY, property);
+        }
+    }
+
+    @Test
+    public void shouldBucketByPowersOfTwo() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 99; i++) histogram.record(100);
+        histogram.record(5000);
+        MetricsSnapshot.TimeSnapshot times = histogram.snapshot();
+        assertEquals(100, times.getCount());
+        assertEquals(5000, times.getMaxNanos());
+        assertEquals(99, times.getBucket(Histogram.bucket(100)));
+        assertEquals(128, times.percentileNanos(0.5));
+        assertEquals(5000, times.percentileNanos(1.0));
+    }
+
+    private static final class DefaultTestUnit {
+    }
+
+    private static Annotation annotation(int id, LipidType type, int carbons, int doubleBonds, double rt) {
+        Lipid lipid = new Lipid(id, type + " " + carbons + ":" + doubleBonds, "", type, carbons, doubleBonds);
+        return new Annotation(lipid, 800 + id, 1e5, rt, Ionization.POSITIVE);
+    }
+}